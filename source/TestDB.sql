@@ -51,6 +51,30 @@ INSERT INTO IntKey (id, name) VALUES (3, 'name 3');
 INSERT INTO IntKey (id, name) VALUES (4, 'name 4');
 INSERT INTO IntKey (id, name) VALUES (5, 'name 5');
 
+CREATE TABLE SuidKey (
+  id       BIGINT      NOT NULL,
+  parentId BIGINT      NOT NULL,
+  name     VARCHAR(50),
+    PRIMARY KEY(id)
+);
+
+CREATE SEQUENCE KeySequence AS BIGINT START WITH 1;
+
+CREATE TABLE KeyBlock (
+  name    VARCHAR(50) NOT NULL,
+  nextKey BIGINT      NOT NULL,
+    PRIMARY KEY(name)
+);
+
+INSERT INTO KeyBlock (name, nextKey) VALUES ('SuidKey', 1);
+
+CREATE TABLE VersionedItem (
+  id      INT         NOT NULL,
+  name    VARCHAR(50),
+  version INT         NOT NULL,
+    PRIMARY KEY(id)
+);
+
 
 
 
@@ -14,18 +14,27 @@
  */
 package org.formix.btb;
 
+import java.lang.reflect.InvocationTargetException;
 import java.sql.Statement;
 import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.sql.Timestamp;
-import java.sql.Types;
-import java.util.Calendar;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * <p>
@@ -57,6 +66,22 @@ import java.util.Set;
  */
 public class Bridge<A> {
 
+	/**
+	 * The number of rows sent in each JDBC batch when no batch size is given.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	/**
+	 * The number of keys of each "IN (...)" statement of deleteAllByKey when
+	 * no chunk size is given.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 500;
+
+	// Tells, by database product name, if the driver returns one generated
+	// key per row of an executed batch.
+	private static ConcurrentMap<String, Boolean> batchKeySupport =
+			new ConcurrentHashMap<String, Boolean>();
+
 	private Class<A> type;
 	private Connection connection;
 	private SqlDescriptor descriptor;
@@ -166,7 +191,11 @@ public class Bridge<A> {
 		descriptor = SqlDescriptor.getInstance(type, ignoredProperties);
 		this.type = type;
 		if (descriptor.getReadOnlyColumns() == null) {
-			Set<String> roCols = getReadOnlyColumns(descriptor.getTableName());
+			Set<String> roCols = SchemaIntrospector.getReadOnlyColumns(
+					descriptor.getTableName());
+			if (roCols == null) {
+				roCols = getReadOnlyColumns(descriptor.getTableName());
+			}
 			descriptor.initializeQueries(roCols);
 		}
 	}
@@ -258,6 +287,105 @@ public class Bridge<A> {
 	public void setConnection(Connection connection) {
 	}
 
+	/**
+	 * Gets the generator assigning the primary key of new items before they
+	 * are inserted.
+	 * 
+	 * @return the key generator of the bridged type or null if none is set.
+	 */
+	public KeyGenerator getKeyGenerator() {
+		return descriptor.getKeyGenerator();
+	}
+
+	/**
+	 * Sets the generator assigning the primary key of new items before they
+	 * are inserted. Items having a null or zero key get a generated key and
+	 * the inserts do not read generated keys back from the database, so they
+	 * can be batched freely and the keys of parent rows are known before the
+	 * child rows are inserted. The generator applies to every bridge of the
+	 * same type.
+	 * 
+	 * @param keyGenerator
+	 *            the key generator, or null to stop generating keys.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the type has no primary key or if its primary key is
+	 *             generated by the database.
+	 */
+	public void setKeyGenerator(KeyGenerator keyGenerator) {
+		if (keyGenerator != null) {
+			if (descriptor.getPrimaryKey() == null) {
+				throw new IllegalStateException("The type " + type.getName()
+						+ " has no primary key.");
+			}
+			if (hasGeneratedKey()) {
+				throw new IllegalStateException("The primary key of "
+						+ type.getName() + " is generated by the database.");
+			}
+		}
+		descriptor.setKeyGenerator(keyGenerator);
+	}
+
+	/**
+	 * Assigns a generated primary key to the specified item if a key generator
+	 * is set and the item key is null or zero. Inserting an item assigns its
+	 * key, calling this method beforehand is only needed to know the key
+	 * earlier, for instance to reference it from child items.
+	 * 
+	 * @param item
+	 *            The item needing a key.
+	 * @return true if a key has been assigned.
+	 * @throws SQLException
+	 *             if the key generator fails to generate a key.
+	 */
+	public boolean assignKey(A item) throws SQLException {
+		Util.throwIfNull(item, "item");
+		KeyGenerator generator = descriptor.getKeyGenerator();
+		if ((generator == null) || !hasNewKey(item)) {
+			return false;
+		}
+		PropertyAccessor accessor = descriptor.getWritableAccessor(
+				descriptor.getPrimaryKey());
+		setItemValue(item, descriptor.getPrimaryKey(),
+				toPropertyType(accessor, generator.nextKey(descriptor)));
+		return true;
+	}
+
+	// Assigns the generated key and starts the version at 1, so that a zero
+	// version always denotes an item without row.
+	private void prepareInsert(A item) throws SQLException {
+		assignKey(item);
+		if ((descriptor.getVersionColumn() != null)
+				&& (getVersion(item) == 0)) {
+			incrementVersion(item);
+		}
+	}
+
+	private static Object toPropertyType(PropertyAccessor accessor,
+			Object key) {
+		if (!(key instanceof Number)) {
+			return key;
+		}
+		long value = ((Number) key).longValue();
+		switch (accessor.getBindType()) {
+		case INT:
+			if ((value < Integer.MIN_VALUE) || (value > Integer.MAX_VALUE)) {
+				throw new UnexpectedException("The generated key " + value
+						+ " does not fit in the int property ["
+						+ accessor.getName() + "].");
+			}
+			return (int) value;
+		case LONG:
+			return value;
+		case BIG_DECIMAL:
+			return BigDecimal.valueOf(value);
+		case STRING:
+			return String.valueOf(value);
+		default:
+			return key;
+		}
+	}
+
 	/**
 	 * Creates a query to select objects of the current generic type.
 	 * 
@@ -287,20 +415,180 @@ public class Bridge<A> {
 		return q;
 	}
 
-	private void setStatementValue(PreparedStatement stmt, int parameterIndex, Object value) throws SQLException {
-		if (value != null) {
-			if (value instanceof Character) {
-				stmt.setObject(parameterIndex, value, Types.CHAR);
-			} else {
-				stmt.setObject(parameterIndex, value);
+	/**
+	 * Defines a named group of properties that queries can load alone, see
+	 * Query.setPropertyGroups(). Defining an existing group replaces it.
+	 * 
+	 * @param name
+	 *            the group name.
+	 * @param properties
+	 *            the properties of the group. The primary key is always
+	 *            loaded and does not need to be part of a group.
+	 */
+	public void addPropertyGroup(String name, String... properties) {
+		Util.throwIfNullOrEmpty(name, "name");
+		Util.throwIfNull(properties, "properties");
+		for (String property : properties) {
+			descriptor.getReadableAccessor(property);
+			descriptor.getWritableAccessor(property);
+			if (descriptor.getIgnoredProperties().contains(property)) {
+				throw new IllegalArgumentException("The property ["
+						+ type.getName() + "." + property + "] is ignored.");
+			}
+		}
+		descriptor.setPropertyGroup(name, Arrays.asList(properties));
+	}
+
+	/**
+	 * Tells if all the properties of the given item have been loaded.
+	 * 
+	 * @param item
+	 *            the item.
+	 * @return false if the item has been loaded by a query using property
+	 *         groups and its other properties have not been loaded yet.
+	 */
+	public boolean isLoaded(A item) {
+		Util.throwIfNull(item, "item");
+		return !descriptor.hasLoadTracker()
+				|| !descriptor.getLoadTracker().isPartial(item);
+	}
+
+	/**
+	 * Loads the properties of the given item that its query did not load.
+	 * The missing properties of all the items of the same query result that
+	 * are still partially loaded are loaded as well, with one select by
+	 * primary key per DEFAULT_CHUNK_SIZE items. Properties assigned since the
+	 * partial load keep their assigned values. Does nothing if the item is
+	 * fully loaded.
+	 * 
+	 * @param item
+	 *            the item to load.
+	 * @throws SQLException
+	 *             if a problem occurs during database operations.
+	 */
+	public void ensureLoaded(A item) throws SQLException {
+		Util.throwIfNull(item, "item");
+		ensureLoaded(Collections.singletonList(item));
+	}
+
+	/**
+	 * Loads the properties of the given items that their query did not load,
+	 * along with those of the other items of the same query results.
+	 * 
+	 * @param items
+	 *            the items to load.
+	 * @throws SQLException
+	 *             if a problem occurs during database operations.
+	 * @see #ensureLoaded(Object)
+	 */
+	public void ensureLoaded(Collection<? extends A> items)
+			throws SQLException {
+		Util.throwIfNull(items, "items");
+		if (!descriptor.hasLoadTracker()) {
+			return;
+		}
+		for (A item : items) {
+			LoadTracker tracker = descriptor.getLoadTracker();
+			LoadTracker.Batch batch = tracker.get(item);
+			if (batch != null) {
+				// Removed only once loaded: after a failure, the items stay
+				// partially loaded and are never written with missing values.
+				loadMissing(batch);
+				tracker.remove(batch);
+			}
+		}
+	}
+
+	private void loadMissing(LoadTracker.Batch batch) throws SQLException {
+		String key = descriptor.getPrimaryKey();
+		Map<Object, Object> items = new HashMap<Object, Object>();
+		List<Map<String, Object>> assigned =
+				new ArrayList<Map<String, Object>>(batch.getItems().size());
+		for (int i = 0; i < batch.getItems().size(); i++) {
+			Object item = batch.getItems().get(i);
+			items.put(descriptor.getValue(item, key), item);
+			assigned.add(batch.getAssigned(i));
+		}
+
+		StringBuilder sb = new StringBuilder("SELECT ");
+		sb.append(descriptor.getTableName()).append(".").append(key);
+		for (String property : batch.getMissing()) {
+			sb.append(", ").append(descriptor.getTableName()).append(".")
+					.append(property);
+		}
+		sb.append(" FROM ").append(descriptor.getTableName());
+		sb.append(" WHERE ").append(descriptor.getTableName()).append(".")
+				.append(key).append(" IN (?");
+		String select = sb.toString();
+
+		Connection connection = this.connection;
+		boolean closeConn = false;
+		if (connection == null) {
+			closeConn = true;
+			connection = Connector.openConnection();
+		}
+
+		ColumnType keyType = descriptor.getReadableAccessor(key).getBindType();
+		List<Object> keys = new ArrayList<Object>(items.keySet());
+		try {
+			for (int start = 0; start < keys.size();
+					start += DEFAULT_CHUNK_SIZE) {
+				List<Object> chunk = keys.subList(start,
+						Math.min(start + DEFAULT_CHUNK_SIZE, keys.size()));
+				StringBuilder query = new StringBuilder(select);
+				for (int i = 1; i < chunk.size(); i++) {
+					query.append(", ?");
+				}
+				query.append(")");
+				PreparedStatement stmt = connection.prepareStatement(
+						query.toString());
+				try {
+					int parameterIndex = 1;
+					for (Object value : chunk) {
+						ParameterBinder.bindLoose(stmt, parameterIndex, keyType,
+								value);
+						parameterIndex++;
+					}
+					ResultSet rs = stmt.executeQuery();
+					try {
+						RowMapper mapper = RowMapper.compile(descriptor, key,
+								rs.getMetaData());
+						while (rs.next()) {
+							Object item = items.get(mapper.readKey(rs));
+							if (item != null) {
+								mapper.map(item, rs);
+							}
+						}
+					} finally {
+						rs.close();
+					}
+				} finally {
+					stmt.close();
+				}
+			}
+		} finally {
+			if (closeConn) {
+				Connector.closeConnection();
+			}
+		}
+
+		// The loaded values are recorded as such, then the values assigned
+		// since the partial load are put back so that they get written.
+		for (int i = 0; i < batch.getItems().size(); i++) {
+			Object item = batch.getItems().get(i);
+			if (descriptor.hasChangeTracker()) {
+				descriptor.getChangeTracker().snapshot(item,
+						batch.getMissing());
+			}
+			for (Map.Entry<String, Object> entry : assigned.get(i).entrySet()) {
+				setItemValue(item, entry.getKey(), entry.getValue());
 			}
-		} else {
-			stmt.setNull(parameterIndex, Types.VARCHAR);
 		}
 	}
 
 	/**
-	 * Insert the specified item in the database.
+	 * Insert the specified item in the database. When the type has a version
+	 * column and the item version is zero, the version is set to 1.
 	 * 
 	 * @param item
 	 *            The item to insert.
@@ -317,59 +605,269 @@ public class Bridge<A> {
 			connection = Connector.openConnection();
 		}
 
-		PreparedStatement stmt = connection.prepareStatement(descriptor.getInsertQuery(),
-				Statement.RETURN_GENERATED_KEYS);
-		setParameters(stmt, item);
-		stmt.executeUpdate();
-		fetchBackAutoKey(item, stmt.getGeneratedKeys());
-		stmt.close();
+		prepareInsert(item);
+		if (hasGeneratedKey()) {
+			PreparedStatement stmt = connection.prepareStatement(
+					descriptor.getInsertQuery(),
+					Statement.RETURN_GENERATED_KEYS);
+			setParameters(stmt, item);
+			stmt.executeUpdate();
+			fetchBackAutoKey(item, stmt.getGeneratedKeys());
+			stmt.close();
+		} else {
+			PreparedStatement stmt = connection.prepareStatement(
+					descriptor.getInsertQuery());
+			setParameters(stmt, item);
+			stmt.executeUpdate();
+			stmt.close();
+		}
 
 		if (closeConn) {
 			Connector.closeConnection();
 		}
 	}
 
-	private int setParameters(PreparedStatement stmt, Object item) throws SQLException {
+	/**
+	 * Inserts the specified items in the database using JDBC batches of
+	 * DEFAULT_BATCH_SIZE rows.
+	 * 
+	 * @param items
+	 *            The items to insert.
+	 * @throws SQLException
+	 *             if a problem occurs during database operations.
+	 */
+	public void insertAll(Collection<? extends A> items) throws SQLException {
+		insertAll(items, DEFAULT_BATCH_SIZE);
+	}
 
-		int parameterIndex = 1;
-		for (String columnName : descriptor.getColumns()) {
+	/**
+	 * Inserts the specified items in the database using JDBC batches. When the
+	 * primary key is generated by the database, the generated keys are set
+	 * back into the items. If the driver does not return one generated key per
+	 * batched row (Apache Derby for instance), the rows are inserted one at a
+	 * time with a single prepared statement so that each key can be fetched.
+	 * If such a driver is only found out after a batch has been executed, the
+	 * rows inserted so far are rolled back and the items are inserted one at
+	 * a time when this call opened the transaction; otherwise an SQLException
+	 * is thrown and the owner of the transaction must roll it back.
+	 * When a key generator is set, the keys are assigned before the rows are
+	 * batched and nothing is read back.
+	 * 
+	 * @param items
+	 *            The items to insert.
+	 * @param batchSize
+	 *            The maximum number of rows sent in each batch.
+	 * @throws SQLException
+	 *             if a problem occurs during database operations.
+	 */
+	public void insertAll(Collection<? extends A> items, int batchSize)
+			throws SQLException {
+		Util.throwIfNull(items, "items");
+		checkBatchSize(batchSize);
+		if (items.isEmpty()) {
+			return;
+		}
+
+		Connection connection = this.connection;
+		boolean closeConn = false;
+		if (connection == null) {
+			closeConn = true;
+			connection = Connector.openConnection();
+		}
+		boolean ownsTransaction = closeConn && Connector.isOutermost();
 
-			if (descriptor.getReadOnlyColumns().contains(columnName)
-					|| this.descriptor.getIgnoredProperties().contains(columnName)) {
-				continue;
+		try {
+			boolean generatedKey = hasGeneratedKey();
+			if (generatedKey && !returnsBatchKeys(connection)) {
+				insertEach(connection, items);
+			} else if (!insertBatches(connection, items, batchSize,
+					generatedKey)) {
+				// The rows are inserted but some items have no key. They can
+				// only be inserted again, row by row, if the rows inserted so
+				// far can be rolled back.
+				if (!ownsTransaction) {
+					throw new SQLException("The driver did not return the "
+							+ "generated keys of a batch. Roll back the "
+							+ "transaction and insert the items again.");
+				}
+				Connector.rollBack();
+				connection = Connector.openConnection();
+				insertEach(connection, items);
+			}
+		} finally {
+			if (closeConn) {
+				Connector.closeConnection();
 			}
+		}
+	}
+
+	private static void checkBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException(
+					"The batch size must be greater than zero.");
+		}
+	}
+
+	private boolean hasGeneratedKey() {
+		String key = descriptor.getPrimaryKey();
+		return (key != null) && descriptor.isReadOnly(key);
+	}
 
-			// Added to support Calendar properties.
-			Object value = descriptor.getValue(item, columnName);
-			if (value instanceof Calendar) {
-				Calendar cal = (Calendar) value;
-				value = new Timestamp(cal.getTimeInMillis());
+	private static boolean returnsBatchKeys(Connection connection)
+			throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		String product = metaData.getDatabaseProductName();
+		Boolean supported = batchKeySupport.get(product);
+		if (supported == null) {
+			// Derby only returns the key of the last row of a batch.
+			supported = metaData.supportsGetGeneratedKeys()
+					&& !"Apache Derby".equals(product);
+			batchKeySupport.put(product, supported);
+		}
+		return supported;
+	}
+
+	private void insertEach(Connection connection,
+			Collection<? extends A> items) throws SQLException {
+		PreparedStatement stmt = connection.prepareStatement(
+				descriptor.getInsertQuery(), Statement.RETURN_GENERATED_KEYS);
+		try {
+			for (A item : items) {
+				Util.throwIfNull(item, "item");
+				prepareInsert(item);
+				setParameters(stmt, item);
+				stmt.executeUpdate();
+				fetchBackAutoKey(item, stmt.getGeneratedKeys());
 			}
+		} finally {
+			stmt.close();
+		}
+	}
 
-			setStatementValue(stmt, parameterIndex, value);
-			parameterIndex++;
+	// Returns false, after inserting the rows of the current batch, if the
+	// driver did not return a key per row.
+	private boolean insertBatches(Connection connection,
+			Collection<? extends A> items, int batchSize, boolean generatedKey)
+			throws SQLException {
+		PreparedStatement stmt;
+		if (generatedKey) {
+			stmt = connection.prepareStatement(descriptor.getInsertQuery(),
+					Statement.RETURN_GENERATED_KEYS);
+		} else {
+			stmt = connection.prepareStatement(descriptor.getInsertQuery());
+		}
+
+		try {
+			List<A> batch = new ArrayList<A>(Math.min(batchSize, items.size()));
+			for (A item : items) {
+				Util.throwIfNull(item, "item");
+				prepareInsert(item);
+				setParameters(stmt, item);
+				stmt.addBatch();
+				batch.add(item);
+				if (batch.size() == batchSize) {
+					if (!executeInsertBatch(connection, stmt, batch,
+							generatedKey)) {
+						return false;
+					}
+					batch.clear();
+				}
+			}
+			if (!batch.isEmpty()) {
+				return executeInsertBatch(connection, stmt, batch,
+						generatedKey);
+			}
+			return true;
+		} finally {
+			stmt.close();
+		}
+	}
+
+	private boolean executeInsertBatch(Connection connection,
+			PreparedStatement stmt, List<A> batch, boolean generatedKey)
+			throws SQLException {
+		stmt.executeBatch();
+		if (generatedKey) {
+			return fetchBackAutoKeys(connection, batch,
+					stmt.getGeneratedKeys());
+		}
+		return true;
+	}
 
+	private boolean fetchBackAutoKeys(Connection connection, List<A> batch,
+			ResultSet rs) throws SQLException {
+		List<Object> keys = new ArrayList<Object>(batch.size());
+		try {
+			while (rs.next()) {
+				keys.add(rs.getObject(1));
+			}
+		} finally {
+			rs.close();
+		}
+
+		if (keys.size() != batch.size()) {
+			// Later batches of this database are inserted row by row.
+			batchKeySupport.put(
+					connection.getMetaData().getDatabaseProductName(),
+					Boolean.FALSE);
+			return false;
+		}
+
+		for (int i = 0; i < keys.size(); i++) {
+			setAutoKey(batch.get(i), keys.get(i));
+		}
+		return true;
+	}
+
+	private int setParameters(PreparedStatement stmt, Object item) throws SQLException {
+		return setParameters(stmt, item, descriptor.getInsertAccessors());
+	}
+
+	private int setParameters(PreparedStatement stmt, Object item,
+			PropertyAccessor[] accessors) throws SQLException {
+
+		int parameterIndex = 1;
+		for (PropertyAccessor accessor : accessors) {
+			Object value = getItemValue(item, accessor);
+			ParameterBinder.bind(stmt, parameterIndex, accessor.getBindType(),
+					value);
+			parameterIndex++;
 		}
 
 		return parameterIndex;
 	}
 
+	private Object getItemValue(Object item, PropertyAccessor accessor) {
+		try {
+			return accessor.get(item);
+		} catch (InvocationTargetException e) {
+			throw new RuntimeException(e);
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	// Supports only one auto generated key.
 	private void fetchBackAutoKey(Object item, ResultSet rs) throws SQLException {
-		if (rs.next() && (rs.getObject(1) != null)) {
-			String key = descriptor.getPrimaryKey();
-			Object value = rs.getObject(1);
-
-			if (value instanceof BigDecimal) {
-				BigDecimal castVal = (BigDecimal) value;
-				value = castVal.intValue();
-			}
-			setItemValue(item, key, value);
+		if (rs.next()) {
+			setAutoKey(item, rs.getObject(1));
 		}
 
 		rs.close();
 	}
 
+	private void setAutoKey(Object item, Object value) {
+		if (value == null) {
+			return;
+		}
+
+		if (value instanceof BigDecimal) {
+			BigDecimal castVal = (BigDecimal) value;
+			value = castVal.intValue();
+		}
+		setItemValue(item, descriptor.getPrimaryKey(), value);
+	}
+
 	private void setItemValue(Object item, String columnName, Object value) {
 		try {
 			descriptor.setValue(item, columnName, value);
@@ -380,15 +878,39 @@ public class Bridge<A> {
 	}
 
 	/**
-	 * Updates the specified item in the database.
+	 * Updates the specified item in the database. When the type has a version
+	 * column (see SqlDescriptor.getVersionColumn()), the row is only updated
+	 * if it still has the version of the item, and the version of the item is
+	 * incremented. A partially loaded item is completed first, see
+	 * ensureLoaded().
 	 * 
 	 * @param item
 	 *            The item to update.
 	 * @throws SQLException
 	 *             if a problem occurs during database operations.
+	 * @throws OptimisticLockException
+	 *             if the type has a version column and the row has been
+	 *             modified or deleted since the item was loaded.
 	 */
 	public void update(A item) throws SQLException {
 		Util.throwIfNull(item, "item");
+		ensureLoaded(item);
+
+		// Items loaded by a query tracking changes only update their changed
+		// columns, if any.
+		BitSet changes = null;
+		if (descriptor.hasChangeTracker()) {
+			changes = descriptor.getChangeTracker().getChanges(item,
+					descriptor.getInsertAccessors());
+			if (changes != null) {
+				if (descriptor.getVersionIndex() >= 0) {
+					changes.clear(descriptor.getVersionIndex());
+				}
+				if (changes.isEmpty()) {
+					return;
+				}
+			}
+		}
 
 		Connection connection = this.connection;
 		boolean closeConn = false;
@@ -397,21 +919,97 @@ public class Bridge<A> {
 			connection = Connector.openConnection();
 		}
 
-		PreparedStatement stmt = connection.prepareStatement(descriptor.getUpdateQuery());
-		int parameterIndex = setParameters(stmt, item);
-		setStatementKey(stmt, parameterIndex, item);
-		stmt.executeUpdate();
-		stmt.close();
+		try {
+			PreparedStatement stmt;
+			int parameterIndex;
+			if (changes == null) {
+				stmt = connection.prepareStatement(descriptor.getUpdateQuery());
+				parameterIndex = setParameters(stmt, item,
+						descriptor.getUpdateAccessors());
+			} else {
+				stmt = connection.prepareStatement(
+						descriptor.getUpdateQuery(changes));
+				parameterIndex = setParameters(stmt, item, changes);
+			}
+			int count;
+			try {
+				setUpdateCondition(stmt, parameterIndex, item);
+				count = stmt.executeUpdate();
+			} finally {
+				stmt.close();
+			}
 
-		if (closeConn) {
-			Connector.closeConnection();
+			if (descriptor.getVersionColumn() != null) {
+				if (count == 0) {
+					throw createOptimisticLockException(
+							Collections.singletonList(item));
+				}
+				incrementVersion(item);
+			}
+			if (changes != null) {
+				descriptor.getChangeTracker().snapshot(item);
+			}
+		} finally {
+			if (closeConn) {
+				Connector.closeConnection();
+			}
 		}
 	}
 
+	private int setParameters(PreparedStatement stmt, Object item,
+			BitSet changes) throws SQLException {
+		PropertyAccessor[] accessors = descriptor.getInsertAccessors();
+		int parameterIndex = 1;
+		for (int i = changes.nextSetBit(0); i >= 0;
+				i = changes.nextSetBit(i + 1)) {
+			PropertyAccessor accessor = accessors[i];
+			ParameterBinder.bind(stmt, parameterIndex, accessor.getBindType(),
+					getItemValue(item, accessor));
+			parameterIndex++;
+		}
+		return parameterIndex;
+	}
+
 	private void setStatementKey(PreparedStatement stmt, int parameterIndex, Object item) throws SQLException {
-		Object value = descriptor.getValue(item, descriptor.getPrimaryKey());
-		setStatementValue(stmt, parameterIndex, value);
-		parameterIndex++;
+		PropertyAccessor accessor = descriptor.getReadableAccessor(
+				descriptor.getPrimaryKey());
+		Object value = getItemValue(item, accessor);
+		ParameterBinder.bind(stmt, parameterIndex, accessor.getBindType(),
+				value);
+	}
+
+	// Binds the WHERE clause of the update query: the key, then the version.
+	private void setUpdateCondition(PreparedStatement stmt, int parameterIndex,
+			Object item) throws SQLException {
+		setStatementKey(stmt, parameterIndex, item);
+		String versionColumn = descriptor.getVersionColumn();
+		if (versionColumn != null) {
+			PropertyAccessor accessor = descriptor.getReadableAccessor(
+					versionColumn);
+			ParameterBinder.bind(stmt, parameterIndex + 1,
+					accessor.getBindType(), getItemValue(item, accessor));
+		}
+	}
+
+	private long getVersion(Object item) {
+		Object version = getItemValue(item,
+				descriptor.getReadableAccessor(descriptor.getVersionColumn()));
+		return version == null ? 0 : ((Number) version).longValue();
+	}
+
+	private void incrementVersion(Object item) {
+		String versionColumn = descriptor.getVersionColumn();
+		PropertyAccessor accessor = descriptor
+				.getWritableAccessor(versionColumn);
+		setItemValue(item, versionColumn,
+				toPropertyType(accessor, getVersion(item) + 1));
+	}
+
+	private OptimisticLockException createOptimisticLockException(
+			List<?> items) {
+		return new OptimisticLockException(items.size() + " " + type.getName()
+				+ " item(s) have been modified or deleted since they were "
+				+ "loaded: " + items, items);
 	}
 
 	/**
@@ -437,9 +1035,626 @@ public class Bridge<A> {
 		stmt.executeUpdate();
 		stmt.close();
 
+		if (descriptor.hasChangeTracker()) {
+			descriptor.getChangeTracker().forget(item);
+		}
+
 		if (closeConn) {
 			Connector.closeConnection();
 		}
 	}
 
+	/**
+	 * Updates the specified items in the database using JDBC batches of
+	 * DEFAULT_BATCH_SIZE rows.
+	 * 
+	 * @param items
+	 *            The items to update.
+	 * @return the update count of each item, in the iteration order of the
+	 *         collection.
+	 * @throws SQLException
+	 *             if a problem occurs during database operations.
+	 */
+	public int[] updateAll(Collection<? extends A> items) throws SQLException {
+		return updateAll(items, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Updates the specified items in the database using JDBC batches.
+	 * Partially loaded items are completed first, see ensureLoaded().
+	 * 
+	 * @param items
+	 *            The items to update.
+	 * @param batchSize
+	 *            The maximum number of rows sent in each batch.
+	 * @return the update count of each item, in the iteration order of the
+	 *         collection. A count can be Statement.SUCCESS_NO_INFO if the
+	 *         driver does not report it.
+	 * @throws SQLException
+	 *             if a problem occurs during database operations.
+	 * @throws OptimisticLockException
+	 *             if the type has a version column and some rows have been
+	 *             modified or deleted since their items were loaded. The
+	 *             versions of the items are then left unchanged. The updates
+	 *             are rolled back only if this call opened the transaction
+	 *             (no connection given to the bridge and no Connector
+	 *             connection already open on the thread); otherwise the
+	 *             owner of the transaction decides.
+	 */
+	public int[] updateAll(Collection<? extends A> items, int batchSize)
+			throws SQLException {
+		Util.throwIfNull(items, "items");
+		ensureLoaded(items);
+		int[] counts = executeBatches(descriptor.getUpdateQuery(), items,
+				batchSize, descriptor.getUpdateAccessors(), true,
+				descriptor.getVersionColumn() != null);
+		refreshSnapshots(items);
+		return counts;
+	}
+
+	/**
+	 * Deletes the specified items from the database using JDBC batches of
+	 * DEFAULT_BATCH_SIZE rows.
+	 * 
+	 * @param items
+	 *            The items to delete.
+	 * @return the delete count of each item, in the iteration order of the
+	 *         collection.
+	 * @throws SQLException
+	 *             if a problem occurs during database operations.
+	 */
+	public int[] deleteAll(Collection<? extends A> items) throws SQLException {
+		return deleteAll(items, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Deletes the specified items from the database using JDBC batches.
+	 * 
+	 * @param items
+	 *            The items to delete.
+	 * @param batchSize
+	 *            The maximum number of rows sent in each batch.
+	 * @return the delete count of each item, in the iteration order of the
+	 *         collection. A count can be Statement.SUCCESS_NO_INFO if the
+	 *         driver does not report it.
+	 * @throws SQLException
+	 *             if a problem occurs during database operations.
+	 */
+	public int[] deleteAll(Collection<? extends A> items, int batchSize)
+			throws SQLException {
+		int[] counts = executeBatches(descriptor.getDeleteQuery(), items,
+				batchSize, null, true, false);
+		if (descriptor.hasChangeTracker()) {
+			ChangeTracker tracker = descriptor.getChangeTracker();
+			for (A item : items) {
+				tracker.forget(item);
+			}
+		}
+		return counts;
+	}
+
+	// Records the written values of the tracked items, so that the next
+	// update only writes what changes after this write.
+	private void refreshSnapshots(Collection<? extends A> items) {
+		if (descriptor.hasChangeTracker()) {
+			ChangeTracker tracker = descriptor.getChangeTracker();
+			for (A item : items) {
+				tracker.refresh(item);
+			}
+		}
+	}
+
+	private int[] executeBatches(String query, Collection<? extends A> items,
+			int batchSize, PropertyAccessor[] columns, boolean bindKey,
+			boolean checkVersion) throws SQLException {
+		Util.throwIfNull(items, "items");
+		checkBatchSize(batchSize);
+
+		int[] counts = new int[items.size()];
+		if (items.isEmpty()) {
+			return counts;
+		}
+
+		Connection connection = this.connection;
+		boolean closeConn = false;
+		if (connection == null) {
+			closeConn = true;
+			connection = Connector.openConnection();
+		}
+		boolean ownsTransaction = closeConn && Connector.isOutermost();
+
+		try {
+			PreparedStatement stmt = connection.prepareStatement(query);
+			try {
+				int done = 0;
+				int pending = 0;
+				for (A item : items) {
+					Util.throwIfNull(item, "item");
+					int parameterIndex = 1;
+					if (columns != null) {
+						parameterIndex = setParameters(stmt, item, columns);
+					}
+					if (checkVersion) {
+						setUpdateCondition(stmt, parameterIndex, item);
+					} else if (bindKey) {
+						setStatementKey(stmt, parameterIndex, item);
+					}
+					stmt.addBatch();
+					pending++;
+					if (pending == batchSize) {
+						done = copyCounts(stmt.executeBatch(), counts, done);
+						pending = 0;
+					}
+				}
+				if (pending > 0) {
+					copyCounts(stmt.executeBatch(), counts, done);
+				}
+			} finally {
+				stmt.close();
+			}
+			if (checkVersion) {
+				checkVersions(items, counts, ownsTransaction);
+			}
+		} finally {
+			if (closeConn) {
+				Connector.closeConnection();
+			}
+		}
+
+		return counts;
+	}
+
+	// Increments the versions of the items if every row was updated. On a
+	// conflict, the transaction is only rolled back if the caller owns it.
+	private void checkVersions(Collection<? extends A> items, int[] counts,
+			boolean rollBack) {
+		List<A> conflicts = new ArrayList<A>();
+		int i = 0;
+		for (A item : items) {
+			if (counts[i] == 0) {
+				conflicts.add(item);
+			}
+			i++;
+		}
+		if (!conflicts.isEmpty()) {
+			if (rollBack) {
+				Connector.rollBack();
+			}
+			throw createOptimisticLockException(conflicts);
+		}
+		for (A item : items) {
+			incrementVersion(item);
+		}
+	}
+
+	private static int copyCounts(int[] batchCounts, int[] counts, int offset) {
+		System.arraycopy(batchCounts, 0, counts, offset, batchCounts.length);
+		return offset + batchCounts.length;
+	}
+
+	/**
+	 * Deletes the rows having the specified primary key values. The keys are
+	 * sent in chunks of DEFAULT_CHUNK_SIZE values.
+	 * 
+	 * @param keys
+	 *            The primary key values of the rows to delete.
+	 * @return the number of rows deleted.
+	 * @throws SQLException
+	 *             if a problem occurs during database operations.
+	 */
+	public int deleteAllByKey(Collection<?> keys) throws SQLException {
+		return deleteAllByKey(keys, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Deletes the rows having the specified primary key values. The keys are
+	 * sent in chunks using "DELETE FROM {table} WHERE {key} IN (?, ...)"
+	 * statements.
+	 * 
+	 * @param keys
+	 *            The primary key values of the rows to delete.
+	 * @param chunkSize
+	 *            The maximum number of keys of each statement.
+	 * @return the number of rows deleted.
+	 * @throws SQLException
+	 *             if a problem occurs during database operations.
+	 */
+	public int deleteAllByKey(Collection<?> keys, int chunkSize)
+			throws SQLException {
+		Util.throwIfNull(keys, "keys");
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException(
+					"The chunk size must be greater than zero.");
+		}
+		if (keys.isEmpty()) {
+			return 0;
+		}
+
+		Connection connection = this.connection;
+		boolean closeConn = false;
+		if (connection == null) {
+			closeConn = true;
+			connection = Connector.openConnection();
+		}
+
+		ColumnType keyType = descriptor.getReadableAccessor(
+				descriptor.getPrimaryKey()).getBindType();
+		int deleted = 0;
+		PreparedStatement fullStmt = null;
+		try {
+			List<Object> chunk = new ArrayList<Object>(Math.min(chunkSize,
+					keys.size()));
+			for (Object key : keys) {
+				Util.throwIfNull(key, "key");
+				chunk.add(key);
+				if (chunk.size() == chunkSize) {
+					if (fullStmt == null) {
+						fullStmt = connection.prepareStatement(
+								createDeleteInQuery(chunkSize));
+					}
+					deleted += executeDeleteChunk(fullStmt, keyType, chunk);
+					chunk.clear();
+				}
+			}
+			if (!chunk.isEmpty()) {
+				PreparedStatement stmt = connection.prepareStatement(
+						createDeleteInQuery(chunk.size()));
+				try {
+					deleted += executeDeleteChunk(stmt, keyType, chunk);
+				} finally {
+					stmt.close();
+				}
+			}
+			if (descriptor.hasChangeTracker()) {
+				descriptor.getChangeTracker().forgetAll(
+						descriptor.getPrimaryKey(), keys);
+			}
+		} finally {
+			if (fullStmt != null) {
+				fullStmt.close();
+			}
+			if (closeConn) {
+				Connector.closeConnection();
+			}
+		}
+
+		return deleted;
+	}
+
+	private String createDeleteInQuery(int keyCount) {
+		StringBuilder sb = new StringBuilder("DELETE FROM ");
+		sb.append(descriptor.getTableName());
+		sb.append(" WHERE ");
+		sb.append(descriptor.getPrimaryKey());
+		sb.append(" IN (?");
+		for (int i = 1; i < keyCount; i++) {
+			sb.append(", ?");
+		}
+		sb.append(")");
+		return sb.toString();
+	}
+
+	private static int executeDeleteChunk(PreparedStatement stmt,
+			ColumnType keyType, List<Object> keys) throws SQLException {
+		int parameterIndex = 1;
+		for (Object key : keys) {
+			ParameterBinder.bindLoose(stmt, parameterIndex, keyType, key);
+			parameterIndex++;
+		}
+		return stmt.executeUpdate();
+	}
+
+	/**
+	 * Deletes the rows matching the specified filter with a single DELETE
+	 * statement. The filter is rendered and bound the same way as the filter
+	 * of a Query.
+	 * 
+	 * @param filter
+	 *            The filter selecting the rows to delete.
+	 * @return the number of rows deleted.
+	 * @throws SQLException
+	 *             if a problem occurs during database operations.
+	 */
+	public int delete(Filter filter) throws SQLException {
+		Util.throwIfNull(filter, "filter");
+		int count = executeFiltered("DELETE FROM " + descriptor.getTableName()
+				+ " WHERE " + filter, new ArrayList<PropertyAccessor>(),
+				new ArrayList<Object>(), filter);
+		// The deleted items are unknown: their snapshots are all dropped.
+		if (descriptor.hasChangeTracker()) {
+			descriptor.getChangeTracker().clear();
+		}
+		return count;
+	}
+
+	/**
+	 * Assigns values to the rows matching the specified filter with a single
+	 * UPDATE statement. When the type has a version column which is not
+	 * assigned, the version of every updated row is incremented.
+	 * 
+	 * @param filter
+	 *            The filter selecting the rows to update.
+	 * @param assignments
+	 *            The new values by property name.
+	 * @return the number of rows updated.
+	 * @throws SQLException
+	 *             if a problem occurs during database operations.
+	 */
+	public int update(Filter filter, Map<String, Object> assignments)
+			throws SQLException {
+		Util.throwIfNull(filter, "filter");
+		Util.throwIfNull(assignments, "assignments");
+		if (assignments.isEmpty()) {
+			throw new IllegalArgumentException("There is no value to assign.");
+		}
+
+		List<PropertyAccessor> accessors = new ArrayList<PropertyAccessor>(
+				assignments.size());
+		List<Object> values = new ArrayList<Object>(assignments.size());
+		StringBuilder sb = new StringBuilder("UPDATE ");
+		sb.append(descriptor.getTableName()).append(" SET ");
+		for (Map.Entry<String, Object> assignment : assignments.entrySet()) {
+			String property = assignment.getKey();
+			PropertyAccessor accessor = descriptor.getAccessor(property);
+			if ((accessor == null) || descriptor.isReadOnly(property)
+					|| descriptor.getIgnoredProperties().contains(property)) {
+				throw new IllegalArgumentException("The property ["
+						+ type.getName() + "." + property
+						+ "] is not a writable column.");
+			}
+			if (!accessors.isEmpty()) {
+				sb.append(", ");
+			}
+			sb.append(property).append(" = ?");
+			accessors.add(accessor);
+			values.add(assignment.getValue());
+		}
+		String versionColumn = descriptor.getVersionColumn();
+		if ((versionColumn != null)
+				&& !assignments.containsKey(versionColumn)) {
+			sb.append(", ").append(versionColumn).append(" = ").append(
+					versionColumn).append(" + 1");
+		}
+		sb.append(" WHERE ").append(filter);
+
+		int count = executeFiltered(sb.toString(), accessors, values, filter);
+		// The updated items are unknown: their snapshots are all dropped.
+		if (descriptor.hasChangeTracker()) {
+			descriptor.getChangeTracker().clear();
+		}
+		return count;
+	}
+
+	private int executeFiltered(String query, List<PropertyAccessor> accessors,
+			List<Object> values, Filter filter) throws SQLException {
+		Connection connection = this.connection;
+		boolean closeConn = false;
+		if (connection == null) {
+			closeConn = true;
+			connection = Connector.openConnection();
+		}
+
+		try {
+			PreparedStatement stmt = connection.prepareStatement(query);
+			try {
+				int parameterIndex = 1;
+				for (int i = 0; i < accessors.size(); i++) {
+					ParameterBinder.bindLoose(stmt, parameterIndex,
+							accessors.get(i).getBindType(), values.get(i));
+					parameterIndex++;
+				}
+				ParameterBinder.bindFilter(stmt, descriptor, filter,
+						parameterIndex);
+				return stmt.executeUpdate();
+			} finally {
+				stmt.close();
+			}
+		} finally {
+			if (closeConn) {
+				Connector.closeConnection();
+			}
+		}
+	}
+
+	/**
+	 * Inserts the specified item or updates it if a row with the same primary
+	 * key already exists. On databases having an upsert statement (MERGE,
+	 * INSERT ... ON CONFLICT or INSERT ... ON DUPLICATE KEY UPDATE) a single
+	 * statement is executed. Otherwise an update is tried first and the item
+	 * is inserted if no row was updated. When the primary key is generated by
+	 * the database, items with a null or zero key are inserted and the others
+	 * are updated. When a key generator is set, items with a null or zero key
+	 * get a generated key and are inserted. When the type has a version column,
+	 * items with a zero version are inserted and the others are updated with
+	 * the version check.
+	 * 
+	 * @param item
+	 *            The item to save.
+	 * @throws SQLException
+	 *             if a problem occurs during database operations.
+	 * @throws OptimisticLockException
+	 *             if the type has a version column and the row has been
+	 *             modified or deleted since the item was loaded.
+	 */
+	public void save(A item) throws SQLException {
+		Util.throwIfNull(item, "item");
+
+		if (isNew(item)) {
+			insert(item);
+			return;
+		}
+		if (hasGeneratedKey() || (descriptor.getVersionColumn() != null)) {
+			update(item);
+			return;
+		}
+		ensureLoaded(item);
+
+		Connection connection = this.connection;
+		boolean closeConn = false;
+		if (connection == null) {
+			closeConn = true;
+			connection = Connector.openConnection();
+		}
+
+		try {
+			String query = descriptor.getUpsertQuery(
+					Dialect.detect(connection));
+			if (query == null) {
+				if (executeFullUpdate(connection, item) == 0) {
+					insert(item);
+				}
+			} else {
+				PreparedStatement stmt = connection.prepareStatement(query);
+				try {
+					setParameters(stmt, item);
+					stmt.executeUpdate();
+				} finally {
+					stmt.close();
+				}
+			}
+			if (descriptor.hasChangeTracker()) {
+				descriptor.getChangeTracker().refresh(item);
+			}
+		} finally {
+			if (closeConn) {
+				Connector.closeConnection();
+			}
+		}
+	}
+
+	/**
+	 * Saves the specified items using JDBC batches of DEFAULT_BATCH_SIZE rows.
+	 * 
+	 * @param items
+	 *            The items to save.
+	 * @throws SQLException
+	 *             if a problem occurs during database operations.
+	 * @see #save(Object)
+	 */
+	public void saveAll(Collection<? extends A> items) throws SQLException {
+		saveAll(items, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Saves the specified items using JDBC batches. On databases having an
+	 * upsert statement, the upsert statement is batched. Otherwise the items
+	 * are updated in batches, then those matching no row are inserted in
+	 * batches.
+	 * 
+	 * @param items
+	 *            The items to save.
+	 * @param batchSize
+	 *            The maximum number of rows sent in each batch.
+	 * @throws SQLException
+	 *             if a problem occurs during database operations.
+	 * @see #save(Object)
+	 */
+	public void saveAll(Collection<? extends A> items, int batchSize)
+			throws SQLException {
+		Util.throwIfNull(items, "items");
+		checkBatchSize(batchSize);
+		if (items.isEmpty()) {
+			return;
+		}
+
+		boolean updated = hasGeneratedKey()
+				|| (descriptor.getVersionColumn() != null);
+		if (updated || (descriptor.getKeyGenerator() != null)) {
+			List<A> inserted = new ArrayList<A>();
+			List<A> saved = new ArrayList<A>();
+			for (A item : items) {
+				Util.throwIfNull(item, "item");
+				if (isNew(item)) {
+					inserted.add(item);
+				} else {
+					saved.add(item);
+				}
+			}
+			if (updated) {
+				updateAll(saved, batchSize);
+			} else if (!saved.isEmpty()) {
+				upsertAll(saved, batchSize);
+			}
+			insertAll(inserted, batchSize);
+			return;
+		}
+
+		upsertAll(items, batchSize);
+	}
+
+	private void upsertAll(Collection<? extends A> items, int batchSize)
+			throws SQLException {
+		ensureLoaded(items);
+		Connection connection = this.connection;
+		boolean closeConn = false;
+		if (connection == null) {
+			closeConn = true;
+			connection = Connector.openConnection();
+		}
+
+		try {
+			String query = descriptor.getUpsertQuery(
+					Dialect.detect(connection));
+			if (query != null) {
+				executeBatches(query, items, batchSize,
+						descriptor.getInsertAccessors(), false, false);
+				refreshSnapshots(items);
+				return;
+			}
+
+			int[] counts = updateAll(items, batchSize);
+			List<A> inserted = new ArrayList<A>();
+			int i = 0;
+			for (A item : items) {
+				int count = counts[i];
+				if (count == Statement.SUCCESS_NO_INFO) {
+					count = executeFullUpdate(connection, item);
+				}
+				if (count == 0) {
+					inserted.add(item);
+				}
+				i++;
+			}
+			insertAll(inserted, batchSize);
+			refreshSnapshots(items);
+		} finally {
+			if (closeConn) {
+				Connector.closeConnection();
+			}
+		}
+	}
+
+	// Tells if the item is known to have no row: its key is to be generated
+	// or its version is zero.
+	private boolean isNew(Object item) {
+		if (hasGeneratedKey()) {
+			return hasNewKey(item);
+		}
+		if ((descriptor.getKeyGenerator() != null) && hasNewKey(item)) {
+			return true;
+		}
+		return (descriptor.getVersionColumn() != null)
+				&& (getVersion(item) == 0);
+	}
+
+	private boolean hasNewKey(Object item) {
+		Object key = getItemValue(item,
+				descriptor.getReadableAccessor(descriptor.getPrimaryKey()));
+		return (key == null) || ((key instanceof Number)
+				&& (((Number) key).longValue() == 0));
+	}
+
+	private int executeFullUpdate(Connection connection, Object item)
+			throws SQLException {
+		PreparedStatement stmt = connection.prepareStatement(
+				descriptor.getUpdateQuery());
+		try {
+			int parameterIndex = setParameters(stmt, item,
+					descriptor.getUpdateAccessors());
+			setUpdateCondition(stmt, parameterIndex, item);
+			return stmt.executeUpdate();
+		} finally {
+			stmt.close();
+		}
+	}
 }
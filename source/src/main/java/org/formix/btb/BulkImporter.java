@@ -0,0 +1,437 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * <p>
+ * Loads large CSV files into the table of an entity type. The CSV fields must
+ * follow the column order of the insert query of the entity (see
+ * SqlDescriptor.getInsertQuery()), an optional header line being skipped.
+ * </p>
+ * <p>
+ * The file is read through memory mapped windows and numbers are parsed
+ * directly from the file bytes. Rows are bound with the typed
+ * PreparedStatement setters and sent in JDBC batches. With the embedded
+ * Apache Derby driver, files without header are loaded with
+ * SYSCS_UTIL.SYSCS_IMPORT_DATA instead, unless the native import is disabled
+ * or the import runs in a transaction opened by the caller. The network
+ * client always uses batches: the procedure would read the file from the
+ * file system of the server.
+ * </p>
+ * <p>
+ * JDBC batches are sent in the transaction of the connection. When the
+ * importer opened that transaction, it commits the whole file at the end and
+ * rolls everything back on failure; otherwise the caller decides. The Derby
+ * import procedure commits, or rolls back, the transaction by itself.
+ * </p>
+ *
+ * @author Jean-Philippe Gravel
+ */
+public class BulkImporter<A> {
+
+	/**
+	 * The result of an import.
+	 */
+	public static class Result {
+		private final long rowCount;
+		private final long elapsedNanos;
+		private final boolean nativeImport;
+
+		Result(long rowCount, long elapsedNanos, boolean nativeImport) {
+			this.rowCount = rowCount;
+			this.elapsedNanos = elapsedNanos;
+			this.nativeImport = nativeImport;
+		}
+
+		/**
+		 * @return the number of rows imported.
+		 */
+		public long getRowCount() {
+			return rowCount;
+		}
+
+		/**
+		 * @return the duration of the import, in milliseconds.
+		 */
+		public long getElapsedMillis() {
+			return elapsedNanos / 1000000;
+		}
+
+		/**
+		 * @return the number of rows imported per second.
+		 */
+		public double getRowsPerSecond() {
+			if (elapsedNanos == 0) {
+				return 0;
+			}
+			return rowCount * 1000000000.0 / elapsedNanos;
+		}
+
+		/**
+		 * @return true if the rows have been loaded by the database native
+		 *         import.
+		 */
+		public boolean isNativeImport() {
+			return nativeImport;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d rows in %d ms (%.0f rows/s%s)", rowCount,
+					getElapsedMillis(), getRowsPerSecond(),
+					nativeImport ? ", native" : "");
+		}
+	}
+
+	private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private Bridge<A> bridge;
+	private SqlDescriptor descriptor;
+	private char delimiter;
+	private boolean header;
+	private int batchSize;
+	private boolean nativeImportEnabled;
+
+	/**
+	 * Creates an importer for the given type using the Connector.
+	 *
+	 * @param type
+	 *            the entity type.
+	 *
+	 * @throws SQLException
+	 *             if the bridge cannot be created.
+	 */
+	public BulkImporter(Class<A> type) throws SQLException {
+		this(new Bridge<A>(type));
+	}
+
+	/**
+	 * Creates an importer writing through the connection of the given bridge.
+	 *
+	 * @param bridge
+	 *            the bridge of the entity type.
+	 */
+	public BulkImporter(Bridge<A> bridge) {
+		Util.throwIfNull(bridge, "bridge");
+		this.bridge = bridge;
+		this.descriptor = bridge.getDescriptor();
+		this.delimiter = ',';
+		this.header = false;
+		this.batchSize = Bridge.DEFAULT_BATCH_SIZE;
+		this.nativeImportEnabled = true;
+	}
+
+	/**
+	 * @return the field delimiter, a comma by default.
+	 */
+	public char getDelimiter() {
+		return delimiter;
+	}
+
+	/**
+	 * @param delimiter
+	 *            the field delimiter, an ASCII character.
+	 */
+	public void setDelimiter(char delimiter) {
+		if ((delimiter > 127) || (delimiter == '"') || (delimiter == '\n')) {
+			throw new IllegalArgumentException("Invalid delimiter: "
+					+ delimiter);
+		}
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * @return true if the first line of the file is skipped.
+	 */
+	public boolean hasHeader() {
+		return header;
+	}
+
+	/**
+	 * @param header
+	 *            true to skip the first line of the file.
+	 */
+	public void setHeader(boolean header) {
+		this.header = header;
+	}
+
+	/**
+	 * @return the number of rows sent in each batch.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @param batchSize
+	 *            the number of rows sent in each batch.
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException(
+					"The batch size must be greater than zero.");
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @return true if the native import of the database is used when
+	 *         possible.
+	 */
+	public boolean isNativeImportEnabled() {
+		return nativeImportEnabled;
+	}
+
+	/**
+	 * @param nativeImportEnabled
+	 *            false to always load the rows with JDBC batches.
+	 */
+	public void setNativeImportEnabled(boolean nativeImportEnabled) {
+		this.nativeImportEnabled = nativeImportEnabled;
+	}
+
+	/**
+	 * Imports the given CSV file.
+	 *
+	 * @param file
+	 *            the UTF-8 CSV file to load.
+	 *
+	 * @return the number of rows imported and the import speed.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 * @throws SQLException
+	 *             if the rows cannot be inserted.
+	 */
+	public Result importFile(File file) throws IOException, SQLException {
+		Util.throwIfNull(file, "file");
+		if (!file.isFile()) {
+			throw new IOException("The file " + file + " does not exist.");
+		}
+
+		Connection connection = bridge.getConnection();
+		boolean closeConn = false;
+		if (connection == null) {
+			closeConn = true;
+			connection = Connector.openConnection();
+		}
+		boolean ownsTransaction = closeConn && Connector.isOutermost();
+
+		boolean success = false;
+		try {
+			Result result;
+			long start = System.nanoTime();
+			if (nativeImportEnabled && !header && ownsTransaction
+					&& isEmbeddedDerby(connection)) {
+				long rows = importDerby(connection, file);
+				result = new Result(rows, System.nanoTime() - start, true);
+			} else {
+				long rows = importBatches(connection, file);
+				result = new Result(rows, System.nanoTime() - start, false);
+			}
+			success = true;
+			return result;
+		} finally {
+			if (ownsTransaction && !success) {
+				Connector.rollBack();
+			} else if (closeConn) {
+				Connector.closeConnection();
+			}
+		}
+	}
+
+	private long importBatches(Connection connection, File file)
+			throws IOException, SQLException {
+		PropertyAccessor[] accessors = descriptor.getInsertAccessors();
+		PreparedStatement stmt = connection.prepareStatement(descriptor
+				.getInsertQuery());
+		MappedCsvReader reader = new MappedCsvReader(file, delimiter,
+				WINDOW_SIZE);
+		long rows = 0;
+		try {
+			if (header) {
+				reader.nextRecord();
+			}
+			int pending = 0;
+			while (reader.nextRecord()) {
+				for (int i = 0; i < accessors.length; i++) {
+					if (!reader.readField()) {
+						throw new IOException("Line " + reader.getLine()
+								+ ": " + accessors.length
+								+ " fields expected, " + i + " found.");
+					}
+					bind(stmt, i + 1, accessors[i].getBindType(), reader);
+				}
+				if (!reader.isEndOfRecord()) {
+					throw new IOException("Line " + reader.getLine()
+							+ ": more than " + accessors.length
+							+ " fields found.");
+				}
+				stmt.addBatch();
+				rows++;
+				pending++;
+				if (pending == batchSize) {
+					stmt.executeBatch();
+					pending = 0;
+				}
+			}
+			if (pending > 0) {
+				stmt.executeBatch();
+			}
+		} finally {
+			reader.close();
+			stmt.close();
+		}
+		return rows;
+	}
+
+	private static void bind(PreparedStatement stmt, int index,
+			ColumnType type, MappedCsvReader reader) throws SQLException {
+		if (reader.isNull()) {
+			stmt.setNull(index, type.getSqlType());
+			return;
+		}
+
+		switch (type) {
+		case BOOLEAN:
+			stmt.setBoolean(index, reader.getBoolean());
+			break;
+		case BYTE:
+			stmt.setByte(index, (byte) getLong(reader, Byte.MIN_VALUE,
+					Byte.MAX_VALUE));
+			break;
+		case SHORT:
+			stmt.setShort(index, (short) getLong(reader, Short.MIN_VALUE,
+					Short.MAX_VALUE));
+			break;
+		case INT:
+			stmt.setInt(index, (int) getLong(reader, Integer.MIN_VALUE,
+					Integer.MAX_VALUE));
+			break;
+		case LONG:
+			stmt.setLong(index, reader.getLong());
+			break;
+		case FLOAT:
+			stmt.setFloat(index, (float) reader.getDouble());
+			break;
+		case DOUBLE:
+			stmt.setDouble(index, reader.getDouble());
+			break;
+		case BIG_DECIMAL:
+			stmt.setBigDecimal(index, reader.getBigDecimal());
+			break;
+		case DATE:
+			stmt.setDate(index, java.sql.Date.valueOf(reader.getString()));
+			break;
+		case TIME:
+			stmt.setTime(index, java.sql.Time.valueOf(reader.getString()));
+			break;
+		case TIMESTAMP:
+		case CALENDAR:
+			stmt.setTimestamp(index, toTimestamp(reader.getString()));
+			break;
+		case BYTES:
+			stmt.setBytes(index, reader.getBytes());
+			break;
+		case CHARACTER:
+			stmt.setObject(index, reader.getString(), Types.CHAR);
+			break;
+		default:
+			stmt.setString(index, reader.getString());
+			break;
+		}
+	}
+
+	private static long getLong(MappedCsvReader reader, long min, long max) {
+		long value = reader.getLong();
+		if ((value < min) || (value > max)) {
+			throw new NumberFormatException("Line " + reader.getLine() + ": ["
+					+ reader.getString() + "] is out of range.");
+		}
+		return value;
+	}
+
+	private static Timestamp toTimestamp(String value) {
+		if (value.length() == 10) {
+			return new Timestamp(java.sql.Date.valueOf(value).getTime());
+		}
+		return Timestamp.valueOf(value);
+	}
+
+	// SYSCS_IMPORT_DATA opens the file on the database server, which is only
+	// this machine with the embedded driver.
+	private static boolean isEmbeddedDerby(Connection connection)
+			throws SQLException {
+		if (Dialect.detect(connection) != Dialect.DERBY) {
+			return false;
+		}
+		String driver = connection.getMetaData().getDriverName();
+		return (driver != null) && driver.toLowerCase().contains("embedded");
+	}
+
+	private long importDerby(Connection connection, File file)
+			throws IOException, SQLException {
+		StringBuilder columns = new StringBuilder();
+		for (PropertyAccessor accessor : descriptor.getInsertAccessors()) {
+			if (columns.length() > 0) {
+				columns.append(',');
+			}
+			columns.append(accessor.getName().toUpperCase());
+		}
+
+		CallableStatement stmt = connection
+				.prepareCall("CALL SYSCS_UTIL.SYSCS_IMPORT_DATA"
+						+ "(?, ?, ?, ?, ?, ?, ?, ?, ?)");
+		try {
+			stmt.setNull(1, Types.VARCHAR);
+			stmt.setString(2, descriptor.getTableName().toUpperCase());
+			stmt.setString(3, columns.toString());
+			stmt.setNull(4, Types.VARCHAR);
+			stmt.setString(5, file.getAbsolutePath());
+			stmt.setString(6, String.valueOf(delimiter));
+			stmt.setString(7, "\"");
+			stmt.setString(8, "UTF-8");
+			stmt.setShort(9, (short) 0);
+			stmt.execute();
+		} finally {
+			stmt.close();
+		}
+		return countRecords(file);
+	}
+
+	// The Derby import procedure does not return the number of rows loaded.
+	private long countRecords(File file) throws IOException {
+		MappedCsvReader reader = new MappedCsvReader(file, delimiter,
+				WINDOW_SIZE);
+		long rows = 0;
+		try {
+			while (reader.nextRecord()) {
+				rows++;
+			}
+		} finally {
+			reader.close();
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the values of the persisted properties of loaded items, as they were
+ * read from the database. Items are compared by identity and held through
+ * weak references, so tracking an item never prevents it from being garbage
+ * collected.
+ *
+ * @author Jean-Philippe Gravel
+ */
+class ChangeTracker {
+
+	private final PropertyAccessor[] accessors;
+	private final Map<String, Integer> indexes;
+	private final Map<ItemReference, Object[]> snapshots;
+	private final ReferenceQueue<Object> queue;
+
+	/**
+	 * Creates a change tracker for the readable properties of the given
+	 * descriptor.
+	 *
+	 * @param descriptor
+	 *            the descriptor of the tracked type.
+	 */
+	public ChangeTracker(SqlDescriptor descriptor) {
+		List<String> columns = descriptor.getColumns();
+		PropertyAccessor[] list = new PropertyAccessor[columns.size()];
+		this.indexes = new HashMap<String, Integer>();
+		int count = 0;
+		for (String column : columns) {
+			PropertyAccessor accessor = descriptor.getAccessor(column);
+			if ((accessor != null) && accessor.isReadable()) {
+				list[count] = accessor;
+				this.indexes.put(column, count);
+				count++;
+			}
+		}
+		this.accessors = Arrays.copyOf(list, count);
+		this.snapshots = new HashMap<ItemReference, Object[]>();
+		this.queue = new ReferenceQueue<Object>();
+	}
+
+	/**
+	 * Records the current values of the given item.
+	 *
+	 * @param item
+	 *            the item to snapshot.
+	 */
+	public void snapshot(Object item) {
+		Object[] values = new Object[accessors.length];
+		for (int i = 0; i < accessors.length; i++) {
+			values[i] = copy(read(accessors[i], item));
+		}
+		synchronized (snapshots) {
+			purge();
+			snapshots.put(new ItemReference(item, queue), values);
+		}
+	}
+
+	/**
+	 * Records the current values of some properties of a tracked item,
+	 * keeping the snapshot of the others. Untracked items are ignored.
+	 *
+	 * @param item
+	 *            the item.
+	 * @param properties
+	 *            the properties to record.
+	 */
+	public void snapshot(Object item, String[] properties) {
+		synchronized (snapshots) {
+			Object[] values = snapshots.get(new ItemReference(item, null));
+			if (values == null) {
+				return;
+			}
+			for (String property : properties) {
+				Integer index = indexes.get(property);
+				if (index != null) {
+					values[index] = copy(read(accessors[index], item));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records again all the values of a tracked item, after it has been
+	 * written. Untracked items are ignored.
+	 *
+	 * @param item
+	 *            the item.
+	 */
+	public void refresh(Object item) {
+		if (isTracked(item)) {
+			snapshot(item);
+		}
+	}
+
+	/**
+	 * Tells if the given item has a snapshot.
+	 *
+	 * @param item
+	 *            the item.
+	 *
+	 * @return true if the item is tracked.
+	 */
+	public boolean isTracked(Object item) {
+		synchronized (snapshots) {
+			return snapshots.containsKey(new ItemReference(item, null));
+		}
+	}
+
+	/**
+	 * Stops tracking the given item.
+	 *
+	 * @param item
+	 *            the item to forget.
+	 */
+	public void forget(Object item) {
+		synchronized (snapshots) {
+			snapshots.remove(new ItemReference(item, null));
+		}
+	}
+
+	/**
+	 * Stops tracking the items whose snapshot has one of the given values for
+	 * the given property.
+	 *
+	 * @param property
+	 *            the name of the property, usually the primary key.
+	 * @param values
+	 *            the values of the items to forget.
+	 */
+	public void forgetAll(String property, Collection<?> values) {
+		Integer index = indexes.get(property);
+		synchronized (snapshots) {
+			if (index == null) {
+				snapshots.clear();
+				return;
+			}
+			Set<?> set = new HashSet<Object>(values);
+			Iterator<Object[]> iterator = snapshots.values().iterator();
+			while (iterator.hasNext()) {
+				if (set.contains(iterator.next()[index])) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops tracking all the items.
+	 */
+	public void clear() {
+		synchronized (snapshots) {
+			snapshots.clear();
+		}
+	}
+
+	/**
+	 * Compares the given properties of an item with its snapshot.
+	 *
+	 * @param item
+	 *            the item.
+	 * @param written
+	 *            the accessors of the properties to compare.
+	 *
+	 * @return the positions, in the written array, of the properties having
+	 *         changed or null if the item has no snapshot.
+	 */
+	public BitSet getChanges(Object item, PropertyAccessor[] written) {
+		Object[] values;
+		synchronized (snapshots) {
+			values = snapshots.get(new ItemReference(item, null));
+		}
+		if (values == null) {
+			return null;
+		}
+
+		BitSet changes = new BitSet(written.length);
+		for (int i = 0; i < written.length; i++) {
+			Integer index = indexes.get(written[i].getName());
+			if ((index == null)
+					|| !same(values[index], read(written[i], item))) {
+				changes.set(i);
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * @return the number of tracked items.
+	 */
+	public int size() {
+		synchronized (snapshots) {
+			purge();
+			return snapshots.size();
+		}
+	}
+
+	private void purge() {
+		Object ref = queue.poll();
+		while (ref != null) {
+			snapshots.remove(ref);
+			ref = queue.poll();
+		}
+	}
+
+	static Object read(PropertyAccessor accessor, Object item) {
+		try {
+			return accessor.get(item);
+		} catch (InvocationTargetException e) {
+			throw new UnexpectedException("Unable to read the property ["
+					+ accessor.getName() + "].", e);
+		} catch (IllegalAccessException e) {
+			throw new UnexpectedException("Unable to read the property ["
+					+ accessor.getName() + "].", e);
+		}
+	}
+
+	// Mutable values are copied, otherwise changing them in place would go
+	// unnoticed.
+	static Object copy(Object value) {
+		if (value instanceof Calendar) {
+			return ((Calendar) value).clone();
+		} else if (value instanceof Date) {
+			return ((Date) value).clone();
+		} else if (value instanceof byte[]) {
+			return ((byte[]) value).clone();
+		}
+		return value;
+	}
+
+	static boolean same(Object a, Object b) {
+		if (a == b) {
+			return true;
+		} else if ((a == null) || (b == null)) {
+			return false;
+		} else if ((a instanceof byte[]) && (b instanceof byte[])) {
+			return Arrays.equals((byte[]) a, (byte[]) b);
+		}
+		return a.equals(b);
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * The JDBC access method family used to read or write a property, derived
+ * from the Java type of the property. Each column type also tells the SQL type
+ * used to bind null values.
+ *
+ * @author Jean-Philippe Gravel
+ */
+enum ColumnType {
+	/**
+	 * boolean or Boolean, read with ResultSet.getBoolean.
+	 */
+	BOOLEAN(Types.BOOLEAN, Boolean.class),
+	/**
+	 * byte or Byte, read with ResultSet.getByte.
+	 */
+	BYTE(Types.TINYINT, Byte.class),
+	/**
+	 * short or Short, read with ResultSet.getShort.
+	 */
+	SHORT(Types.SMALLINT, Short.class),
+	/**
+	 * int or Integer, read with ResultSet.getInt.
+	 */
+	INT(Types.INTEGER, Integer.class),
+	/**
+	 * long or Long, read with ResultSet.getLong.
+	 */
+	LONG(Types.BIGINT, Long.class),
+	/**
+	 * float or Float, read with ResultSet.getFloat.
+	 */
+	FLOAT(Types.REAL, Float.class),
+	/**
+	 * double or Double, read with ResultSet.getDouble.
+	 */
+	DOUBLE(Types.DOUBLE, Double.class),
+	/**
+	 * BigDecimal, read with ResultSet.getBigDecimal.
+	 */
+	BIG_DECIMAL(Types.DECIMAL, BigDecimal.class),
+	/**
+	 * String, read with ResultSet.getString.
+	 */
+	STRING(Types.VARCHAR, String.class),
+	/**
+	 * java.sql.Date, read with ResultSet.getDate.
+	 */
+	DATE(Types.DATE, java.sql.Date.class),
+	/**
+	 * java.sql.Time, read with ResultSet.getTime.
+	 */
+	TIME(Types.TIME, java.sql.Time.class),
+	/**
+	 * java.util.Date or java.sql.Timestamp, read with ResultSet.getTimestamp.
+	 */
+	TIMESTAMP(Types.TIMESTAMP, Date.class),
+	/**
+	 * Calendar, read with ResultSet.getTimestamp and converted.
+	 */
+	CALENDAR(Types.TIMESTAMP, Calendar.class),
+	/**
+	 * char or Character, read with ResultSet.getString.
+	 */
+	CHARACTER(Types.CHAR, Character.class),
+	/**
+	 * byte[], read with ResultSet.getBytes.
+	 */
+	BYTES(Types.VARBINARY, byte[].class),
+	/**
+	 * Any other type, read with ResultSet.getObject.
+	 */
+	OBJECT(Types.VARCHAR, Object.class);
+
+	private final int sqlType;
+	private final Class<?> javaType;
+
+	private ColumnType(int sqlType, Class<?> javaType) {
+		this.sqlType = sqlType;
+		this.javaType = javaType;
+	}
+
+	/**
+	 * @return the java.sql.Types constant used to bind null values of this
+	 *         type.
+	 */
+	public int getSqlType() {
+		return sqlType;
+	}
+
+	/**
+	 * Tells if the given value can be bound with the specialized setter of
+	 * this column type.
+	 *
+	 * @param value
+	 *            a non null value.
+	 *
+	 * @return true if the value is an instance of the (boxed) Java type of
+	 *         this column type.
+	 */
+	public boolean accepts(Object value) {
+		return javaType.isInstance(value);
+	}
+
+	/**
+	 * Gets the column type matching the given Java type.
+	 *
+	 * @param type
+	 *            the Java type of a property.
+	 *
+	 * @return the matching column type, OBJECT if there is no specialized
+	 *         access method for the type.
+	 */
+	public static ColumnType of(Class<?> type) {
+		if ((type == boolean.class) || (type == Boolean.class)) {
+			return BOOLEAN;
+		} else if ((type == byte.class) || (type == Byte.class)) {
+			return BYTE;
+		} else if ((type == short.class) || (type == Short.class)) {
+			return SHORT;
+		} else if ((type == int.class) || (type == Integer.class)) {
+			return INT;
+		} else if ((type == long.class) || (type == Long.class)) {
+			return LONG;
+		} else if ((type == float.class) || (type == Float.class)) {
+			return FLOAT;
+		} else if ((type == double.class) || (type == Double.class)) {
+			return DOUBLE;
+		} else if (type == BigDecimal.class) {
+			return BIG_DECIMAL;
+		} else if (type == String.class) {
+			return STRING;
+		} else if (type == java.sql.Date.class) {
+			return DATE;
+		} else if (type == java.sql.Time.class) {
+			return TIME;
+		} else if ((type == Date.class) || (type == java.sql.Timestamp.class)) {
+			return TIMESTAMP;
+		} else if (Calendar.class.isAssignableFrom(type)) {
+			return CALENDAR;
+		} else if ((type == char.class) || (type == Character.class)) {
+			return CHARACTER;
+		} else if (type == byte[].class) {
+			return BYTES;
+		}
+		return OBJECT;
+	}
+}
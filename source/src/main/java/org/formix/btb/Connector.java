@@ -74,6 +74,15 @@ public class Connector {
 	private static final Integer STATIC_SYNC = new Integer(0);
 	private static Map<Long, Connector> instances = null;
 
+	/**
+	 * The default number of idle prepared statements cached by each
+	 * connection.
+	 */
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+
+	private static volatile int statementCacheSize =
+			DEFAULT_STATEMENT_CACHE_SIZE;
+
 	/**
 	 * The singleton connector based on the ConnectionManager using the default
 	 * connection string.
@@ -113,6 +122,17 @@ public class Connector {
 		getInstance().rollback();
 	}
 
+	/**
+	 * Tells if the connection of the current thread is opened only once: the
+	 * caller of the last openConnection() then owns the transaction and may
+	 * roll it back without undoing the work of an outer caller.
+	 * 
+	 * @return true if the connection stack count is 1.
+	 */
+	static boolean isOutermost() {
+		return getInstance().getConnectionStackCount() == 1;
+	}
+
 	/**
 	 * Close the current connection.
 	 */
@@ -134,6 +154,67 @@ public class Connector {
 		getInstance().setEnabled(false);
 	}
 
+	/**
+	 * Gets the number of idle prepared statements cached by the connections
+	 * opened from now on.
+	 * 
+	 * @return the statement cache size, 0 if the cache is disabled.
+	 */
+	public static int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	/**
+	 * Sets the number of idle prepared statements cached by the connections
+	 * opened from now on. Connections already opened keep their cache size.
+	 * 
+	 * @param size
+	 *            the statement cache size, 0 to disable the cache.
+	 */
+	public static void setStatementCacheSize(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException(
+					"The statement cache size cannot be negative.");
+		}
+		statementCacheSize = size;
+	}
+
+	/**
+	 * @return the number of prepared statements served from the statement
+	 *         caches of all connections.
+	 */
+	public static long getStatementCacheHitCount() {
+		return StatementCache.getTotalHitCount();
+	}
+
+	/**
+	 * @return the number of prepared statements created by the driver while
+	 *         the statement cache was enabled.
+	 */
+	public static long getStatementCacheMissCount() {
+		return StatementCache.getTotalMissCount();
+	}
+
+	/**
+	 * @return the ratio of prepared statements served from the statement
+	 *         caches, between 0 and 1.
+	 */
+	public static double getStatementCacheHitRate() {
+		long hits = StatementCache.getTotalHitCount();
+		long total = hits + StatementCache.getTotalMissCount();
+		if (total == 0) {
+			return 0;
+		}
+		return (double) hits / total;
+	}
+
+	/**
+	 * Resets the statement cache hit and miss counters.
+	 */
+	public static void resetStatementCacheStatistics() {
+		StatementCache.resetTotals();
+	}
+
 	private UnclosableConnection connection;
 	private int connectionStack;
 	private boolean enabled;
@@ -214,10 +295,11 @@ public class Connector {
 			if (this.connectionUrl == null) {
 				ConnectionManager cm = new ConnectionManager();
 				this.connection = new UnclosableConnection(
-						cm.createConnection());
+						cm.createConnection(), statementCacheSize);
 			} else {
 				this.connection = new UnclosableConnection(
-						DriverManager.getConnection(this.connectionUrl));
+						DriverManager.getConnection(this.connectionUrl),
+						statementCacheSize);
 			}
 			this.connection.setAutoCommit(false);
 		}
@@ -240,7 +322,7 @@ public class Connector {
 			this.connectionStack--;
 			if (this.connectionStack == 0) {
 				this.connection.commit();
-				this.connection.getInternalConnection().close();
+				closeInternalConnection();
 				this.connection = null;
 			}
 		} catch (SQLException e) {
@@ -260,7 +342,7 @@ public class Connector {
 			if (this.connectionStack > 0) {
 				this.connectionStack = 0;
 				this.connection.rollback();
-				this.connection.getInternalConnection().close();
+				closeInternalConnection();
 				this.connection = null;
 			}
 		} catch (SQLException e) {
@@ -268,6 +350,14 @@ public class Connector {
 		}
 	}
 
+	private void closeInternalConnection() throws SQLException {
+		try {
+			this.connection.closeStatements();
+		} finally {
+			this.connection.getInternalConnection().close();
+		}
+	}
+
 	/**
 	 * Gets the current connection.
 	 * 
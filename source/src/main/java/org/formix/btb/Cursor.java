@@ -0,0 +1,144 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.io.Closeable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * Iterates over the result of a query, mapping each row only when it is
+ * read. Only the current row is held in memory, so a cursor can go through
+ * tables of any size.
+ * </p>
+ * <p>
+ * The statement, the result set and, if the query opened it, the Connector
+ * connection are released when the last row has been read or when the
+ * cursor is closed, whichever comes first. Unlike Query.execute(), rows
+ * sharing the same primary key are not merged: each row gives a new object.
+ * SQL errors met while iterating are thrown as UnexpectedException.
+ * </p>
+ *
+ * @author Jean-Philippe Gravel
+ */
+public class Cursor<I> implements Iterator<I>, Closeable {
+
+	private final Query<I> query;
+	private final PreparedStatement stmt;
+	private final ResultSet rs;
+	private final RowMapper mapper;
+	private final ChangeTracker tracker;
+	private final Connector connector;
+	private I next;
+	private boolean closed;
+
+	Cursor(Query<I> query, PreparedStatement stmt, ResultSet rs,
+			RowMapper mapper, ChangeTracker tracker, Connector connector) {
+		this.query = query;
+		this.stmt = stmt;
+		this.rs = rs;
+		this.mapper = mapper;
+		this.tracker = tracker;
+		this.connector = connector;
+		this.next = null;
+		this.closed = false;
+	}
+
+	/**
+	 * Tells if another object can be read. The cursor is closed when the
+	 * last row has been read.
+	 *
+	 * @return true if next() returns an object.
+	 */
+	public boolean hasNext() {
+		if (next != null) {
+			return true;
+		}
+		if (closed) {
+			return false;
+		}
+		try {
+			while (rs.next()) {
+				next = query.mapRow(rs, mapper, tracker);
+				if (next != null) {
+					return true;
+				}
+			}
+		} catch (SQLException e) {
+			close();
+			throw new UnexpectedException("Unable to read the next row.", e);
+		}
+		close();
+		return false;
+	}
+
+	/**
+	 * Reads the next object.
+	 *
+	 * @return the object mapped from the next row.
+	 */
+	public I next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		I item = next;
+		next = null;
+		return item;
+	}
+
+	/**
+	 * Not supported.
+	 */
+	public void remove() {
+		throw new UnsupportedOperationException(
+				"A cursor does not delete rows.");
+	}
+
+	/**
+	 * @return true if the cursor has been closed.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Releases the result set, the statement and the Connector connection
+	 * opened by the query. Closing a closed cursor has no effect.
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		next = null;
+		try {
+			try {
+				rs.close();
+			} finally {
+				stmt.close();
+			}
+		} catch (SQLException e) {
+			throw new UnexpectedException("Unable to close the cursor.", e);
+		} finally {
+			if (connector != null) {
+				connector.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,385 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * Saves the descriptors built by the current process to a local file and
+ * restores them on the next start. A snapshot entry holds the get/set methods
+ * of each column, the ignored properties and the read only columns of an
+ * entity type. The table name, the primary key and the SQL queries are derived
+ * from them again when the entry is restored.
+ * </p>
+ * <p>
+ * Restoring a snapshot skips both the reflective scan of the entity types and
+ * the database round trips used to find read only columns. An entry is only
+ * restored when the fingerprint of the entity class files still matches and
+ * when the snapshot was saved for the same schema version. The schema version
+ * is any string identifying the database schema, typically the version of the
+ * last applied migration.
+ * </p>
+ * <p>
+ * The file is a standard properties file.
+ * </p>
+ *
+ * @author Jean-Philippe Gravel
+ */
+public final class DescriptorSnapshot {
+
+	/**
+	 * The version of the snapshot file format. Files written with another
+	 * format version are ignored.
+	 */
+	public static final int FORMAT_VERSION = 1;
+
+	private static final String COMMENT =
+			"Bridge to Babylon descriptor snapshot";
+	private static final String SNAPSHOT_VERSION = "snapshot.version";
+	private static final String SCHEMA_VERSION = "schema.version";
+	private static final String ENTITY_COUNT = "entity.count";
+
+	private static final Map<String, Class<?>> PRIMITIVES;
+
+	static {
+		PRIMITIVES = new HashMap<String, Class<?>>();
+		Class<?>[] primitives = new Class<?>[] { boolean.class, byte.class,
+				char.class, short.class, int.class, long.class, float.class,
+				double.class };
+		for (Class<?> primitive : primitives) {
+			PRIMITIVES.put(primitive.getName(), primitive);
+		}
+	}
+
+	/**
+	 * This utility class cannot be instanciated.
+	 */
+	private DescriptorSnapshot() {
+	}
+
+	/**
+	 * Saves every cached descriptor whose queries are initialized.
+	 *
+	 * @param file
+	 *            the snapshot file to write.
+	 * @param schemaVersion
+	 *            the version of the database schema.
+	 *
+	 * @return the number of descriptors saved.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static int save(File file, String schemaVersion)
+			throws IOException {
+		return save(file, schemaVersion, SqlDescriptor.getCachedInstances());
+	}
+
+	/**
+	 * Saves the given descriptors. Descriptors whose queries are not
+	 * initialized yet or whose class files cannot be found are skipped.
+	 *
+	 * @param file
+	 *            the snapshot file to write.
+	 * @param schemaVersion
+	 *            the version of the database schema.
+	 * @param descriptors
+	 *            the descriptors to save.
+	 *
+	 * @return the number of descriptors saved.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static int save(File file, String schemaVersion,
+			Collection<SqlDescriptor> descriptors) throws IOException {
+		Util.throwIfNull(file, "file");
+		Util.throwIfNull(schemaVersion, "schemaVersion");
+		Util.throwIfNull(descriptors, "descriptors");
+
+		Properties properties = new Properties();
+		properties.setProperty(SNAPSHOT_VERSION,
+				String.valueOf(FORMAT_VERSION));
+		properties.setProperty(SCHEMA_VERSION, schemaVersion);
+
+		int index = 0;
+		for (SqlDescriptor descriptor : descriptors) {
+			if (descriptor.getReadOnlyColumns() == null) {
+				continue;
+			}
+			String fingerprint = fingerprint(descriptor.getType());
+			if (fingerprint == null) {
+				continue;
+			}
+			write(properties, "entity." + index + ".", descriptor,
+					fingerprint);
+			index++;
+		}
+		properties.setProperty(ENTITY_COUNT, String.valueOf(index));
+
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			properties.store(fos, COMMENT);
+		} finally {
+			fos.close();
+		}
+		return index;
+	}
+
+	private static void write(Properties properties, String prefix,
+			SqlDescriptor descriptor, String fingerprint) {
+		properties.setProperty(prefix + "type", descriptor.getType().getName());
+		properties.setProperty(prefix + "fingerprint", fingerprint);
+		properties.setProperty(prefix + "ignored", join(descriptor
+				.getIgnoredProperties()));
+		properties.setProperty(prefix + "columns", join(descriptor
+				.getColumns()));
+		properties.setProperty(prefix + "readOnly", join(descriptor
+				.getReadOnlyColumns()));
+
+		for (Map.Entry<String, Method> entry : descriptor.getAccessorMethods()
+				.entrySet()) {
+			Method m = entry.getValue();
+			properties.setProperty(prefix + "get." + entry.getKey(), m
+					.getDeclaringClass().getName() + "#" + m.getName());
+		}
+		for (Map.Entry<String, Method> entry : descriptor.getMutatorMethods()
+				.entrySet()) {
+			Method m = entry.getValue();
+			properties.setProperty(prefix + "set." + entry.getKey(), m
+					.getDeclaringClass().getName() + "#" + m.getName() + "#"
+					+ m.getParameterTypes()[0].getName());
+		}
+	}
+
+	/**
+	 * Restores the descriptors saved in the given file. Nothing is restored
+	 * if the file does not exist, if it has been written with another format
+	 * version or for another schema version. Entries whose entity classes
+	 * changed since the snapshot was saved are skipped; those descriptors are
+	 * built normally when first used.
+	 *
+	 * @param file
+	 *            the snapshot file to read.
+	 * @param schemaVersion
+	 *            the version of the current database schema.
+	 *
+	 * @return the number of descriptors restored.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public static int load(File file, String schemaVersion) throws IOException {
+		Util.throwIfNull(file, "file");
+		Util.throwIfNull(schemaVersion, "schemaVersion");
+
+		if (!file.exists()) {
+			return 0;
+		}
+
+		Properties properties = new Properties();
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			properties.load(fis);
+		} finally {
+			fis.close();
+		}
+
+		if (!String.valueOf(FORMAT_VERSION).equals(
+				properties.getProperty(SNAPSHOT_VERSION))
+				|| !schemaVersion.equals(
+						properties.getProperty(SCHEMA_VERSION))) {
+			return 0;
+		}
+
+		int restored = 0;
+		int count = Integer.parseInt(properties.getProperty(ENTITY_COUNT, "0"));
+		for (int i = 0; i < count; i++) {
+			if (restore(properties, "entity." + i + ".")) {
+				restored++;
+			}
+		}
+		return restored;
+	}
+
+	private static boolean restore(Properties properties, String prefix)
+			throws IOException {
+
+		ClassLoader loader = getClassLoader();
+		Class<?> type;
+		try {
+			type = Class.forName(properties.getProperty(prefix + "type"),
+					false, loader);
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+
+		String fingerprint = fingerprint(type);
+		if ((fingerprint == null)
+				|| !fingerprint.equals(properties.getProperty(prefix
+						+ "fingerprint"))) {
+			return false;
+		}
+
+		List<String> columns = split(
+				properties.getProperty(prefix + "columns"));
+		Map<String, Method> accessors = new HashMap<String, Method>();
+		Map<String, Method> mutators = new HashMap<String, Method>();
+		try {
+			for (String column : columns) {
+				String getter = properties.getProperty(prefix + "get."
+						+ column);
+				if (getter != null) {
+					accessors.put(column, resolve(getter, loader));
+				}
+				String setter = properties.getProperty(prefix + "set."
+						+ column);
+				if (setter != null) {
+					mutators.put(column, resolve(setter, loader));
+				}
+			}
+		} catch (ClassNotFoundException e) {
+			return false;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+
+		Set<String> allColumns = new TreeSet<String>(accessors.keySet());
+		allColumns.addAll(mutators.keySet());
+		if (!allColumns.equals(new TreeSet<String>(columns))) {
+			return false;
+		}
+
+		List<String> ignored = split(
+				properties.getProperty(prefix + "ignored"));
+		Set<String> roCols = new HashSet<String>(split(properties
+				.getProperty(prefix + "readOnly")));
+		SqlDescriptor.restore(type, ignored.toArray(new String[ignored.size()]),
+				accessors, mutators, roCols);
+		return true;
+	}
+
+	private static Method resolve(String signature, ClassLoader loader)
+			throws ClassNotFoundException, NoSuchMethodException {
+		String[] parts = signature.split("#");
+		Class<?> declaringClass = Class.forName(parts[0], false, loader);
+		Method method;
+		if (parts.length > 2) {
+			method = declaringClass.getDeclaredMethod(parts[1], toClass(
+					parts[2], loader));
+		} else {
+			method = declaringClass.getDeclaredMethod(parts[1]);
+		}
+		method.setAccessible(true);
+		return method;
+	}
+
+	private static Class<?> toClass(String name, ClassLoader loader)
+			throws ClassNotFoundException {
+		Class<?> primitive = PRIMITIVES.get(name);
+		if (primitive != null) {
+			return primitive;
+		}
+		return Class.forName(name, false, loader);
+	}
+
+	/**
+	 * Computes the fingerprint of the class files of the given type and of
+	 * the types it inherits from.
+	 *
+	 * @param type
+	 *            the type to fingerprint.
+	 *
+	 * @return a CRC32 of the class files or null if one of them cannot be
+	 *         found.
+	 *
+	 * @throws IOException
+	 *             if a class file cannot be read.
+	 */
+	static String fingerprint(Class<?> type) throws IOException {
+		List<Class<?>> types = new ArrayList<Class<?>>();
+		types.add(type);
+		types.addAll(SqlDescriptor.getInheritance(type));
+
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[4096];
+		for (Class<?> t : types) {
+			if ((t == Object.class) || t.getName().startsWith("java.")) {
+				continue;
+			}
+			InputStream is = t.getResourceAsStream("/"
+					+ t.getName().replace('.', '/') + ".class");
+			if (is == null) {
+				return null;
+			}
+			try {
+				int read = is.read(buffer);
+				while (read > 0) {
+					crc.update(buffer, 0, read);
+					read = is.read(buffer);
+				}
+			} finally {
+				is.close();
+			}
+		}
+		return Long.toHexString(crc.getValue());
+	}
+
+	private static ClassLoader getClassLoader() {
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		if (loader == null) {
+			loader = DescriptorSnapshot.class.getClassLoader();
+		}
+		return loader;
+	}
+
+	private static String join(Collection<String> values) {
+		StringBuilder sb = new StringBuilder();
+		for (String value : new TreeSet<String>(values)) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(value);
+		}
+		return sb.toString();
+	}
+
+	private static List<String> split(String value) {
+		List<String> values = new ArrayList<String>();
+		if ((value == null) || (value.length() == 0)) {
+			return values;
+		}
+		for (String v : value.split(",")) {
+			values.add(v);
+		}
+		return values;
+	}
+}
@@ -0,0 +1,302 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * The SQL variants generated for the database products having non standard
+ * statements. The dialect of a connection is detected from the database
+ * product name.
+ *
+ * @author Jean-Philippe Gravel
+ */
+public enum Dialect {
+	/**
+	 * Apache Derby. The versions targeted do not support MERGE.
+	 */
+	DERBY,
+	/**
+	 * PostgreSQL, using INSERT ... ON CONFLICT.
+	 */
+	POSTGRESQL,
+	/**
+	 * MySQL and MariaDB, using INSERT ... ON DUPLICATE KEY UPDATE.
+	 */
+	MYSQL,
+	/**
+	 * H2, using MERGE INTO ... KEY.
+	 */
+	H2,
+	/**
+	 * Oracle, using MERGE INTO ... USING (SELECT ... FROM dual).
+	 */
+	ORACLE,
+	/**
+	 * Microsoft SQL Server, using MERGE INTO ... USING (VALUES ...).
+	 */
+	SQLSERVER,
+	/**
+	 * Any other database. Only standard statements are generated.
+	 */
+	GENERIC;
+
+	/**
+	 * Detects the dialect of the given connection.
+	 *
+	 * @param connection
+	 *            the connection to the database.
+	 *
+	 * @return the dialect of the connected database.
+	 *
+	 * @throws SQLException
+	 *             if the database meta data cannot be read.
+	 */
+	public static Dialect detect(Connection connection) throws SQLException {
+		Util.throwIfNull(connection, "connection");
+		return forProductName(
+				connection.getMetaData().getDatabaseProductName());
+	}
+
+	/**
+	 * Gets the dialect of the given database product.
+	 *
+	 * @param productName
+	 *            the name returned by
+	 *            DatabaseMetaData.getDatabaseProductName().
+	 *
+	 * @return the dialect of the product, GENERIC if it is unknown.
+	 */
+	public static Dialect forProductName(String productName) {
+		if (productName == null) {
+			return GENERIC;
+		}
+		String name = productName.toLowerCase();
+		if (name.contains("derby")) {
+			return DERBY;
+		} else if (name.contains("postgres")) {
+			return POSTGRESQL;
+		} else if (name.contains("mysql") || name.contains("mariadb")) {
+			return MYSQL;
+		} else if (name.equals("h2")) {
+			return H2;
+		} else if (name.contains("oracle")) {
+			return ORACLE;
+		} else if (name.contains("microsoft sql server")) {
+			return SQLSERVER;
+		}
+		return GENERIC;
+	}
+
+	/**
+	 * Tells if the dialect has a single statement insert or update.
+	 *
+	 * @return true if createUpsertQuery generates a statement.
+	 */
+	public boolean supportsUpsert() {
+		return (this != DERBY) && (this != GENERIC);
+	}
+
+	/**
+	 * Creates the clause limiting the number of rows returned by a select
+	 * statement, to append at its end.
+	 *
+	 * @param limit
+	 *            the maximum number of rows.
+	 * @param ordered
+	 *            true if the select statement has an ORDER BY clause.
+	 *
+	 * @return the limit clause, starting with a space.
+	 */
+	String createLimitClause(int limit, boolean ordered) {
+		switch (this) {
+		case POSTGRESQL:
+		case MYSQL:
+		case H2:
+			return " LIMIT " + limit;
+		case SQLSERVER:
+			// OFFSET ... FETCH requires an ORDER BY clause.
+			return (ordered ? "" : " ORDER BY (SELECT NULL)")
+					+ " OFFSET 0 ROWS FETCH NEXT " + limit + " ROWS ONLY";
+		default:
+			return " FETCH FIRST " + limit + " ROWS ONLY";
+		}
+	}
+
+	/**
+	 * Creates a statement reading the estimated row count of a table from the
+	 * database statistics. The table name is the only parameter of the
+	 * statement.
+	 *
+	 * @return the estimate statement or null if the dialect has no row
+	 *         statistics.
+	 */
+	String createRowEstimateQuery() {
+		switch (this) {
+		case POSTGRESQL:
+			return "SELECT CAST(reltuples AS BIGINT) FROM pg_class"
+					+ " WHERE oid = to_regclass(?)";
+		case MYSQL:
+			return "SELECT TABLE_ROWS FROM information_schema.TABLES"
+					+ " WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?";
+		case ORACLE:
+			return "SELECT NUM_ROWS FROM USER_TABLES"
+					+ " WHERE TABLE_NAME = UPPER(?)";
+		case SQLSERVER:
+			return "SELECT SUM(rows) FROM sys.partitions"
+					+ " WHERE object_id = OBJECT_ID(?) AND index_id IN (0, 1)";
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a statement returning the next value of a sequence, as a single
+	 * row and column result.
+	 *
+	 * @param sequence
+	 *            the sequence name.
+	 *
+	 * @return the next value statement.
+	 */
+	String createNextValueQuery(String sequence) {
+		switch (this) {
+		case DERBY:
+			return "VALUES NEXT VALUE FOR " + sequence;
+		case POSTGRESQL:
+			return "SELECT nextval('" + sequence + "')";
+		case ORACLE:
+			return "SELECT " + sequence + ".NEXTVAL FROM dual";
+		default:
+			return "SELECT NEXT VALUE FOR " + sequence;
+		}
+	}
+
+	/**
+	 * Creates a statement inserting a row or updating it if a row with the
+	 * same key exists. The parameters of the statement are the given columns,
+	 * in order, like those of the insert query.
+	 *
+	 * @param table
+	 *            the table name.
+	 * @param key
+	 *            the primary key column.
+	 * @param columns
+	 *            the written columns, the primary key included.
+	 *
+	 * @return the upsert statement or null if the dialect does not support
+	 *         one.
+	 */
+	String createUpsertQuery(String table, String key, List<String> columns) {
+		switch (this) {
+		case POSTGRESQL:
+			return createInsert(table, columns) + " ON CONFLICT (" + key
+					+ ") DO " + createAssignments("UPDATE SET ", key, columns,
+					"EXCLUDED.", "", "NOTHING");
+		case MYSQL:
+			return createInsert(table, columns) + " ON DUPLICATE KEY UPDATE "
+					+ createAssignments("", key, columns, "VALUES(", ")", key
+							+ " = " + key);
+		case H2:
+			return "MERGE INTO " + table + " (" + join(columns, "") + ") KEY ("
+					+ key + ") VALUES (" + createMarkers(columns.size()) + ")";
+		case ORACLE:
+			return createMerge(table, key, columns, "(SELECT "
+					+ createAliases(columns) + " FROM dual) s", "");
+		case SQLSERVER:
+			return createMerge(table, key, columns, "(VALUES ("
+					+ createMarkers(columns.size()) + ")) AS s ("
+					+ join(columns, "") + ")", ";");
+		default:
+			return null;
+		}
+	}
+
+	private static String createInsert(String table, List<String> columns) {
+		return "INSERT INTO " + table + " (" + join(columns, "")
+				+ ") VALUES (" + createMarkers(columns.size()) + ")";
+	}
+
+	private static String createMerge(String table, String key,
+			List<String> columns, String source, String terminator) {
+		StringBuilder sb = new StringBuilder("MERGE INTO ");
+		sb.append(table).append(" t USING ").append(source);
+		sb.append(" ON (t.").append(key).append(" = s.").append(key);
+		sb.append(")");
+		String assignments = createAssignments("", key, columns, "s.", "",
+				null);
+		if (assignments != null) {
+			sb.append(" WHEN MATCHED THEN UPDATE SET ").append(assignments);
+		}
+		sb.append(" WHEN NOT MATCHED THEN INSERT (");
+		sb.append(join(columns, "")).append(") VALUES (");
+		sb.append(join(columns, "s.")).append(")").append(terminator);
+		return sb.toString();
+	}
+
+	// Assigns every non key column from its new value, or returns the
+	// fallback when the key is the only column.
+	private static String createAssignments(String prefix, String key,
+			List<String> columns, String valueStart, String valueEnd,
+			String fallback) {
+		StringBuilder sb = new StringBuilder();
+		for (String column : columns) {
+			if (column.equalsIgnoreCase(key)) {
+				continue;
+			}
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(column).append(" = ").append(valueStart).append(column)
+					.append(valueEnd);
+		}
+		if (sb.length() == 0) {
+			return fallback;
+		}
+		return prefix + sb.toString();
+	}
+
+	private static String createAliases(List<String> columns) {
+		StringBuilder sb = new StringBuilder();
+		for (String column : columns) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append("? AS ").append(column);
+		}
+		return sb.toString();
+	}
+
+	private static String createMarkers(int count) {
+		StringBuilder sb = new StringBuilder("?");
+		for (int i = 1; i < count; i++) {
+			sb.append(", ?");
+		}
+		return sb.toString();
+	}
+
+	private static String join(List<String> columns, String prefix) {
+		StringBuilder sb = new StringBuilder();
+		for (String column : columns) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(prefix).append(column);
+		}
+		return sb.toString();
+	}
+}
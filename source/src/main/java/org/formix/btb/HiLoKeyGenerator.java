@@ -0,0 +1,335 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * Generates keys from blocks reserved in the database, so that one round trip
+ * provides the keys of many inserts. Blocks are reserved either from a
+ * sequence or from a row of a key table:
+ * </p>
+ * <ul>
+ * <li>Sequence: the sequence must increment by 1. Its value v reserves the
+ * keys v * maxBlockSize to v * maxBlockSize + blockSize - 1, so the maximum
+ * block size of a sequence must never change.</li>
+ * <li>Key table: the key column of the row named after the generator holds
+ * the next free key. A block is reserved by adding the block size to it.</li>
+ * </ul>
+ * <p>
+ * Reservations use their own connection, from the ConnectionManager, and are
+ * committed at once so that they do not hold locks until the end of the
+ * caller transaction. Keys are handed out from the current block without
+ * locking; only the reservation of a new block is serialized.
+ * </p>
+ * <p>
+ * The block size adapts to the insert rate: it doubles when a block lasts
+ * less than half of the target refill interval and halves when it lasts more
+ * than twice the interval, within the minimum and maximum block sizes.
+ * Unused keys of a block are lost when the application stops.
+ * </p>
+ *
+ * @author Jean-Philippe Gravel
+ */
+public class HiLoKeyGenerator implements KeyGenerator {
+
+	/**
+	 * The initial and minimum block size when none is given.
+	 */
+	public static final int DEFAULT_MIN_BLOCK_SIZE = 10;
+
+	/**
+	 * The maximum block size when none is given.
+	 */
+	public static final int DEFAULT_MAX_BLOCK_SIZE = 10000;
+
+	/**
+	 * The time a block should last, in milliseconds, when none is given.
+	 */
+	public static final long DEFAULT_REFILL_INTERVAL = 1000;
+
+	private static class Block {
+		private final AtomicLong next;
+		private final long end;
+		private final long reservedAt;
+
+		public Block(long start, long end) {
+			this.next = new AtomicLong(start);
+			this.end = end;
+			this.reservedAt = System.nanoTime();
+		}
+	}
+
+	private final String sequence;
+	private final String table;
+	private final String nameColumn;
+	private final String keyColumn;
+	private final String name;
+	private final int maxBlockSize;
+	private final AtomicReference<Block> current;
+	private final Object reserveLock;
+	private volatile int minBlockSize;
+	private volatile long refillInterval;
+	private int blockSize;
+	private long reservations;
+
+	/**
+	 * Creates a generator reserving blocks from a sequence, with a maximum
+	 * block size of DEFAULT_MAX_BLOCK_SIZE.
+	 *
+	 * @param sequence
+	 *            the sequence name.
+	 */
+	public HiLoKeyGenerator(String sequence) {
+		this(sequence, DEFAULT_MAX_BLOCK_SIZE);
+	}
+
+	/**
+	 * Creates a generator reserving blocks from a sequence.
+	 *
+	 * @param sequence
+	 *            the sequence name.
+	 * @param maxBlockSize
+	 *            the maximum block size, which is also the multiplier of the
+	 *            sequence values. It must stay the same for the lifetime of
+	 *            the sequence.
+	 */
+	public HiLoKeyGenerator(String sequence, int maxBlockSize) {
+		this(sequence, null, null, null, null, maxBlockSize);
+		Util.throwIfNull(sequence, "sequence");
+	}
+
+	/**
+	 * Creates a generator reserving blocks from a key table, with a maximum
+	 * block size of DEFAULT_MAX_BLOCK_SIZE.
+	 *
+	 * @param table
+	 *            the key table.
+	 * @param nameColumn
+	 *            the column identifying the row of the generator.
+	 * @param keyColumn
+	 *            the column holding the next free key.
+	 * @param name
+	 *            the name of the row of the generator, which must exist.
+	 */
+	public HiLoKeyGenerator(String table, String nameColumn, String keyColumn,
+			String name) {
+		this(null, table, nameColumn, keyColumn, name, DEFAULT_MAX_BLOCK_SIZE);
+		Util.throwIfNull(table, "table");
+		Util.throwIfNull(nameColumn, "nameColumn");
+		Util.throwIfNull(keyColumn, "keyColumn");
+		Util.throwIfNull(name, "name");
+	}
+
+	private HiLoKeyGenerator(String sequence, String table, String nameColumn,
+			String keyColumn, String name, int maxBlockSize) {
+		if (maxBlockSize < 1) {
+			throw new IllegalArgumentException(
+					"The maximum block size must be greater than zero.");
+		}
+		this.sequence = sequence;
+		this.table = table;
+		this.nameColumn = nameColumn;
+		this.keyColumn = keyColumn;
+		this.name = name;
+		this.maxBlockSize = maxBlockSize;
+		this.current = new AtomicReference<Block>(new Block(0, 0));
+		this.reserveLock = new Object();
+		this.minBlockSize = Math.min(DEFAULT_MIN_BLOCK_SIZE, maxBlockSize);
+		this.refillInterval = DEFAULT_REFILL_INTERVAL;
+		this.blockSize = this.minBlockSize;
+		this.reservations = 0;
+	}
+
+	/**
+	 * @return the maximum block size.
+	 */
+	public int getMaxBlockSize() {
+		return maxBlockSize;
+	}
+
+	/**
+	 * @return the initial and minimum block size.
+	 */
+	public int getMinBlockSize() {
+		return minBlockSize;
+	}
+
+	/**
+	 * @param minBlockSize
+	 *            the initial and minimum block size, at most the maximum block
+	 *            size.
+	 */
+	public void setMinBlockSize(int minBlockSize) {
+		if ((minBlockSize < 1) || (minBlockSize > maxBlockSize)) {
+			throw new IllegalArgumentException(
+					"The minimum block size must be between 1 and "
+					+ maxBlockSize + ".");
+		}
+		this.minBlockSize = minBlockSize;
+	}
+
+	/**
+	 * @return the time a block should last, in milliseconds.
+	 */
+	public long getRefillInterval() {
+		return refillInterval;
+	}
+
+	/**
+	 * @param refillInterval
+	 *            the time a block should last, in milliseconds.
+	 */
+	public void setRefillInterval(long refillInterval) {
+		if (refillInterval < 1) {
+			throw new IllegalArgumentException(
+					"The refill interval must be greater than zero.");
+		}
+		this.refillInterval = refillInterval;
+	}
+
+	/**
+	 * @return the size of the next block to reserve.
+	 */
+	public int getBlockSize() {
+		synchronized (reserveLock) {
+			return blockSize;
+		}
+	}
+
+	/**
+	 * @return the number of blocks reserved so far.
+	 */
+	public long getReservationCount() {
+		synchronized (reserveLock) {
+			return reservations;
+		}
+	}
+
+	/**
+	 * Gets a key from the current block, reserving a new block if the current
+	 * one is exhausted.
+	 *
+	 * @return a new key, as a Long.
+	 */
+	public Object nextKey(SqlDescriptor descriptor) throws SQLException {
+		while (true) {
+			Block block = current.get();
+			long key = block.next.getAndIncrement();
+			if (key < block.end) {
+				return key;
+			}
+			synchronized (reserveLock) {
+				if (current.get() == block) {
+					current.set(reserve(block));
+				}
+			}
+		}
+	}
+
+	private Block reserve(Block exhausted) throws SQLException {
+		if (reservations > 0) {
+			adaptBlockSize((System.nanoTime() - exhausted.reservedAt)
+					/ 1000000);
+		}
+		int size = Math.max(blockSize, minBlockSize);
+		Connection connection = new ConnectionManager().createConnection();
+		try {
+			connection.setAutoCommit(false);
+			long start;
+			if (sequence == null) {
+				start = reserveFromTable(connection, size);
+			} else {
+				start = readSequence(connection) * maxBlockSize;
+			}
+			connection.commit();
+			reservations++;
+			return new Block(start, start + size);
+		} catch (SQLException e) {
+			connection.rollback();
+			throw e;
+		} finally {
+			connection.close();
+		}
+	}
+
+	private void adaptBlockSize(long elapsedMillis) {
+		long interval = refillInterval;
+		if (elapsedMillis < interval / 2) {
+			blockSize = (int) Math.min((long) blockSize * 2, maxBlockSize);
+		} else if (elapsedMillis > interval * 2) {
+			blockSize = Math.max(blockSize / 2, minBlockSize);
+		}
+	}
+
+	private long readSequence(Connection connection) throws SQLException {
+		String query = Dialect.detect(connection).createNextValueQuery(
+				sequence);
+		PreparedStatement stmt = connection.prepareStatement(query);
+		try {
+			ResultSet rs = stmt.executeQuery();
+			try {
+				if (!rs.next()) {
+					throw new SQLException("The sequence " + sequence
+							+ " returned no value.");
+				}
+				return rs.getLong(1);
+			} finally {
+				rs.close();
+			}
+		} finally {
+			stmt.close();
+		}
+	}
+
+	private long reserveFromTable(Connection connection, int size)
+			throws SQLException {
+		PreparedStatement update = connection.prepareStatement("UPDATE " + table
+				+ " SET " + keyColumn + " = " + keyColumn + " + ? WHERE "
+				+ nameColumn + " = ?");
+		try {
+			update.setLong(1, size);
+			update.setString(2, name);
+			if (update.executeUpdate() != 1) {
+				throw new SQLException("The key table " + table
+						+ " has no row named " + name + ".");
+			}
+		} finally {
+			update.close();
+		}
+
+		PreparedStatement select = connection.prepareStatement("SELECT "
+				+ keyColumn + " FROM " + table + " WHERE " + nameColumn
+				+ " = ?");
+		try {
+			select.setString(1, name);
+			ResultSet rs = select.executeQuery();
+			try {
+				rs.next();
+				return rs.getLong(1) - size;
+			} finally {
+				rs.close();
+			}
+		} finally {
+			select.close();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * A weak reference to an item, usable as a map key: references are equal
+ * when they refer to the same item instance, whatever its equals() method.
+ *
+ * @author Jean-Philippe Gravel
+ */
+class ItemReference extends WeakReference<Object> {
+
+	private final int hash;
+
+	public ItemReference(Object item, ReferenceQueue<Object> queue) {
+		super(item, queue);
+		this.hash = System.identityHashCode(item);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ItemReference)) {
+			return false;
+		}
+		Object item = get();
+		return (item != null) && (item == ((ItemReference) obj).get());
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not 
+ * use this file except in compliance with the License. You may obtain a copy 
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.sql.SQLException;
+
+/**
+ * Generates primary key values on the client side. When a key generator is
+ * set on a Bridge, new items get their key before being inserted and the
+ * inserts do not read generated keys back from the database.
+ * 
+ * @author Jean-Philippe Gravel
+ */
+public interface KeyGenerator {
+	/**
+	 * Generates a new key.
+	 * 
+	 * @param descriptor
+	 *            the descriptor of the type needing a key.
+	 * 
+	 * @return a key that has never been returned before for the table of the
+	 *         given descriptor.
+	 * 
+	 * @throws SQLException
+	 *             if the generator needs the database and a problem occurs.
+	 */
+	public Object nextKey(SqlDescriptor descriptor) throws SQLException;
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+/**
+ * Encodes the order by values of the last row of a page into an opaque
+ * continuation token, and decodes them back. Values are written as text
+ * according to their column type, so decoding a token never instantiates
+ * anything else than the expected value types. The order by clause is part
+ * of the token: a token is only accepted by a query having the same order.
+ *
+ * @author Jean-Philippe Gravel
+ */
+final class KeysetToken {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private KeysetToken() {
+	}
+
+	/**
+	 * Tells if values of the given type can be stored in a token.
+	 *
+	 * @param type
+	 *            the column type.
+	 *
+	 * @return false for binary and unknown types.
+	 */
+	public static boolean supports(ColumnType type) {
+		return (type != ColumnType.BYTES) && (type != ColumnType.OBJECT);
+	}
+
+	/**
+	 * Creates a token.
+	 *
+	 * @param orderBy
+	 *            the order by clause of the query.
+	 * @param types
+	 *            the column types of the values.
+	 * @param values
+	 *            the non null order by values of the last row.
+	 *
+	 * @return the continuation token, URL safe.
+	 */
+	public static String encode(String orderBy, ColumnType[] types,
+			Object[] values) {
+		StringBuilder sb = new StringBuilder();
+		appendField(sb, orderBy);
+		for (int i = 0; i < values.length; i++) {
+			appendField(sb, toText(types[i], values[i]));
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(
+				sb.toString().getBytes(UTF8));
+	}
+
+	/**
+	 * Reads the values of a token.
+	 *
+	 * @param token
+	 *            the continuation token.
+	 * @param orderBy
+	 *            the order by clause of the query.
+	 * @param types
+	 *            the column types of the values.
+	 *
+	 * @return the order by values stored in the token.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the token is invalid or has been created for another
+	 *             order.
+	 */
+	public static Object[] decode(String token, String orderBy,
+			ColumnType[] types) {
+		List<String> fields;
+		try {
+			fields = readFields(new String(Base64.getUrlDecoder()
+					.decode(token), UTF8));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid continuation token.",
+					e);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Invalid continuation token.",
+					e);
+		}
+		if ((fields.size() != types.length + 1)
+				|| !fields.get(0).equals(orderBy)) {
+			throw new IllegalArgumentException(
+					"The continuation token does not match the order of "
+							+ "the query.");
+		}
+
+		Object[] values = new Object[types.length];
+		for (int i = 0; i < types.length; i++) {
+			values[i] = fromText(types[i], fields.get(i + 1));
+		}
+		return values;
+	}
+
+	// Each field is written as its length, a colon and its text.
+	private static void appendField(StringBuilder sb, String text) {
+		sb.append(text.length()).append(':').append(text);
+	}
+
+	private static List<String> readFields(String text) {
+		List<String> fields = new ArrayList<String>();
+		int position = 0;
+		while (position < text.length()) {
+			int colon = text.indexOf(':', position);
+			if (colon < 0) {
+				throw new IllegalArgumentException("Missing field length.");
+			}
+			int length = Integer.parseInt(text.substring(position, colon));
+			int end = colon + 1 + length;
+			fields.add(text.substring(colon + 1, end));
+			position = end;
+		}
+		return fields;
+	}
+
+	private static String toText(ColumnType type, Object value) {
+		switch (type) {
+		case TIMESTAMP:
+			if (value instanceof Timestamp) {
+				return value.toString();
+			}
+			return new Timestamp(((Date) value).getTime()).toString();
+		case CALENDAR:
+			return String.valueOf(((Calendar) value).getTimeInMillis());
+		default:
+			return value.toString();
+		}
+	}
+
+	private static Object fromText(ColumnType type, String text) {
+		try {
+			switch (type) {
+			case BOOLEAN:
+				return Boolean.valueOf(text);
+			case BYTE:
+				return Byte.valueOf(text);
+			case SHORT:
+				return Short.valueOf(text);
+			case INT:
+				return Integer.valueOf(text);
+			case LONG:
+				return Long.valueOf(text);
+			case FLOAT:
+				return Float.valueOf(text);
+			case DOUBLE:
+				return Double.valueOf(text);
+			case BIG_DECIMAL:
+				return new BigDecimal(text);
+			case DATE:
+				return java.sql.Date.valueOf(text);
+			case TIME:
+				return Time.valueOf(text);
+			case TIMESTAMP:
+				return Timestamp.valueOf(text);
+			case CALENDAR:
+				Calendar calendar = new GregorianCalendar();
+				calendar.setTimeInMillis(Long.parseLong(text));
+				return calendar;
+			case CHARACTER:
+				if (text.length() != 1) {
+					throw new IllegalArgumentException("Invalid character.");
+				}
+				return text.charAt(0);
+			default:
+				return text;
+			}
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid continuation token.",
+					e);
+		}
+	}
+}
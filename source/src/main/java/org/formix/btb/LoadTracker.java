@@ -0,0 +1,233 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the partially loaded items of a type, grouped by the query result
+ * they come from, with the properties they are missing and the values these
+ * properties had after the query. Getting an item gets its whole result, so
+ * that the missing properties of all of them are loaded at once; the result
+ * is removed once loaded. Items are compared by identity and held through
+ * weak references.
+ *
+ * @author Jean-Philippe Gravel
+ */
+class LoadTracker {
+
+	/**
+	 * Partially loaded items missing the same properties.
+	 */
+	public static class Batch {
+		private final Group group;
+		private final List<Object> items;
+		private final List<Object[]> values;
+
+		private Batch(Group group, List<Object> items, List<Object[]> values) {
+			this.group = group;
+			this.items = items;
+			this.values = values;
+		}
+
+		/**
+		 * @return the properties not loaded yet.
+		 */
+		public String[] getMissing() {
+			return group.missing;
+		}
+
+		/**
+		 * @return the partially loaded items.
+		 */
+		public List<Object> getItems() {
+			return items;
+		}
+
+		/**
+		 * Gets the missing properties of an item of the batch that have been
+		 * assigned since the item was loaded.
+		 *
+		 * @param index
+		 *            the position of the item in getItems().
+		 *
+		 * @return the assigned properties with their current values, empty
+		 *         if none.
+		 */
+		public Map<String, Object> getAssigned(int index) {
+			Object item = items.get(index);
+			Object[] loaded = values.get(index);
+			Map<String, Object> assigned = new LinkedHashMap<String, Object>();
+			for (int i = 0; i < group.accessors.length; i++) {
+				Object value = ChangeTracker.read(group.accessors[i], item);
+				if (!ChangeTracker.same(loaded[i], value)) {
+					assigned.put(group.missing[i], value);
+				}
+			}
+			return assigned;
+		}
+	}
+
+	private static class Group {
+		private final String[] missing;
+		private final PropertyAccessor[] accessors;
+		private final List<ItemReference> members;
+		private final List<Object[]> values;
+
+		public Group(String[] missing, PropertyAccessor[] accessors, int size) {
+			this.missing = missing;
+			this.accessors = accessors;
+			this.members = new ArrayList<ItemReference>(size);
+			this.values = new ArrayList<Object[]>(size);
+		}
+	}
+
+	private final SqlDescriptor descriptor;
+	private final Map<ItemReference, Group> groups;
+	private final ReferenceQueue<Object> queue;
+
+	/**
+	 * Creates an empty load tracker for the items of the given descriptor.
+	 *
+	 * @param descriptor
+	 *            the descriptor of the tracked type.
+	 */
+	public LoadTracker(SqlDescriptor descriptor) {
+		this.descriptor = descriptor;
+		this.groups = new HashMap<ItemReference, Group>();
+		this.queue = new ReferenceQueue<Object>();
+	}
+
+	/**
+	 * Records the items of a query result as missing the given properties.
+	 *
+	 * @param items
+	 *            the partially loaded items.
+	 * @param missing
+	 *            the properties not loaded.
+	 */
+	public void register(Collection<?> items, String[] missing) {
+		PropertyAccessor[] accessors = new PropertyAccessor[missing.length];
+		for (int i = 0; i < missing.length; i++) {
+			accessors[i] = descriptor.getReadableAccessor(missing[i]);
+		}
+		Group group = new Group(missing, accessors, items.size());
+		for (Object item : items) {
+			Object[] values = new Object[accessors.length];
+			for (int i = 0; i < accessors.length; i++) {
+				values[i] = ChangeTracker.copy(ChangeTracker.read(accessors[i],
+						item));
+			}
+			group.values.add(values);
+		}
+		synchronized (groups) {
+			purge();
+			for (Object item : items) {
+				ItemReference ref = new ItemReference(item, queue);
+				group.members.add(ref);
+				groups.put(ref, group);
+			}
+		}
+	}
+
+	/**
+	 * Tells if the given item is partially loaded.
+	 *
+	 * @param item
+	 *            the item.
+	 *
+	 * @return true if some properties of the item are not loaded.
+	 */
+	public boolean isPartial(Object item) {
+		synchronized (groups) {
+			return groups.containsKey(new ItemReference(item, null));
+		}
+	}
+
+	/**
+	 * Gets the given item and the items loaded with it that are still
+	 * partially loaded. They stay partially loaded until the batch is
+	 * removed.
+	 *
+	 * @param item
+	 *            the item.
+	 *
+	 * @return the items and their missing properties, or null if the item is
+	 *         not partially loaded.
+	 */
+	public Batch get(Object item) {
+		synchronized (groups) {
+			Group group = groups.get(new ItemReference(item, null));
+			if (group == null) {
+				return null;
+			}
+			List<Object> items = new ArrayList<Object>(group.members.size());
+			List<Object[]> values = new ArrayList<Object[]>(
+					group.members.size());
+			for (int i = 0; i < group.members.size(); i++) {
+				ItemReference ref = group.members.get(i);
+				Object member = ref.get();
+				if ((member != null) && (groups.get(ref) == group)) {
+					items.add(member);
+					values.add(group.values.get(i));
+				}
+			}
+			return new Batch(group, items, values);
+		}
+	}
+
+	/**
+	 * Removes the items of a batch, once their missing properties have been
+	 * loaded.
+	 *
+	 * @param batch
+	 *            the batch returned by get().
+	 */
+	public void remove(Batch batch) {
+		synchronized (groups) {
+			for (ItemReference ref : batch.group.members) {
+				if (groups.get(ref) == batch.group) {
+					groups.remove(ref);
+				}
+			}
+			batch.group.members.clear();
+			batch.group.values.clear();
+		}
+	}
+
+	/**
+	 * @return the number of partially loaded items.
+	 */
+	public int size() {
+		synchronized (groups) {
+			purge();
+			return groups.size();
+		}
+	}
+
+	private void purge() {
+		Object ref = queue.poll();
+		while (ref != null) {
+			groups.remove(ref);
+			ref = queue.poll();
+		}
+	}
+}
@@ -0,0 +1,385 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * <p>
+ * Reads a CSV file through memory mapped windows. Fields are read into a
+ * reused byte buffer and numbers are parsed directly from the bytes, so only
+ * text and date fields create objects.
+ * </p>
+ * <p>
+ * Fields can be enclosed in double quotes, in which case they can contain
+ * the delimiter, line breaks and doubled double quotes. An empty field which
+ * is not quoted is null. Lines end with LF or CR LF.
+ * </p>
+ *
+ * @author Jean-Philippe Gravel
+ */
+class MappedCsvReader {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int EOF = -1;
+	private static final int NONE = -2;
+
+	private static final double[] POWERS_OF_TEN = new double[] { 1e0, 1e1,
+			1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13,
+			1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+	private final int windowSize;
+	private final byte delimiter;
+
+	private MappedByteBuffer window;
+	private long windowEnd;
+	private int lookAhead;
+
+	private byte[] field;
+	private char[] chars;
+	private int fieldLength;
+	private boolean quoted;
+	private boolean endOfRecord;
+	private long line;
+
+	/**
+	 * Opens a CSV file.
+	 *
+	 * @param file
+	 *            the file to read.
+	 * @param delimiter
+	 *            the field delimiter, an ASCII character.
+	 * @param windowSize
+	 *            the size of the mapped windows, in bytes.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be opened.
+	 */
+	public MappedCsvReader(File file, char delimiter, int windowSize)
+			throws IOException {
+		if (delimiter > 127) {
+			throw new IllegalArgumentException(
+					"The delimiter must be an ASCII character.");
+		}
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.size = this.channel.size();
+		this.windowSize = windowSize;
+		this.delimiter = (byte) delimiter;
+		this.windowEnd = 0;
+		this.lookAhead = NONE;
+		this.field = new byte[256];
+		this.chars = new char[256];
+		this.endOfRecord = true;
+		this.line = 1;
+	}
+
+	private int read() throws IOException {
+		if (lookAhead != NONE) {
+			int b = lookAhead;
+			lookAhead = NONE;
+			return b;
+		}
+		if ((window == null) || !window.hasRemaining()) {
+			if (windowEnd >= size) {
+				return EOF;
+			}
+			long length = Math.min(windowSize, size - windowEnd);
+			window = channel.map(FileChannel.MapMode.READ_ONLY, windowEnd,
+					length);
+			windowEnd += length;
+		}
+		return window.get() & 0xFF;
+	}
+
+	/**
+	 * Moves to the next record, skipping the unread fields of the current
+	 * record.
+	 *
+	 * @return false if the end of the file is reached.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public boolean nextRecord() throws IOException {
+		while (!endOfRecord) {
+			readField();
+		}
+		int b = read();
+		while ((b == '\r') || (b == '\n')) {
+			if (b == '\n') {
+				line++;
+			}
+			b = read();
+		}
+		if (b == EOF) {
+			return false;
+		}
+		lookAhead = b;
+		endOfRecord = false;
+		return true;
+	}
+
+	/**
+	 * Reads the next field of the current record.
+	 *
+	 * @return false if the current record has no more fields.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public boolean readField() throws IOException {
+		if (endOfRecord) {
+			return false;
+		}
+
+		fieldLength = 0;
+		quoted = false;
+		int b = read();
+		if (b == '"') {
+			quoted = true;
+			b = read();
+			while (b != EOF) {
+				if (b == '"') {
+					b = read();
+					if (b != '"') {
+						break;
+					}
+				} else if (b == '\n') {
+					line++;
+				}
+				append(b);
+				b = read();
+			}
+			while ((b != delimiter) && (b != '\n') && (b != EOF)) {
+				b = read();
+			}
+		} else {
+			while ((b != delimiter) && (b != '\n') && (b != EOF)) {
+				if (b != '\r') {
+					append(b);
+				}
+				b = read();
+			}
+		}
+
+		if (b != delimiter) {
+			endOfRecord = true;
+			if (b == '\n') {
+				lookAhead = '\n';
+			}
+		}
+		return true;
+	}
+
+	private void append(int b) {
+		if (fieldLength == field.length) {
+			byte[] larger = new byte[field.length * 2];
+			System.arraycopy(field, 0, larger, 0, fieldLength);
+			field = larger;
+		}
+		field[fieldLength++] = (byte) b;
+	}
+
+	/**
+	 * @return true if the current record has no more fields.
+	 */
+	public boolean isEndOfRecord() {
+		return endOfRecord;
+	}
+
+	/**
+	 * @return the line number of the current record.
+	 */
+	public long getLine() {
+		return line;
+	}
+
+	/**
+	 * @return true if the last field read is empty and not quoted.
+	 */
+	public boolean isNull() {
+		return (fieldLength == 0) && !quoted;
+	}
+
+	/**
+	 * @return the last field read as a string.
+	 */
+	public String getString() {
+		return new String(field, 0, fieldLength, UTF8);
+	}
+
+	/**
+	 * @return a copy of the bytes of the last field read.
+	 */
+	public byte[] getBytes() {
+		byte[] bytes = new byte[fieldLength];
+		System.arraycopy(field, 0, bytes, 0, fieldLength);
+		return bytes;
+	}
+
+	/**
+	 * @return the last field read as a boolean: "true", "yes", "y" or "1"
+	 *         (case insensitive) are true, any other value is false.
+	 */
+	public boolean getBoolean() {
+		if (fieldLength == 1) {
+			int b = field[0] | 0x20;
+			return (b == '1') || (b == 't') || (b == 'y');
+		}
+		return equalsIgnoreCase("true") || equalsIgnoreCase("yes");
+	}
+
+	private boolean equalsIgnoreCase(String value) {
+		if (fieldLength != value.length()) {
+			return false;
+		}
+		for (int i = 0; i < fieldLength; i++) {
+			if ((field[i] | 0x20) != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the last field read as a long.
+	 *
+	 * @throws NumberFormatException
+	 *             if the field is not an integer.
+	 */
+	public long getLong() {
+		int i = 0;
+		boolean negative = false;
+		if ((fieldLength > 0) && ((field[0] == '-') || (field[0] == '+'))) {
+			negative = field[0] == '-';
+			i++;
+		}
+		if (i == fieldLength) {
+			throw createNumberFormatException();
+		}
+
+		long value = 0;
+		for (; i < fieldLength; i++) {
+			int digit = field[i] - '0';
+			if ((digit < 0) || (digit > 9)) {
+				throw createNumberFormatException();
+			}
+			if (value < (Long.MIN_VALUE + digit) / 10) {
+				throw createNumberFormatException();
+			}
+			// Accumulated negatively to reach Long.MIN_VALUE.
+			value = value * 10 - digit;
+		}
+		if (!negative) {
+			if (value == Long.MIN_VALUE) {
+				throw createNumberFormatException();
+			}
+			return -value;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the last field read as a double.
+	 *
+	 * @throws NumberFormatException
+	 *             if the field is not a number.
+	 */
+	public double getDouble() {
+		// Exact when the digits fit in 15 decimals and the scale is at most
+		// 22, otherwise parsed by the JDK.
+		int i = 0;
+		boolean negative = false;
+		if ((fieldLength > 0) && ((field[0] == '-') || (field[0] == '+'))) {
+			negative = field[0] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int scale = -1;
+		boolean hasDigit = false;
+		for (; i < fieldLength; i++) {
+			int b = field[i];
+			if (b == '.' && scale < 0) {
+				scale = 0;
+				continue;
+			}
+			int digit = b - '0';
+			if ((digit < 0) || (digit > 9) || (digits >= 15)) {
+				return Double.parseDouble(getString());
+			}
+			mantissa = mantissa * 10 + digit;
+			hasDigit = true;
+			if ((mantissa != 0) || (digits > 0)) {
+				digits++;
+			}
+			if (scale >= 0) {
+				scale++;
+			}
+		}
+		if (!hasDigit || (scale > 22)) {
+			return Double.parseDouble(getString());
+		}
+
+		double value = mantissa;
+		if (scale > 0) {
+			value = value / POWERS_OF_TEN[scale];
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * @return the last field read as a BigDecimal.
+	 *
+	 * @throws NumberFormatException
+	 *             if the field is not a number.
+	 */
+	public BigDecimal getBigDecimal() {
+		if (chars.length < fieldLength) {
+			chars = new char[field.length];
+		}
+		for (int i = 0; i < fieldLength; i++) {
+			chars[i] = (char) field[i];
+		}
+		return new BigDecimal(chars, 0, fieldLength);
+	}
+
+	private NumberFormatException createNumberFormatException() {
+		return new NumberFormatException("Line " + line + ": [" + getString()
+				+ "] is not a valid integer.");
+	}
+
+	/**
+	 * Closes the file.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be closed.
+	 */
+	public void close() throws IOException {
+		window = null;
+		file.close();
+	}
+}
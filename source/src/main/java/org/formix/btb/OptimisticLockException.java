@@ -0,0 +1,52 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not 
+ * use this file except in compliance with the License. You may obtain a copy 
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when the update of a versioned item matches no row: the row has been
+ * modified, or deleted, since the item was loaded. The version of the items
+ * is left unchanged and the current transaction should be rolled back.
+ * 
+ * @author Jean-Philippe Gravel
+ */
+public class OptimisticLockException extends RuntimeException {
+
+	private static final long serialVersionUID = 0x3c5e1f7a90b24d61L;
+
+	private final List<?> items;
+
+	/**
+	 * Creates an instance of the exception for the given conflicting items.
+	 * 
+	 * @param message
+	 *            The message of the exception.
+	 * @param items
+	 *            The items whose update matched no row.
+	 */
+	public OptimisticLockException(String message, List<?> items) {
+		super(message);
+		this.items = Collections.unmodifiableList(items);
+	}
+
+	/**
+	 * @return the items whose update matched no row.
+	 */
+	public List<?> getItems() {
+		return items;
+	}
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of objects returned by Query.page(), with the token giving the next
+ * page.
+ *
+ * @author Jean-Philippe Gravel
+ */
+public class Page<I> {
+
+	private final List<I> items;
+	private final String continuation;
+
+	Page(List<I> items, String continuation) {
+		this.items = Collections.unmodifiableList(items);
+		this.continuation = continuation;
+	}
+
+	/**
+	 * @return the objects of the page, in the query order.
+	 */
+	public List<I> getItems() {
+		return items;
+	}
+
+	/**
+	 * @return the token to pass to Query.page() to get the next page, null if
+	 *         this page is the last one.
+	 */
+	public String getContinuation() {
+		return continuation;
+	}
+
+	/**
+	 * @return true if there is a page after this one.
+	 */
+	public boolean hasNext() {
+		return continuation != null;
+	}
+}
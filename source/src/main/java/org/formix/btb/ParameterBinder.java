@@ -0,0 +1,222 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * Binds statement parameters using the PreparedStatement setter matching the
+ * column type of each property. Null values are bound with the SQL type of the
+ * property instead of a generic VARCHAR.
+ *
+ * @author Jean-Philippe Gravel
+ */
+final class ParameterBinder {
+
+	/**
+	 * This utility class cannot be instanciated.
+	 */
+	private ParameterBinder() {
+	}
+
+	/**
+	 * Binds the given value. The value must be null or an instance of the
+	 * Java type of the given column type, as returned by a property accessor
+	 * of that type.
+	 *
+	 * @param stmt
+	 *            the statement to bind.
+	 * @param index
+	 *            the parameter index.
+	 * @param type
+	 *            the column type of the value.
+	 * @param value
+	 *            the value to bind.
+	 *
+	 * @throws SQLException
+	 *             if the parameter cannot be bound.
+	 */
+	public static void bind(PreparedStatement stmt, int index,
+			ColumnType type, Object value) throws SQLException {
+
+		if (value == null) {
+			stmt.setNull(index, type.getSqlType());
+			return;
+		}
+
+		switch (type) {
+		case BOOLEAN:
+			stmt.setBoolean(index, ((Boolean) value).booleanValue());
+			break;
+		case BYTE:
+			stmt.setByte(index, ((Byte) value).byteValue());
+			break;
+		case SHORT:
+			stmt.setShort(index, ((Short) value).shortValue());
+			break;
+		case INT:
+			stmt.setInt(index, ((Integer) value).intValue());
+			break;
+		case LONG:
+			stmt.setLong(index, ((Long) value).longValue());
+			break;
+		case FLOAT:
+			stmt.setFloat(index, ((Float) value).floatValue());
+			break;
+		case DOUBLE:
+			stmt.setDouble(index, ((Double) value).doubleValue());
+			break;
+		case BIG_DECIMAL:
+			stmt.setBigDecimal(index, (BigDecimal) value);
+			break;
+		case STRING:
+			stmt.setString(index, (String) value);
+			break;
+		case DATE:
+			stmt.setDate(index, (java.sql.Date) value);
+			break;
+		case TIME:
+			stmt.setTime(index, (java.sql.Time) value);
+			break;
+		case TIMESTAMP:
+			stmt.setTimestamp(index, toTimestamp((Date) value));
+			break;
+		case CALENDAR:
+			Calendar cal = (Calendar) value;
+			stmt.setTimestamp(index, new Timestamp(cal.getTimeInMillis()));
+			break;
+		case CHARACTER:
+			stmt.setString(index, String.valueOf(value));
+			break;
+		case BYTES:
+			stmt.setBytes(index, (byte[]) value);
+			break;
+		default:
+			bindObject(stmt, index, value);
+			break;
+		}
+	}
+
+	/**
+	 * Binds a value of unknown type. The value is bound with the specialized
+	 * setter of the given column type if it is an instance of that type and
+	 * with setObject otherwise.
+	 *
+	 * @param stmt
+	 *            the statement to bind.
+	 * @param index
+	 *            the parameter index.
+	 * @param type
+	 *            the expected column type of the value.
+	 * @param value
+	 *            the value to bind.
+	 *
+	 * @throws SQLException
+	 *             if the parameter cannot be bound.
+	 */
+	public static void bindLoose(PreparedStatement stmt, int index,
+			ColumnType type, Object value) throws SQLException {
+		if ((value == null) || type.accepts(value)) {
+			bind(stmt, index, type, value);
+		} else {
+			bindObject(stmt, index, value);
+		}
+	}
+
+	private static void bindObject(PreparedStatement stmt, int index,
+			Object value) throws SQLException {
+		if (value instanceof Calendar) {
+			Calendar cal = (Calendar) value;
+			stmt.setTimestamp(index, new Timestamp(cal.getTimeInMillis()));
+		} else if (value instanceof Character) {
+			stmt.setObject(index, value, Types.CHAR);
+		} else {
+			stmt.setObject(index, value);
+		}
+	}
+
+	private static Timestamp toTimestamp(Date date) {
+		if (date instanceof Timestamp) {
+			return (Timestamp) date;
+		}
+		return new Timestamp(date.getTime());
+	}
+
+	/**
+	 * Binds the values of the given filter tree. The type of each value is
+	 * taken from the property it is compared to when that property is known
+	 * by the descriptor of the filtered type.
+	 *
+	 * @param stmt
+	 *            the statement to bind.
+	 * @param descriptor
+	 *            the descriptor of the queried type.
+	 * @param filter
+	 *            the filter to bind.
+	 * @param parameterIndex
+	 *            the index of the first filter parameter.
+	 *
+	 * @return the index of the next parameter.
+	 *
+	 * @throws SQLException
+	 *             if a parameter cannot be bound.
+	 */
+	public static int bindFilter(PreparedStatement stmt,
+			SqlDescriptor descriptor, Filter filter, int parameterIndex)
+			throws SQLException {
+
+		Util.throwIfNull(stmt, "stmt");
+		Util.throwIfNull(filter, "filter");
+
+		int index = parameterIndex;
+
+		if (filter instanceof PropertyFilter) {
+			PropertyFilter colFilter = (PropertyFilter) filter;
+			if (colFilter.getValue() != null) {
+				ColumnType type = findColumnType(descriptor, colFilter);
+				bindLoose(stmt, index, type, colFilter.getValue());
+				return index + 1;
+			}
+		} else if (filter instanceof LogicalFilter) {
+			LogicalFilter logicalFilter = (LogicalFilter) filter;
+			for (Filter f : logicalFilter.getFilters()) {
+				index = bindFilter(stmt, descriptor, f, index);
+			}
+		}
+
+		return index;
+	}
+
+	private static ColumnType findColumnType(SqlDescriptor descriptor,
+			PropertyFilter filter) {
+		SqlDescriptor filterDescriptor = descriptor;
+		if ((filter.getType() != null)
+				&& (filter.getType() != descriptor.getType())) {
+			filterDescriptor = SqlDescriptor.getInstance(filter.getType());
+		}
+		PropertyAccessor accessor = filterDescriptor.getAccessor(filter
+				.getProperty());
+		if (accessor == null) {
+			return ColumnType.OBJECT;
+		}
+		return accessor.getBindType();
+	}
+}
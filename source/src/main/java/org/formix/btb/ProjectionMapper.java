@@ -0,0 +1,117 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the rows of a projection, a select of some of the columns of a table,
+ * to objects of a target type, to Object[] tuples or to single values. The
+ * plan is resolved before the first row: the column types of tuples and
+ * values are known in advance, and objects use the row mapper compiled for
+ * the projection statement by the descriptor of the target type.
+ *
+ * @author Jean-Philippe Gravel
+ */
+final class ProjectionMapper {
+
+	private final Class<?> type;
+	private final RowMapper mapper;
+	private final ColumnType[] types;
+	private final boolean tuple;
+
+	private ProjectionMapper(Class<?> type, RowMapper mapper,
+			ColumnType[] types, boolean tuple) {
+		this.type = type;
+		this.mapper = mapper;
+		this.types = types;
+		this.tuple = tuple;
+	}
+
+	/**
+	 * Creates a mapper assigning the columns to the properties having the
+	 * same names in new instances of the given type.
+	 *
+	 * @param type
+	 *            the target type, having a public no argument constructor.
+	 * @param mapper
+	 *            the row mapper of the target type for the projection.
+	 *
+	 * @return a new projection mapper.
+	 */
+	public static ProjectionMapper forType(Class<?> type, RowMapper mapper) {
+		return new ProjectionMapper(type, mapper, null, false);
+	}
+
+	/**
+	 * Creates a mapper reading each row into an Object[].
+	 *
+	 * @param types
+	 *            the types of the columns.
+	 *
+	 * @return a new projection mapper.
+	 */
+	public static ProjectionMapper forTuples(ColumnType[] types) {
+		return new ProjectionMapper(Object[].class, null, types, true);
+	}
+
+	/**
+	 * Creates a mapper reading the first column of each row.
+	 *
+	 * @param type
+	 *            the type of the values.
+	 *
+	 * @return a new projection mapper.
+	 */
+	public static ProjectionMapper forValues(Class<?> type) {
+		return new ProjectionMapper(type, null,
+				new ColumnType[] { ColumnType.of(type) }, false);
+	}
+
+	/**
+	 * Maps the current row.
+	 *
+	 * @param rs
+	 *            the result set positioned on the row to read.
+	 *
+	 * @return the mapped object, tuple or value.
+	 *
+	 * @throws SQLException
+	 *             if a value cannot be read.
+	 */
+	public Object map(ResultSet rs) throws SQLException {
+		if (mapper != null) {
+			Object item;
+			try {
+				item = type.newInstance();
+			} catch (Exception e) {
+				throw new UnexpectedException(
+						"Unable to create an object of type "
+								+ type.getName(), e);
+			}
+			mapper.map(item, rs);
+			return item;
+		}
+		if (tuple) {
+			Object[] values = new Object[types.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = RowMapper.read(rs, i + 1, types[i]);
+			}
+			return values;
+		}
+		return type.cast(RowMapper.read(rs, 1, types[0]));
+	}
+}
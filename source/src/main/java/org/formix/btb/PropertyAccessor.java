@@ -0,0 +1,353 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Calendar;
+
+/**
+ * Reads and writes a single property of a bridged type. The accessor is built
+ * once per descriptor from the property get/set methods. It uses method
+ * handles when they can be created and falls back to plain reflection
+ * otherwise.
+ *
+ * @author Jean-Philippe Gravel
+ */
+class PropertyAccessor {
+
+	private static final MethodType GETTER_TYPE = MethodType.methodType(
+			Object.class, Object.class);
+	private static final MethodType SETTER_TYPE = MethodType.methodType(
+			void.class, Object.class, Object.class);
+	private static final MethodType LONG_SETTER_TYPE = MethodType
+			.methodType(void.class, Object.class, long.class);
+	private static final MethodType DOUBLE_SETTER_TYPE = MethodType
+			.methodType(void.class, Object.class, double.class);
+
+	/**
+	 * Creates an accessor using method handles, or reflection if the handles
+	 * cannot be created for the given methods.
+	 *
+	 * @param name
+	 *            the property name.
+	 * @param getter
+	 *            the read method, may be null.
+	 * @param setter
+	 *            the write method, may be null.
+	 *
+	 * @return a new accessor.
+	 */
+	public static PropertyAccessor create(String name, Method getter,
+			Method setter) {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			MethodHandle getHandle = null;
+			MethodHandle setHandle = null;
+			MethodHandle primitiveSetHandle = null;
+			if (getter != null) {
+				getHandle = lookup.unreflect(getter).asType(GETTER_TYPE);
+			}
+			if (setter != null) {
+				MethodHandle handle = lookup.unreflect(setter);
+				setHandle = handle.asType(SETTER_TYPE);
+				Class<?> paramType = setter.getParameterTypes()[0];
+				if ((paramType == float.class) || (paramType == double.class)) {
+					primitiveSetHandle = MethodHandles.explicitCastArguments(
+							handle, DOUBLE_SETTER_TYPE);
+				} else if (paramType.isPrimitive()) {
+					primitiveSetHandle = MethodHandles.explicitCastArguments(
+							handle, LONG_SETTER_TYPE);
+				}
+			}
+			return new PropertyAccessor(name, getter, setter, getHandle,
+					setHandle, primitiveSetHandle);
+		} catch (IllegalAccessException e) {
+			return createReflective(name, getter, setter);
+		} catch (RuntimeException e) {
+			// Security managers and exotic class loaders may refuse to
+			// create the handles.
+			return createReflective(name, getter, setter);
+		}
+	}
+
+	/**
+	 * Creates an accessor that always uses reflection.
+	 *
+	 * @param name
+	 *            the property name.
+	 * @param getter
+	 *            the read method, may be null.
+	 * @param setter
+	 *            the write method, may be null.
+	 *
+	 * @return a new accessor.
+	 */
+	public static PropertyAccessor createReflective(String name,
+			Method getter, Method setter) {
+		return new PropertyAccessor(name, getter, setter, null, null, null);
+	}
+
+	private final String name;
+	private final Method getter;
+	private final Method setter;
+	private final MethodHandle getHandle;
+	private final MethodHandle setHandle;
+	private final MethodHandle primitiveSetHandle;
+	private final Class<?> type;
+	private final ColumnType columnType;
+	private final ColumnType bindType;
+	private final boolean calendar;
+
+	private PropertyAccessor(String name, Method getter, Method setter,
+			MethodHandle getHandle, MethodHandle setHandle,
+			MethodHandle primitiveSetHandle) {
+		this.name = name;
+		this.getter = getter;
+		this.setter = setter;
+		this.getHandle = getHandle;
+		this.setHandle = setHandle;
+		this.primitiveSetHandle = primitiveSetHandle;
+		if (setter != null) {
+			this.type = setter.getParameterTypes()[0];
+		} else if (getter != null) {
+			this.type = getter.getReturnType();
+		} else {
+			this.type = Object.class;
+		}
+		this.columnType = ColumnType.of(this.type);
+		if (getter != null) {
+			this.bindType = ColumnType.of(getter.getReturnType());
+		} else {
+			this.bindType = this.columnType;
+		}
+		this.calendar = Calendar.class.isAssignableFrom(this.type);
+	}
+
+	/**
+	 * @return the property name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the property type, as declared by the write method or by the
+	 *         read method if the property is not writable.
+	 */
+	public Class<?> getType() {
+		return type;
+	}
+
+	/**
+	 * @return the JDBC access method family of the property type.
+	 */
+	public ColumnType getColumnType() {
+		return columnType;
+	}
+
+	/**
+	 * @return the JDBC access method family of the values returned by the
+	 *         read method, used to bind the property as a statement parameter.
+	 */
+	public ColumnType getBindType() {
+		return bindType;
+	}
+
+	/**
+	 * @return true if the property type is a primitive type.
+	 */
+	public boolean isPrimitive() {
+		return type.isPrimitive();
+	}
+
+	/**
+	 * @return true if the property type is a Calendar.
+	 */
+	public boolean isCalendar() {
+		return calendar;
+	}
+
+	/**
+	 * @return the read method or null.
+	 */
+	public Method getGetter() {
+		return getter;
+	}
+
+	/**
+	 * @return the write method or null.
+	 */
+	public Method getSetter() {
+		return setter;
+	}
+
+	/**
+	 * @return true if the property can be read.
+	 */
+	public boolean isReadable() {
+		return getter != null;
+	}
+
+	/**
+	 * @return true if the property can be written.
+	 */
+	public boolean isWritable() {
+		return setter != null;
+	}
+
+	/**
+	 * @return true if this accessor uses method handles.
+	 */
+	public boolean isCompiled() {
+		return (getHandle != null) || (setHandle != null);
+	}
+
+	/**
+	 * Reads the property value of the given item.
+	 *
+	 * @param item
+	 *            the item to read from.
+	 *
+	 * @return the property value.
+	 *
+	 * @throws InvocationTargetException
+	 *             if the read method throws an exception.
+	 * @throws IllegalAccessException
+	 *             if the read method is not accessible.
+	 */
+	public Object get(Object item) throws InvocationTargetException,
+			IllegalAccessException {
+		if (getHandle == null) {
+			return getter.invoke(item);
+		}
+		try {
+			return (Object) getHandle.invokeExact(item);
+		} catch (Throwable t) {
+			throw wrap(t);
+		}
+	}
+
+	/**
+	 * Writes the property value of the given item.
+	 *
+	 * @param item
+	 *            the item to write to.
+	 * @param value
+	 *            the value to assign.
+	 *
+	 * @throws InvocationTargetException
+	 *             if the write method throws an exception.
+	 * @throws IllegalAccessException
+	 *             if the write method is not accessible.
+	 */
+	public void set(Object item, Object value)
+			throws InvocationTargetException, IllegalAccessException {
+		if (setHandle == null) {
+			setter.invoke(item, value);
+			return;
+		}
+		try {
+			setHandle.invokeExact(item, value);
+		} catch (Throwable t) {
+			throw wrap(t);
+		}
+	}
+
+	/**
+	 * Writes a boolean, byte, short, int or long property value without
+	 * boxing it. The value is narrowed to the property type, a boolean
+	 * property being set to true if the lowest bit of the value is 1.
+	 *
+	 * @param item
+	 *            the item to write to.
+	 * @param value
+	 *            the value to assign.
+	 *
+	 * @throws InvocationTargetException
+	 *             if the write method throws an exception.
+	 * @throws IllegalAccessException
+	 *             if the write method is not accessible.
+	 */
+	public void setLong(Object item, long value)
+			throws InvocationTargetException, IllegalAccessException {
+		if (primitiveSetHandle == null) {
+			setter.invoke(item, narrow(value));
+			return;
+		}
+		try {
+			primitiveSetHandle.invokeExact(item, value);
+		} catch (Throwable t) {
+			throw wrap(t);
+		}
+	}
+
+	/**
+	 * Writes a float or double property value without boxing it.
+	 *
+	 * @param item
+	 *            the item to write to.
+	 * @param value
+	 *            the value to assign.
+	 *
+	 * @throws InvocationTargetException
+	 *             if the write method throws an exception.
+	 * @throws IllegalAccessException
+	 *             if the write method is not accessible.
+	 */
+	public void setDouble(Object item, double value)
+			throws InvocationTargetException, IllegalAccessException {
+		if (primitiveSetHandle == null) {
+			setter.invoke(item, (type == float.class) ? Float
+					.valueOf((float) value) : Double.valueOf(value));
+			return;
+		}
+		try {
+			primitiveSetHandle.invokeExact(item, value);
+		} catch (Throwable t) {
+			throw wrap(t);
+		}
+	}
+
+	private Object narrow(long value) {
+		if (type == boolean.class) {
+			return Boolean.valueOf((value & 1) == 1);
+		} else if (type == byte.class) {
+			return Byte.valueOf((byte) value);
+		} else if (type == short.class) {
+			return Short.valueOf((short) value);
+		} else if (type == int.class) {
+			return Integer.valueOf((int) value);
+		}
+		return Long.valueOf(value);
+	}
+
+	// Errors go through, anything else thrown by a handle is reported the
+	// way Method.invoke() does.
+	private static InvocationTargetException wrap(Throwable t) {
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+		return new InvocationTargetException(t);
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + type.getName() + ")";
+	}
+}
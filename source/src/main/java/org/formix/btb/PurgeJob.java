@@ -0,0 +1,367 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Deletes the rows matching a filter in small chunks, so that a large purge
+ * never holds locks for long. Each chunk selects the next primary keys
+ * matching the filter, in key order, deletes them and commits.
+ * </p>
+ * <p>
+ * The job can pause between chunks and cap the number of rows deleted per
+ * second. It can be stopped at any time: every committed chunk stays
+ * deleted, and running the job again resumes the purge. The last key deleted
+ * can also be given back with setStartKey() to skip the range already
+ * purged.
+ * </p>
+ * <p>
+ * The job implements Runnable to run on a background thread. When it uses
+ * the Connector (no connection given to the bridge), it must not run inside
+ * a transaction of the same thread, otherwise the chunks would not commit
+ * separately.
+ * </p>
+ *
+ * @author Jean-Philippe Gravel
+ */
+public class PurgeJob<A> implements Runnable {
+
+	/**
+	 * The default number of rows deleted per chunk.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	private final Bridge<A> bridge;
+	private final SqlDescriptor descriptor;
+	private final Filter filter;
+	private int chunkSize;
+	private long pauseMillis;
+	private double maxRowsPerSecond;
+
+	private volatile boolean stopRequested;
+	private volatile boolean running;
+	private volatile Object lastKey;
+	private volatile long deletedCount;
+	private volatile long chunkCount;
+	private volatile long elapsedNanos;
+	private volatile Exception lastError;
+
+	/**
+	 * Creates a purge job.
+	 *
+	 * @param bridge
+	 *            the bridge of the purged type.
+	 * @param filter
+	 *            the filter selecting the rows to delete.
+	 */
+	public PurgeJob(Bridge<A> bridge, Filter filter) {
+		Util.throwIfNull(bridge, "bridge");
+		Util.throwIfNull(filter, "filter");
+		this.bridge = bridge;
+		this.descriptor = bridge.getDescriptor();
+		this.filter = filter;
+		this.chunkSize = DEFAULT_CHUNK_SIZE;
+		this.pauseMillis = 0;
+		this.maxRowsPerSecond = 0;
+		if (descriptor.getPrimaryKey() == null) {
+			throw new IllegalArgumentException("The type "
+					+ bridge.getType().getName() + " has no primary key.");
+		}
+	}
+
+	/**
+	 * @return the number of rows deleted per chunk.
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @param chunkSize
+	 *            the number of rows deleted per chunk.
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException(
+					"The chunk size must be greater than zero.");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @return the pause after each chunk, in milliseconds.
+	 */
+	public long getPauseMillis() {
+		return pauseMillis;
+	}
+
+	/**
+	 * @param pauseMillis
+	 *            the pause after each chunk, in milliseconds.
+	 */
+	public void setPauseMillis(long pauseMillis) {
+		if (pauseMillis < 0) {
+			throw new IllegalArgumentException("The pause cannot be negative.");
+		}
+		this.pauseMillis = pauseMillis;
+	}
+
+	/**
+	 * @return the maximum number of rows deleted per second, 0 if unlimited.
+	 */
+	public double getMaxRowsPerSecond() {
+		return maxRowsPerSecond;
+	}
+
+	/**
+	 * @param maxRowsPerSecond
+	 *            the maximum number of rows deleted per second, 0 for no
+	 *            limit.
+	 */
+	public void setMaxRowsPerSecond(double maxRowsPerSecond) {
+		if (maxRowsPerSecond < 0) {
+			throw new IllegalArgumentException(
+					"The maximum rate cannot be negative.");
+		}
+		this.maxRowsPerSecond = maxRowsPerSecond;
+	}
+
+	/**
+	 * @return the key after which the next chunk starts, null to start from
+	 *         the first key. Updated after each committed chunk.
+	 */
+	public Object getLastKey() {
+		return lastKey;
+	}
+
+	/**
+	 * Sets the key after which the purge starts, typically the last key of a
+	 * previous run, to skip the range already purged.
+	 *
+	 * @param startKey
+	 *            the key after which the purge starts, null to start from the
+	 *            first key.
+	 */
+	public void setStartKey(Object startKey) {
+		this.lastKey = startKey;
+	}
+
+	/**
+	 * @return the number of rows deleted by the last run.
+	 */
+	public long getDeletedCount() {
+		return deletedCount;
+	}
+
+	/**
+	 * @return the number of chunks committed by the last run.
+	 */
+	public long getChunkCount() {
+		return chunkCount;
+	}
+
+	/**
+	 * @return the duration of the last run, pauses included, in milliseconds.
+	 */
+	public long getElapsedMillis() {
+		return elapsedNanos / 1000000;
+	}
+
+	/**
+	 * @return the number of rows deleted per second by the last run.
+	 */
+	public double getRowsPerSecond() {
+		long elapsed = elapsedNanos;
+		if (elapsed == 0) {
+			return 0;
+		}
+		return deletedCount * 1000000000.0 / elapsed;
+	}
+
+	/**
+	 * @return true while the job is running.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return the error which ended the last run started by run(), null if
+	 *         none.
+	 */
+	public Exception getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * Asks the running job to stop after the current chunk.
+	 */
+	public void stop() {
+		stopRequested = true;
+	}
+
+	/**
+	 * Runs the purge, keeping the error, if any, for getLastError().
+	 */
+	public void run() {
+		try {
+			execute();
+		} catch (SQLException e) {
+			lastError = e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			lastError = e;
+		}
+	}
+
+	/**
+	 * Runs the purge until no row matches the filter or until stopped.
+	 *
+	 * @return the number of rows deleted.
+	 *
+	 * @throws SQLException
+	 *             if a chunk fails. The chunk is rolled back, the previous
+	 *             ones stay committed.
+	 * @throws InterruptedException
+	 *             if interrupted during a pause.
+	 */
+	public long execute() throws SQLException, InterruptedException {
+		stopRequested = false;
+		running = true;
+		lastError = null;
+		deletedCount = 0;
+		chunkCount = 0;
+		elapsedNanos = 0;
+		long start = System.nanoTime();
+		try {
+			while (!stopRequested) {
+				int deleted = purgeChunk();
+				elapsedNanos = System.nanoTime() - start;
+				if (deleted < 0) {
+					break;
+				}
+				deletedCount += deleted;
+				chunkCount++;
+				throttle(start);
+			}
+		} finally {
+			elapsedNanos = System.nanoTime() - start;
+			running = false;
+		}
+		return deletedCount;
+	}
+
+	private void throttle(long start) throws InterruptedException {
+		long sleep = pauseMillis;
+		double rate = maxRowsPerSecond;
+		if (rate > 0) {
+			long expected = (long) (deletedCount * 1000 / rate);
+			long elapsed = (System.nanoTime() - start) / 1000000;
+			sleep = Math.max(sleep, expected - elapsed);
+		}
+		if (sleep > 0) {
+			Thread.sleep(sleep);
+		}
+	}
+
+	// Returns the number of rows deleted, or -1 if no key matches the filter
+	// anymore.
+	private int purgeChunk() throws SQLException {
+		Connection connection = bridge.getConnection();
+		boolean useConnector = connection == null;
+		if (useConnector) {
+			connection = Connector.openConnection();
+		}
+
+		boolean success = false;
+		try {
+			List<Object> keys = selectKeys(connection);
+			int deleted = -1;
+			if (!keys.isEmpty()) {
+				deleted = bridge.deleteAllByKey(keys, keys.size());
+			}
+			if (!useConnector && !connection.getAutoCommit()) {
+				connection.commit();
+			}
+			success = true;
+			if (!keys.isEmpty()) {
+				lastKey = keys.get(keys.size() - 1);
+			}
+			return deleted;
+		} finally {
+			if (useConnector) {
+				if (success) {
+					Connector.closeConnection();
+				} else {
+					Connector.rollBack();
+				}
+			} else if (!success && !connection.getAutoCommit()) {
+				connection.rollback();
+			}
+		}
+	}
+
+	private List<Object> selectKeys(Connection connection) throws SQLException {
+		String key = descriptor.getPrimaryKey();
+		Object after = lastKey;
+		StringBuilder sb = new StringBuilder("SELECT ");
+		sb.append(key).append(" FROM ").append(descriptor.getTableName());
+		sb.append(" WHERE (").append(filter).append(")");
+		if (after != null) {
+			sb.append(" AND ").append(key).append(" > ?");
+		}
+		sb.append(" ORDER BY ").append(key);
+
+		PreparedStatement stmt = connection.prepareStatement(sb.toString());
+		try {
+			stmt.setMaxRows(chunkSize);
+			int parameterIndex = ParameterBinder.bindFilter(stmt, descriptor,
+					filter, 1);
+			if (after != null) {
+				ColumnType keyType = descriptor.getReadableAccessor(key)
+						.getBindType();
+				ParameterBinder.bindLoose(stmt, parameterIndex, keyType, after);
+			}
+			List<Object> keys = new ArrayList<Object>(chunkSize);
+			ResultSet rs = stmt.executeQuery();
+			try {
+				while (rs.next() && (keys.size() < chunkSize)) {
+					keys.add(rs.getObject(1));
+				}
+			} finally {
+				rs.close();
+			}
+			return keys;
+		} finally {
+			stmt.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%s purge: %d rows in %d chunks, %d ms (%.0f rows/s)",
+				descriptor.getTableName(), deletedCount, chunkCount,
+				getElapsedMillis(), getRowsPerSecond());
+	}
+}
@@ -18,15 +18,16 @@ import java.lang.reflect.InvocationTargetException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.sql.Timestamp;
-import java.util.Calendar;
 import java.util.Collection;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Instances of this class are used to define a query and it's parameters.
@@ -45,8 +46,11 @@ public class Query<I> {
 	private Filter filter;
 	private String orderBy;
 	private SqlDescriptor descriptor;
-	private Map<String, String> dataColumns;
 	private String primaryKey;
+	private boolean trackChanges;
+	private int fetchSize;
+	private int limit;
+	private String[] propertyGroups;
 
 	/**
 	 * Creates a query using the specified connection and descriptor.
@@ -143,9 +147,119 @@ public class Query<I> {
 		this.joins = new ArrayList<Join>();
 		created = new QueryEventHandlerSet<I>();
 		creating = new QueryEventHandlerSet<I>();
-		this.dataColumns = null;
 		this.primaryKey = null;
 		this.connection = connection;
+		this.trackChanges = false;
+		this.fetchSize = 0;
+		this.limit = 0;
+		this.propertyGroups = null;
+	}
+
+	/**
+	 * Gets the number of rows fetched from the database at once.
+	 * 
+	 * @return the fetch size, 0 for the driver default.
+	 */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * Sets the number of rows fetched from the database at once, a hint given
+	 * to the driver.
+	 * 
+	 * @param fetchSize
+	 *            the fetch size, 0 for the driver default.
+	 */
+	public void setFetchSize(int fetchSize) {
+		if (fetchSize < 0) {
+			throw new IllegalArgumentException(
+					"The fetch size cannot be negative.");
+		}
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Gets the maximum number of rows returned by the query.
+	 * 
+	 * @return the row limit, 0 if the query is not limited.
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Sets the maximum number of rows returned by the query. The limit is
+	 * applied by the database with the LIMIT or FETCH FIRST clause of its
+	 * dialect. Rows sharing the same primary key are merged into one object,
+	 * so a query with joins may return fewer objects than the limit.
+	 * 
+	 * @param limit
+	 *            the row limit, 0 for no limit.
+	 */
+	public void setLimit(int limit) {
+		if (limit < 0) {
+			throw new IllegalArgumentException("The limit cannot be negative.");
+		}
+		this.limit = limit;
+	}
+
+	/**
+	 * Gets the property groups loaded by the query.
+	 * 
+	 * @return the names of the loaded groups, null if the query loads every
+	 *         property.
+	 */
+	public String[] getPropertyGroups() {
+		return propertyGroups;
+	}
+
+	/**
+	 * Sets the property groups loaded by the query, defined with
+	 * Bridge.addPropertyGroup(). The query then selects only the primary key
+	 * and the properties of these groups, and the objects it returns are
+	 * partially loaded: Bridge.ensureLoaded() loads their other properties, for
+	 * all the objects of the same result at once. Property groups apply to
+	 * execute(), executeFill() and page(); a paged query also loads the
+	 * columns of its order by clause.
+	 * 
+	 * @param groups
+	 *            the names of the groups to load, none to load every property.
+	 */
+	public void setPropertyGroups(String... groups) {
+		if ((groups == null) || (groups.length == 0)) {
+			this.propertyGroups = null;
+			return;
+		}
+		for (String group : groups) {
+			if (descriptor.getPropertyGroup(group) == null) {
+				throw new IllegalArgumentException("The property group " + group
+						+ " is not defined for "
+						+ descriptor.getType().getName() + ".");
+			}
+		}
+		this.propertyGroups = groups.clone();
+	}
+
+	/**
+	 * Tells if the values of the loaded objects are recorded.
+	 * 
+	 * @return true if the query tracks changes.
+	 */
+	public boolean isTrackChanges() {
+		return trackChanges;
+	}
+
+	/**
+	 * Sets if the values of the loaded objects are recorded. When they are,
+	 * Bridge.update only writes the columns that changed since the object was
+	 * loaded, and does nothing if no column changed.
+	 * 
+	 * @param trackChanges
+	 *            true to record the loaded values.
+	 */
+	public void setTrackChanges(boolean trackChanges) {
+		this.trackChanges = trackChanges;
 	}
 
 	/**
@@ -307,7 +421,10 @@ public class Query<I> {
 
 	/**
 	 * Counts the number of rows that will be returned by the current query.
-	 * Execute a SELECT COUNT on the underlying table using the current filters.
+	 * For a query created by a bridge, the count is selected directly from the
+	 * table, the joins and the filter, without the mapped columns nor the
+	 * order by clause. A query created from a select string is counted as a
+	 * subquery, still without its order by clause.
 	 * 
 	 * @return The number of rows that will be returned by the executeFill
 	 *         methods.
@@ -315,10 +432,14 @@ public class Query<I> {
 	 *             if an error occurs during the SELECT COUNT operation.
 	 */
 	public int count() throws SQLException {
-
-		// String beginsWith = "SELECT COUNT(*) FROM (" + this.toString() +
-		// ")q";
-		String strQuery = "SELECT COUNT(*) FROM (" + this.toString() + ")q";
+		String strQuery;
+		if (string.equals(descriptor.getSelectQuery())) {
+			strQuery = buildSelectQuery("SELECT COUNT(*) FROM "
+					+ descriptor.getTableName(), filter, null, null, 0);
+		} else {
+			strQuery = "SELECT COUNT(*) FROM ("
+					+ buildSelectQuery(string, filter, null, null, 0) + ")q";
+		}
 
 		Connection connection = this.connection;
 		boolean closeConn = false;
@@ -327,22 +448,97 @@ public class Query<I> {
 			connection = Connector.openConnection();
 		}
 
-		PreparedStatement stmt = connection.prepareStatement(strQuery);
-		setParameters(stmt, filter);
-		ResultSet rs = stmt.executeQuery();
-
 		int count = 0;
-		if (rs.next()) {
-			count = rs.getInt(1);
+		try {
+			PreparedStatement stmt = connection.prepareStatement(strQuery);
+			try {
+				setParameters(stmt, filter);
+				ResultSet rs = stmt.executeQuery();
+				if (rs.next()) {
+					count = rs.getInt(1);
+				}
+				rs.close();
+			} finally {
+				stmt.close();
+			}
+		} catch (SQLException e) {
+			throw new SQLException("SQL Statement error: " + strQuery, e);
+		} finally {
+			if (closeConn) {
+				Connector.closeConnection();
+			}
 		}
 
-		stmt.close();
+		if ((limit > 0) && (count > limit)) {
+			return limit;
+		}
+		return count;
+	}
 
-		if (closeConn) {
-			Connector.closeConnection();
+	/**
+	 * <p>
+	 * Estimates the number of rows of the current query from the statistics
+	 * the database keeps on its tables, without scanning them. The estimate
+	 * is as recent as the statistics and is meant for displays like the page
+	 * count of a large table, never for business logic.
+	 * </p>
+	 * <p>
+	 * Statistics describe whole tables: a query having a filter or joins, or
+	 * a database without row statistics (Derby, H2 and unknown databases),
+	 * falls back to the exact count().
+	 * </p>
+	 * 
+	 * @return the estimated number of rows.
+	 * @throws SQLException
+	 *             if an error occurs while reading the statistics.
+	 */
+	public long estimateCount() throws SQLException {
+		if ((filter != null) || !joins.isEmpty()
+				|| !string.equals(descriptor.getSelectQuery())) {
+			return count();
 		}
 
-		return count;
+		Connection connection = this.connection;
+		boolean closeConn = false;
+		if (connection == null) {
+			closeConn = true;
+			connection = Connector.openConnection();
+		}
+
+		long estimate = -1;
+		try {
+			String strQuery = Dialect.detect(connection)
+					.createRowEstimateQuery();
+			if (strQuery != null) {
+				PreparedStatement stmt = connection.prepareStatement(strQuery);
+				try {
+					stmt.setString(1, descriptor.getTableName());
+					ResultSet rs = stmt.executeQuery();
+					if (rs.next()) {
+						estimate = rs.getLong(1);
+						if (rs.wasNull()) {
+							estimate = -1;
+						}
+					}
+					rs.close();
+				} finally {
+					stmt.close();
+				}
+			}
+		} finally {
+			if (closeConn) {
+				Connector.closeConnection();
+			}
+		}
+
+		// Tables never analyzed have no statistics.
+		if (estimate < 0) {
+			return count();
+		}
+		if ((limit > 0) && (estimate > limit)) {
+			return limit;
+		}
+		return estimate;
 	}
 
 	/**
@@ -371,7 +567,209 @@ public class Query<I> {
 	 */
 	public void executeFill(Collection<? super I> col) throws SQLException {
 		Util.throwIfNull(col, "col");
-		String strQuery = buildSelectQuery(string, filter, orderBy);
+		fill(col, filter, orderBy, limit, null);
+	}
+
+	/**
+	 * <p>
+	 * Executes the query and returns one page of its result using keyset
+	 * pagination: instead of skipping the rows of the previous pages with an
+	 * offset, the next page starts after the order by values of the last
+	 * object read. Each page costs the same, whatever its position, and rows
+	 * inserted or deleted meanwhile do not shift the following pages.
+	 * </p>
+	 * <p>
+	 * The order by clause must be a list of columns of the queried type, each
+	 * followed by an optional ASC or DESC. The primary key is added at its end
+	 * when missing so that the order is unique. Paged columns must not be
+	 * null. Without an order by clause, the pages follow the primary key.
+	 * </p>
+	 * <p>
+	 * Queries having joins cannot be paged: the page size would limit the
+	 * joined rows, which are then merged into fewer objects.
+	 * </p>
+	 * 
+	 * @param pageSize
+	 *            the maximum number of objects of the page.
+	 * @param continuation
+	 *            the continuation token of the previous page, null to get the
+	 *            first page.
+	 * 
+	 * @return the page, with the token of the next page if any.
+	 * 
+	 * @throws SQLException
+	 *             if an error occurs during the query execution.
+	 * @throws IllegalArgumentException
+	 *             if the continuation token has not been created by a query
+	 *             having the same order.
+	 * @throws IllegalStateException
+	 *             if the query has joins or if the order by clause cannot be
+	 *             used for paging.
+	 */
+	public Page<I> page(int pageSize, String continuation) throws SQLException {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException(
+					"The page size must be greater than zero.");
+		}
+		if (!joins.isEmpty()) {
+			throw new IllegalStateException(
+					"A query having joins cannot be paged.");
+		}
+
+		List<String> columns = new ArrayList<String>();
+		List<Boolean> descending = new ArrayList<Boolean>();
+		String seekOrder = parseSeekOrder(columns, descending);
+		ColumnType[] types = new ColumnType[columns.size()];
+		for (int i = 0; i < types.length; i++) {
+			types[i] = descriptor.getReadableAccessor(columns.get(i))
+					.getBindType();
+			if (!KeysetToken.supports(types[i])) {
+				throw new IllegalStateException("The column " + columns.get(i)
+						+ " cannot be used for paging.");
+			}
+		}
+
+		Filter pageFilter = filter;
+		if (continuation != null) {
+			Object[] values = KeysetToken.decode(continuation, seekOrder,
+					types);
+			Filter seek = createSeekFilter(columns, descending, values);
+			if (filter == null) {
+				pageFilter = seek;
+			} else {
+				pageFilter = new LogicalFilter(Operators.AND, filter, seek);
+			}
+		}
+
+		// One more row tells if there is a next page.
+		ArrayList<I> items = new ArrayList<I>(pageSize + 1);
+		fill(items, pageFilter, seekOrder, pageSize + 1, columns);
+
+		String next = null;
+		if (items.size() > pageSize) {
+			items.subList(pageSize, items.size()).clear();
+			I last = items.get(pageSize - 1);
+			Object[] values = new Object[types.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = descriptor.getValue(last, columns.get(i));
+				if (values[i] == null) {
+					throw new IllegalStateException("The column "
+							+ columns.get(i)
+							+ " is null and cannot be used for paging.");
+				}
+			}
+			next = KeysetToken.encode(seekOrder, types, values);
+		}
+		return new Page<I>(items, next);
+	}
+
+	// Parses the order by clause into columns and directions, adding the
+	// primary key, and returns the normalized clause.
+	private String parseSeekOrder(List<String> columns,
+			List<Boolean> descending) {
+		String key = getPrimaryKey();
+		if (key == null) {
+			throw new IllegalStateException("The type "
+					+ descriptor.getType().getName()
+					+ " has no primary key to page on.");
+		}
+		if (orderBy != null) {
+			for (String part : orderBy.split(",")) {
+				String[] tokens = part.trim().split("\\s+");
+				boolean desc = false;
+				if (tokens.length == 2) {
+					if (tokens[1].equalsIgnoreCase("DESC")) {
+						desc = true;
+					} else if (!tokens[1].equalsIgnoreCase("ASC")) {
+						tokens = null;
+					}
+				}
+				if ((tokens == null) || (tokens.length > 2)) {
+					throw new IllegalStateException(
+							"Cannot page on the order by clause: " + orderBy);
+				}
+				String column = findColumn(tokens[0]);
+				if (!columns.contains(column)) {
+					columns.add(column);
+					descending.add(desc);
+				}
+			}
+		}
+		if (!columns.contains(key)) {
+			columns.add(key);
+			descending.add(false);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < columns.size(); i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(columns.get(i));
+			if (descending.get(i)) {
+				sb.append(" DESC");
+			}
+		}
+		return sb.toString();
+	}
+
+	private String findColumn(String name) {
+		String column = name.substring(name.lastIndexOf('.') + 1);
+		for (String candidate : descriptor.getColumns()) {
+			if (candidate.equalsIgnoreCase(column)) {
+				return candidate;
+			}
+		}
+		throw new IllegalStateException("Cannot page on " + name
+				+ ", it is not a column of " + descriptor.getTableName() + ".");
+	}
+
+	// (c1 > v1) OR (c1 = v1 AND c2 > v2) OR ..., with < for descending columns.
+	private Filter createSeekFilter(List<String> columns,
+			List<Boolean> descending, Object[] values) {
+		LogicalFilter seek = new LogicalFilter(Operators.OR);
+		for (int i = 0; i < columns.size(); i++) {
+			LogicalFilter step = new LogicalFilter(Operators.AND);
+			for (int j = 0; j < i; j++) {
+				step.getFilters().add(new PropertyFilter(columns.get(j),
+						Comparators.EQUAL, values[j]));
+			}
+			Comparators comparator = descending.get(i) ? Comparators.LOWER
+					: Comparators.GREATER;
+			step.getFilters().add(
+					new PropertyFilter(columns.get(i), comparator, values[i]));
+			seek.getFilters().add(step);
+		}
+		return seek;
+	}
+
+	// The required columns are loaded even if they are not part of the
+	// property groups.
+	private void fill(Collection<? super I> col, Filter filter, String orderBy,
+			int limit, List<String> required) throws SQLException {
+		String select = string;
+		String[] missing = null;
+		if (propertyGroups != null) {
+			List<String> loaded = new ArrayList<String>();
+			loaded.add(getPrimaryKey());
+			for (String group : propertyGroups) {
+				for (String property : descriptor.getPropertyGroup(group)) {
+					if (!loaded.contains(property)) {
+						loaded.add(property);
+					}
+				}
+			}
+			if (required != null) {
+				for (String column : required) {
+					if (!loaded.contains(column)) {
+						loaded.add(column);
+					}
+				}
+			}
+			missing = findMissingColumns(loaded);
+			select = createProjection(
+					loaded.toArray(new String[loaded.size()]), null);
+		}
 
 		Connection connection = this.connection;
 		boolean closeConn = false;
@@ -380,33 +778,301 @@ public class Query<I> {
 			connection = Connector.openConnection();
 		}
 
-		PreparedStatement stmt = connection.prepareStatement(strQuery);
-		setParameters(stmt, filter);
+		String strQuery = select;
 		try {
-			ResultSet rs = stmt.executeQuery();
-			if (this.dataColumns == null)
-				this.createDataColumns(rs.getMetaData());
-			fillCollection(col, rs);
-			rs.close();
+			strQuery = buildSelectQuery(select, filter, orderBy,
+					limit > 0 ? Dialect.detect(connection) : null, limit);
+			PreparedStatement stmt = connection.prepareStatement(strQuery);
+			try {
+				stmt.setFetchSize(fetchSize);
+				setParameters(stmt, filter);
+				ResultSet rs = stmt.executeQuery();
+				List<Object> mapped = null;
+				try {
+					RowMapper mapper = descriptor.getRowMapper(getPrimaryKey(),
+							rs.getMetaData());
+					if ((missing != null) && (missing.length > 0)) {
+						mapped = new ArrayList<Object>();
+					}
+					fillCollection(col, rs, mapper, mapped);
+				} finally {
+					rs.close();
+				}
+				if (mapped != null) {
+					descriptor.getLoadTracker().register(mapped, missing);
+				}
+			} finally {
+				stmt.close();
+			}
 		} catch (SQLException e) {
 			throw new SQLException("SQL Statement error: " + strQuery, e);
 		} finally {
 			if (closeConn) {
 				Connector.closeConnection();
 			}
-			stmt.close();
 		}
 	}
 
-	private void createDataColumns(ResultSetMetaData metaData) throws SQLException {
-		this.dataColumns = new HashMap<String, String>();
-		for (int col = 1; col <= metaData.getColumnCount(); col++) {
-			String colLabel = metaData.getColumnLabel(col);
-			this.dataColumns.put(colLabel.toLowerCase(), colLabel);
+	// The mapped columns not loaded by a query selecting the given ones.
+	private String[] findMissingColumns(List<String> loaded) {
+		List<String> missing = new ArrayList<String>();
+		for (String column : descriptor.getColumns()) {
+			if (!loaded.contains(column)
+					&& !descriptor.getIgnoredProperties().contains(column)
+					&& descriptor.getAccessor(column).isWritable()) {
+				missing.add(column);
+			}
+		}
+		return missing.toArray(new String[missing.size()]);
+	}
+
+	/**
+	 * Executes the query selecting only the given properties and maps each
+	 * row to a new instance of the given type, usually a small data transfer
+	 * class. The values are assigned to the properties of the target type
+	 * having the same names. The filter, joins, order by clause and limit of
+	 * the query apply.
+	 * 
+	 * @param type
+	 *            the target type, having a public no argument constructor.
+	 * @param properties
+	 *            the selected properties of the queried type.
+	 * 
+	 * @return the list of the new objects.
+	 * 
+	 * @throws SQLException
+	 *             if an error occurs during the query execution.
+	 */
+	public <T> List<T> select(Class<T> type, String... properties)
+			throws SQLException {
+		Util.throwIfNull(type, "type");
+		return project(createProjection(properties, null), type, null);
+	}
+
+	/**
+	 * Executes the query selecting only the given properties and returns each
+	 * row as an array of values, in the order of the properties. The values
+	 * have the type of the properties, boxed.
+	 * 
+	 * @param properties
+	 *            the selected properties of the queried type.
+	 * 
+	 * @return the list of the rows.
+	 * 
+	 * @throws SQLException
+	 *             if an error occurs during the query execution.
+	 */
+	public List<Object[]> selectTuples(String... properties)
+			throws SQLException {
+		ColumnType[] types = new ColumnType[properties.length];
+		String strQuery = createProjection(properties, types);
+		return project(strQuery, Object[].class,
+				ProjectionMapper.forTuples(types));
+	}
+
+	/**
+	 * Executes the query selecting only the given property and returns its
+	 * values. The column is read with the ResultSet method matching the given
+	 * type, which must be a wrapper or a reference type: Long.class can read
+	 * an integer column, for example.
+	 * 
+	 * @param type
+	 *            the type of the values.
+	 * @param property
+	 *            the selected property of the queried type.
+	 * 
+	 * @return the list of the values, null for null columns.
+	 * 
+	 * @throws SQLException
+	 *             if an error occurs during the query execution.
+	 */
+	public <T> List<T> selectValues(Class<T> type, String property)
+			throws SQLException {
+		Util.throwIfNull(type, "type");
+		Util.throwIfNullOrEmpty(property, "property");
+		if (type.isPrimitive()) {
+			throw new IllegalArgumentException("Use the wrapper class of "
+					+ type.getName() + ".");
+		}
+		String strQuery = createProjection(new String[] { property }, null);
+		return project(strQuery, type, ProjectionMapper.forValues(type));
+	}
+
+	// Creates the select of the given properties, filling their column types
+	// if an array is given.
+	private String createProjection(String[] properties, ColumnType[] types) {
+		Util.throwIfNull(properties, "properties");
+		if (properties.length == 0) {
+			throw new IllegalArgumentException(
+					"At least one property must be selected.");
 		}
+		if (!string.equals(descriptor.getSelectQuery())) {
+			throw new IllegalStateException("Only the queries created by a "
+					+ "bridge can select properties.");
+		}
+
+		StringBuilder sb = new StringBuilder("SELECT ");
+		for (int i = 0; i < properties.length; i++) {
+			String column = findColumn(properties[i]);
+			if (types != null) {
+				types[i] = descriptor.getReadableAccessor(column)
+						.getColumnType();
+			}
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(descriptor.getTableName()).append(".").append(column);
+		}
+		sb.append(" FROM ").append(descriptor.getTableName());
+		return sb.toString();
 	}
 
-	private String buildSelectQuery(String beginsWith, Filter filter, String orderBy) {
+	// Without a mapper, the rows are mapped to instances of the given type.
+	@SuppressWarnings("unchecked")
+	private <T> List<T> project(String projection, Class<T> type,
+			ProjectionMapper mapper) throws SQLException {
+		Connection connection = this.connection;
+		boolean closeConn = false;
+		if (connection == null) {
+			closeConn = true;
+			connection = Connector.openConnection();
+		}
+
+		String strQuery = projection;
+		List<T> list = new ArrayList<T>();
+		try {
+			strQuery = buildSelectQuery(strQuery, filter, orderBy,
+					limit > 0 ? Dialect.detect(connection) : null, limit);
+			PreparedStatement stmt = connection.prepareStatement(strQuery);
+			try {
+				stmt.setFetchSize(fetchSize);
+				setParameters(stmt, filter);
+				ResultSet rs = stmt.executeQuery();
+				try {
+					if (mapper == null) {
+						RowMapper rowMapper = SqlDescriptor.getInstance(type)
+								.getRowMapper(null, rs.getMetaData());
+						mapper = ProjectionMapper.forType(type, rowMapper);
+					}
+					while (rs.next()) {
+						list.add((T) mapper.map(rs));
+					}
+				} finally {
+					rs.close();
+				}
+			} finally {
+				stmt.close();
+			}
+		} catch (SQLException e) {
+			throw new SQLException("SQL Statement error: " + strQuery, e);
+		} finally {
+			if (closeConn) {
+				Connector.closeConnection();
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Executes the query and returns a cursor mapping the rows as they are
+	 * read, over a forward only and read only result set. The cursor must be
+	 * closed unless all its rows are read.
+	 * 
+	 * @return a cursor over the query result.
+	 * 
+	 * @throws SQLException
+	 *             if an error occurs during the query execution.
+	 */
+	public Cursor<I> iterator() throws SQLException {
+		Connection connection = this.connection;
+		Connector connector = null;
+		if (connection == null) {
+			connector = Connector.getInstance();
+			connection = connector.open();
+		}
+
+		String strQuery = string;
+		PreparedStatement stmt = null;
+		try {
+			strQuery = buildSelectQuery(string, filter, orderBy,
+					limit > 0 ? Dialect.detect(connection) : null, limit);
+			stmt = connection.prepareStatement(strQuery,
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			stmt.setFetchSize(fetchSize);
+			setParameters(stmt, filter);
+			ResultSet rs = stmt.executeQuery();
+			RowMapper mapper = descriptor.getRowMapper(getPrimaryKey(),
+					rs.getMetaData());
+			ChangeTracker tracker = trackChanges ? descriptor.getChangeTracker()
+					: null;
+			return new Cursor<I>(this, stmt, rs, mapper, tracker, connector);
+		} catch (SQLException e) {
+			if (stmt != null) {
+				stmt.close();
+			}
+			if (connector != null) {
+				connector.close();
+			}
+			throw new SQLException("SQL Statement error: " + strQuery, e);
+		}
+	}
+
+	/**
+	 * Executes the query and returns a sequential stream mapping the rows as
+	 * they are consumed. The underlying cursor is released when the stream is
+	 * closed or when its last row has been read, so the stream should be used
+	 * in a try-with-resources statement.
+	 * 
+	 * @return a stream over the query result.
+	 * 
+	 * @throws SQLException
+	 *             if an error occurs during the query execution.
+	 * @see #iterator()
+	 */
+	public Stream<I> stream() throws SQLException {
+		final Cursor<I> cursor = iterator();
+		Spliterator<I> spliterator = Spliterators.spliteratorUnknownSize(cursor,
+				Spliterator.ORDERED | Spliterator.NONNULL);
+		return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+			public void run() {
+				cursor.close();
+			}
+		});
+	}
+
+	/**
+	 * Maps the current row of the result set to a new object, firing the
+	 * creating and created events.
+	 * 
+	 * @return the mapped object or null if an event handler cancelled it.
+	 */
+	I mapRow(ResultSet rs, RowMapper mapper, ChangeTracker tracker)
+			throws SQLException {
+		Object key = mapper.readKey(rs);
+		I item;
+		try {
+			item = createInstance(key);
+		} catch (Exception ex) {
+			throw new UnexpectedException("Unable to create an "
+					+ "object of type " + this.instanciationType.getName(), ex);
+		}
+		if (item == null) {
+			return null;
+		}
+		mapper.map(item, rs);
+		if (tracker != null) {
+			tracker.snapshot(item);
+		}
+		QueryEvent<I> action = new QueryEvent<I>(this, item);
+		onCreated(action);
+		if (action.isCancelled()) {
+			return null;
+		}
+		return item;
+	}
+
+	private String buildSelectQuery(String beginsWith, Filter filter,
+			String orderBy, Dialect dialect, int limit) {
 		String query = beginsWith;
 		if (this.joins.size() > 0) {
 			for (Join join : this.joins) {
@@ -419,6 +1085,9 @@ public class Query<I> {
 		if (orderBy != null) {
 			query += " ORDER BY " + orderBy;
 		}
+		if (limit > 0) {
+			query += dialect.createLimitClause(limit, orderBy != null);
+		}
 		return query;
 	}
 
@@ -428,52 +1097,22 @@ public class Query<I> {
 			return;
 		}
 
-		setParameters(stmt, filter, 1);
-	}
-
-	private int setParameters(PreparedStatement stmt, Filter filter, int parameterIndex) throws SQLException {
-
-		Util.throwIfNull(stmt, "stmt");
-		Util.throwIfNull(filter, "filter");
-
-		int index = parameterIndex;
-
-		if (filter instanceof PropertyFilter) {
-			PropertyFilter colFilter = (PropertyFilter) filter;
-			if (colFilter.getValue() != null) {
-
-				// Convert calendar value to Timestamp
-				Object value = colFilter.getValue();
-				if (value instanceof Calendar) {
-					Calendar cal = (Calendar) value;
-					value = new Timestamp(cal.getTimeInMillis());
-				}
-
-				stmt.setObject(index, value);
-				return index + 1;
-			}
-		} else if (filter instanceof LogicalFilter) {
-			LogicalFilter logicalFilter = (LogicalFilter) filter;
-			for (Filter f : logicalFilter.getFilters()) {
-				index = setParameters(stmt, f, index);
-			}
-		}
-
-		return index;
+		ParameterBinder.bindFilter(stmt, descriptor, filter, 1);
 	}
 
 	@SuppressWarnings("unchecked")
-	private void fillCollection(Collection<? super I> col, ResultSet rs) throws SQLException {
+	private void fillCollection(Collection<? super I> col, ResultSet rs,
+			RowMapper mapper, List<Object> mapped) throws SQLException {
 
 		Map<Object, Object> map = createMap(col);
+		ChangeTracker tracker = null;
+		if (trackChanges) {
+			tracker = descriptor.getChangeTracker();
+		}
 
 		while (rs.next()) {
 
-			Object key = null;
-			String primarykey = getPrimaryKey();
-			if (primarykey != null) {
-				key = rs.getObject(primarykey);
-			}
+			Object key = mapper.readKey(rs);
 
 			I item = null;
 			if (map.containsKey(key)) {
@@ -488,11 +1127,16 @@ public class Query<I> {
 			}
 
 			if (item != null) {
-				setValues(item, rs);
+				mapper.map(item, rs);
+				if (tracker != null) {
+					tracker.snapshot(item);
+				}
 				QueryEvent<I> action = new QueryEvent<I>(this, item);
 				onCreated(action);
 				if (!action.isCancelled() && !map.containsKey(key))
 					col.add(item);
+				if (!action.isCancelled() && (mapped != null))
+					mapped.add(item);
 			}
 
 		}
@@ -526,24 +1170,6 @@ public class Query<I> {
 		return newInstance;
 	}
 
-	private void setValues(I item, ResultSet rs) throws SQLException {
-		for (String column : descriptor.getColumns()) {
-			try {
-				String lcColumn = column.toLowerCase();
-				if (!column.equals(getPrimaryKey()) && this.dataColumns.containsKey(lcColumn)) {
-					String dbColumn = this.dataColumns.get(lcColumn);
-					descriptor.setValue(item, column, rs.getObject(dbColumn));
-				}
-			} catch (InvocationTargetException ex) {
-				throw new UnexpectedException(
-						"Unable to set [" + item + "] in [" + column + "]. Please see inner exceptions.", ex);
-			} catch (IllegalAccessException ex) {
-				throw new UnexpectedException(
-						"Unable to set [" + item + "] in [" + column + "]. Please see inner exceptions.", ex);
-			}
-		}
-	}
-
 	/**
 	 * This method is called before the creation of a new object. This event
 	 * gives the occasion to the user to take control of the object creation.
@@ -575,6 +1201,6 @@ public class Query<I> {
 
 	@Override
 	public String toString() {
-		return buildSelectQuery(string, filter, orderBy);
+		return buildSelectQuery(string, filter, orderBy, null, 0);
 	}
 }
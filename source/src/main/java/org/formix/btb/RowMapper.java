@@ -0,0 +1,463 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.lang.reflect.InvocationTargetException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the rows of a result set to the properties of a bridged type. The
+ * mapping plan (which result set column goes to which property) is resolved
+ * once from the result set meta data. Mapping a row is then a sequence of
+ * indexed reads and setter calls. Each column is read with the ResultSet
+ * method matching the property type, so primitive properties are assigned
+ * without boxing. A SQL NULL cannot be assigned to a primitive property.
+ *
+ * @author Jean-Philippe Gravel
+ */
+class RowMapper {
+
+	/**
+	 * Compiles the mapping plan of the given result set.
+	 *
+	 * @param descriptor
+	 *            the descriptor of the type receiving the values.
+	 * @param primaryKey
+	 *            the primary key property, may be null. The primary key is
+	 *            read separately and is not part of the mapped columns.
+	 * @param metaData
+	 *            the result set meta data.
+	 *
+	 * @return a new row mapper.
+	 *
+	 * @throws SQLException
+	 *             if the meta data cannot be read.
+	 */
+	public static RowMapper compile(SqlDescriptor descriptor,
+			String primaryKey, ResultSetMetaData metaData) throws SQLException {
+		return compile(descriptor, primaryKey, metaData, true);
+	}
+
+	/**
+	 * Compiles the mapping plan of the given result set.
+	 *
+	 * @param descriptor
+	 *            the descriptor of the type receiving the values.
+	 * @param primaryKey
+	 *            the primary key property, may be null.
+	 * @param metaData
+	 *            the result set meta data.
+	 * @param typed
+	 *            true to read the columns with the ResultSet method matching
+	 *            each property type, false to read every column with
+	 *            ResultSet.getObject.
+	 *
+	 * @return a new row mapper.
+	 *
+	 * @throws SQLException
+	 *             if the meta data cannot be read.
+	 */
+	static RowMapper compile(SqlDescriptor descriptor, String primaryKey,
+			ResultSetMetaData metaData, boolean typed) throws SQLException {
+
+		Map<String, String> properties = new HashMap<String, String>();
+		for (String column : descriptor.getColumns()) {
+			properties.put(column.toLowerCase(), column);
+		}
+
+		int keyIndex = 0;
+		List<Integer> ordinals = new ArrayList<Integer>();
+		List<PropertyAccessor> accessors = new ArrayList<PropertyAccessor>();
+		Map<String, Integer> mapped = new HashMap<String, Integer>();
+
+		String[] labels = getLabels(metaData);
+		for (int col = 1; col <= labels.length; col++) {
+			String property = properties.get(labels[col - 1].toLowerCase());
+
+			// Only the first column having a given label is mapped, like
+			// ResultSet.getObject(String) would do.
+			if ((property == null) || mapped.containsKey(property)) {
+				continue;
+			}
+			mapped.put(property, col);
+
+			if (property.equals(primaryKey)) {
+				keyIndex = col;
+				continue;
+			}
+
+			PropertyAccessor accessor = descriptor.getAccessor(property);
+			if (accessor.isWritable()) {
+				ordinals.add(col);
+				accessors.add(accessor);
+			}
+		}
+
+		return new RowMapper(descriptor, labels, keyIndex, ordinals,
+				accessors, typed);
+	}
+
+	/**
+	 * Reads the column labels of a result set, which make its shape.
+	 *
+	 * @param metaData
+	 *            the result set meta data.
+	 *
+	 * @return the column labels, in the result set order.
+	 *
+	 * @throws SQLException
+	 *             if the meta data cannot be read.
+	 */
+	public static String[] getLabels(ResultSetMetaData metaData)
+			throws SQLException {
+		String[] labels = new String[metaData.getColumnCount()];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = metaData.getColumnLabel(i + 1);
+		}
+		return labels;
+	}
+
+	private final SqlDescriptor descriptor;
+	private final String[] labels;
+	private final int keyIndex;
+	private final int[] ordinals;
+	private final PropertyAccessor[] accessors;
+	private final ColumnType[] types;
+	private final boolean[] primitives;
+
+	private RowMapper(SqlDescriptor descriptor, String[] labels,
+			int keyIndex, List<Integer> ordinals,
+			List<PropertyAccessor> accessors, boolean typed) {
+		this.descriptor = descriptor;
+		this.labels = labels;
+		this.keyIndex = keyIndex;
+		this.ordinals = new int[ordinals.size()];
+		for (int i = 0; i < this.ordinals.length; i++) {
+			this.ordinals[i] = ordinals.get(i);
+		}
+		this.accessors = accessors.toArray(new PropertyAccessor[accessors
+				.size()]);
+		this.types = new ColumnType[this.accessors.length];
+		this.primitives = new boolean[this.accessors.length];
+		for (int i = 0; i < this.accessors.length; i++) {
+			if (typed) {
+				this.types[i] = this.accessors[i].getColumnType();
+				this.primitives[i] = this.accessors[i].isPrimitive();
+			} else {
+				this.types[i] = ColumnType.OBJECT;
+			}
+		}
+	}
+
+	/**
+	 * Tells if this mapper has been compiled for a result set having the same
+	 * shape, the same column labels in the same order, as the given labels.
+	 *
+	 * @param labels
+	 *            the column labels of the result set to map.
+	 *
+	 * @return true if this mapper can be used for the result set.
+	 */
+	public boolean matches(String[] labels) {
+		return Arrays.equals(this.labels, labels);
+	}
+
+	/**
+	 * @return the result set index of the primary key or 0 if the primary
+	 *         key is not part of the result set.
+	 */
+	public int getKeyIndex() {
+		return keyIndex;
+	}
+
+	/**
+	 * Reads the primary key value of the current row.
+	 *
+	 * @param rs
+	 *            the result set positioned on the row to read.
+	 *
+	 * @return the primary key value or null if the key is not part of the
+	 *         result set.
+	 *
+	 * @throws SQLException
+	 *             if the value cannot be read.
+	 */
+	public Object readKey(ResultSet rs) throws SQLException {
+		if (keyIndex == 0) {
+			return null;
+		}
+		return rs.getObject(keyIndex);
+	}
+
+	/**
+	 * Assigns the values of the current row to the given item. The primary
+	 * key is not assigned.
+	 *
+	 * @param item
+	 *            the item to assign.
+	 * @param rs
+	 *            the result set positioned on the row to read.
+	 *
+	 * @throws SQLException
+	 *             if a value cannot be read.
+	 * @throws IllegalArgumentException
+	 *             if a value cannot be assigned, for instance a SQL NULL read
+	 *             into a primitive property.
+	 */
+	public void map(Object item, ResultSet rs) throws SQLException {
+		for (int i = 0; i < ordinals.length; i++) {
+			try {
+				assign(i, item, rs);
+			} catch (IllegalAccessException e) {
+				throw descriptor.createAssignException(accessors[i], item,
+						rs.getObject(ordinals[i]), e);
+			} catch (InvocationTargetException e) {
+				throw descriptor.createAssignException(accessors[i], item,
+						rs.getObject(ordinals[i]), e);
+			} catch (RuntimeException e) {
+				throw descriptor.createAssignException(accessors[i], item,
+						rs.getObject(ordinals[i]), e);
+			}
+		}
+	}
+
+	/**
+	 * Reads a column of the current row with the ResultSet method matching
+	 * the given type.
+	 *
+	 * @param rs
+	 *            the result set positioned on the row to read.
+	 * @param col
+	 *            the column index.
+	 * @param type
+	 *            the type of the value.
+	 *
+	 * @return the value, boxed, or null if the column is null.
+	 *
+	 * @throws SQLException
+	 *             if the value cannot be read.
+	 */
+	static Object read(ResultSet rs, int col, ColumnType type)
+			throws SQLException {
+		Object value;
+		switch (type) {
+		case BOOLEAN:
+			value = Boolean.valueOf(rs.getBoolean(col));
+			break;
+		case BYTE:
+			value = Byte.valueOf(rs.getByte(col));
+			break;
+		case SHORT:
+			value = Short.valueOf(rs.getShort(col));
+			break;
+		case INT:
+			value = Integer.valueOf(rs.getInt(col));
+			break;
+		case LONG:
+			value = Long.valueOf(rs.getLong(col));
+			break;
+		case FLOAT:
+			value = Float.valueOf(rs.getFloat(col));
+			break;
+		case DOUBLE:
+			value = Double.valueOf(rs.getDouble(col));
+			break;
+		case BIG_DECIMAL:
+			return rs.getBigDecimal(col);
+		case STRING:
+			return rs.getString(col);
+		case DATE:
+			return rs.getDate(col);
+		case TIME:
+			return rs.getTime(col);
+		case TIMESTAMP:
+			return rs.getTimestamp(col);
+		case CALENDAR:
+			Timestamp timestamp = rs.getTimestamp(col);
+			if (timestamp == null) {
+				return null;
+			}
+			Calendar cal = Calendar.getInstance();
+			cal.setTimeInMillis(timestamp.getTime());
+			return cal;
+		case CHARACTER:
+			String charValue = rs.getString(col);
+			if ((charValue == null) || (charValue.length() == 0)) {
+				return null;
+			}
+			return Character.valueOf(charValue.charAt(0));
+		case BYTES:
+			return rs.getBytes(col);
+		default:
+			return rs.getObject(col);
+		}
+		return rs.wasNull() ? null : value;
+	}
+
+	// A primitive property cannot hold SQL NULL: failing, like assigning a
+	// null value through set() does, beats silently reading 0 or false.
+	private static void checkNotNull(ResultSet rs) throws SQLException {
+		if (rs.wasNull()) {
+			throw new IllegalArgumentException(
+					"SQL NULL cannot be assigned to a primitive property");
+		}
+	}
+
+	private void assign(int i, Object item, ResultSet rs)
+			throws SQLException, IllegalAccessException,
+			InvocationTargetException {
+
+		PropertyAccessor accessor = accessors[i];
+		int col = ordinals[i];
+
+		switch (types[i]) {
+		case BOOLEAN:
+			boolean booleanValue = rs.getBoolean(col);
+			if (primitives[i]) {
+				checkNotNull(rs);
+				accessor.setLong(item, booleanValue ? 1 : 0);
+			} else {
+				accessor.set(item, rs.wasNull() ? null : Boolean
+						.valueOf(booleanValue));
+			}
+			break;
+
+		case BYTE:
+			byte byteValue = rs.getByte(col);
+			if (primitives[i]) {
+				checkNotNull(rs);
+				accessor.setLong(item, byteValue);
+			} else {
+				accessor.set(item, rs.wasNull() ? null : Byte
+						.valueOf(byteValue));
+			}
+			break;
+
+		case SHORT:
+			short shortValue = rs.getShort(col);
+			if (primitives[i]) {
+				checkNotNull(rs);
+				accessor.setLong(item, shortValue);
+			} else {
+				accessor.set(item, rs.wasNull() ? null : Short
+						.valueOf(shortValue));
+			}
+			break;
+
+		case INT:
+			int intValue = rs.getInt(col);
+			if (primitives[i]) {
+				checkNotNull(rs);
+				accessor.setLong(item, intValue);
+			} else {
+				accessor.set(item, rs.wasNull() ? null : Integer
+						.valueOf(intValue));
+			}
+			break;
+
+		case LONG:
+			long longValue = rs.getLong(col);
+			if (primitives[i]) {
+				checkNotNull(rs);
+				accessor.setLong(item, longValue);
+			} else {
+				accessor.set(item, rs.wasNull() ? null : Long
+						.valueOf(longValue));
+			}
+			break;
+
+		case FLOAT:
+			float floatValue = rs.getFloat(col);
+			if (primitives[i]) {
+				checkNotNull(rs);
+				accessor.setDouble(item, floatValue);
+			} else {
+				accessor.set(item, rs.wasNull() ? null : Float
+						.valueOf(floatValue));
+			}
+			break;
+
+		case DOUBLE:
+			double doubleValue = rs.getDouble(col);
+			if (primitives[i]) {
+				checkNotNull(rs);
+				accessor.setDouble(item, doubleValue);
+			} else {
+				accessor.set(item, rs.wasNull() ? null : Double
+						.valueOf(doubleValue));
+			}
+			break;
+
+		case BIG_DECIMAL:
+			accessor.set(item, rs.getBigDecimal(col));
+			break;
+
+		case STRING:
+			accessor.set(item, rs.getString(col));
+			break;
+
+		case DATE:
+			accessor.set(item, rs.getDate(col));
+			break;
+
+		case TIME:
+			accessor.set(item, rs.getTime(col));
+			break;
+
+		case TIMESTAMP:
+			accessor.set(item, rs.getTimestamp(col));
+			break;
+
+		case CALENDAR:
+			Timestamp timestamp = rs.getTimestamp(col);
+			Calendar cal = null;
+			if (timestamp != null) {
+				cal = Calendar.getInstance();
+				cal.setTimeInMillis(timestamp.getTime());
+			}
+			accessor.set(item, cal);
+			break;
+
+		case CHARACTER:
+			String charValue = rs.getString(col);
+			if ((charValue != null) && (charValue.length() > 0)) {
+				accessor.set(item, Character.valueOf(charValue.charAt(0)));
+			} else if (primitives[i]) {
+				accessor.set(item, Character.valueOf('\u0000'));
+			} else {
+				accessor.set(item, null);
+			}
+			break;
+
+		case BYTES:
+			accessor.set(item, rs.getBytes(col));
+			break;
+
+		default:
+			accessor.set(item, descriptor.toAssignable(accessor, rs
+					.getObject(col)));
+			break;
+		}
+	}
+}
@@ -2,37 +2,138 @@ package org.formix.btb;
 
 import java.security.SecureRandom;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * <p>
  * Sufficiently Unique Identifier
- * 
+ * </p>
+ * <p>
+ * A SUID is a 64 bits ID made of the time in milliseconds since epoch (Jan.
+ * 1, 1970) shifted left by 16 bits, followed by an optional node id and a
+ * sequence number sharing the 16 low bits. With n node bits, 2^n nodes can
+ * generate IDs concurrently without collisions, each of them up to 2^(16 - n)
+ * IDs per millisecond.
+ * </p>
+ * <p>
+ * Without node bits, nothing tells the generators of different processes
+ * apart. Their sequences then start each millisecond at a random number of
+ * the lower half of the sequence range, which makes collisions unlikely but
+ * not impossible, and leaves at least 32768 IDs per millisecond. Give each
+ * process a distinct node id when collisions must be ruled out.
+ * </p>
+ * <p>
+ * The IDs returned by a generator are strictly increasing. The time and the
+ * sequence of the last ID are packed in a single word updated by compare and
+ * set, so generating an ID never locks. When the sequence of the current
+ * millisecond is exhausted, the generator waits for the next millisecond. If
+ * the system clock goes backward, the generator keeps counting from the time
+ * of the last ID until the clock catches up.
+ * </p>
+ *
  * @author formix
  *
  */
-final class SUID {
+class SUID {
+
+	/**
+	 * The number of bits shared by the node id and the sequence.
+	 */
+	public static final int LOW_BITS = 16;
+
+	private static final SUID DEFAULT = new SUID(0, 0);
+
+	private static final Random RANDOM = new SecureRandom();
 
-	private static final int SHORT_MAX = 65536;
-	private static Random rnd = new SecureRandom();
-	private static int counter = -1;
+	private final int sequenceBits;
+	private final long sequenceMask;
+	private final long node;
+	private final boolean randomStart;
+	private final AtomicLong last;
 
-	private SUID() {
+	/**
+	 * Creates a generator for the given node.
+	 *
+	 * @param nodeId
+	 *            the id of the node, between 0 and 2^nodeBits - 1.
+	 * @param nodeBits
+	 *            the number of bits of the node id, between 0 and 15.
+	 */
+	SUID(int nodeId, int nodeBits) {
+		if ((nodeBits < 0) || (nodeBits >= LOW_BITS)) {
+			throw new IllegalArgumentException(
+					"The number of node bits must be between 0 and "
+					+ (LOW_BITS - 1) + ".");
+		}
+		if ((nodeId < 0) || (nodeId >= (1 << nodeBits))) {
+			throw new IllegalArgumentException("The node id " + nodeId
+					+ " does not fit in " + nodeBits + " bits.");
+		}
+		this.sequenceBits = LOW_BITS - nodeBits;
+		this.sequenceMask = (1L << this.sequenceBits) - 1;
+		this.node = ((long) nodeId) << this.sequenceBits;
+		this.randomStart = nodeBits == 0;
+		this.last = new AtomicLong(-1);
 	}
 
 	/**
-	 * Creates a unique 64 bits ID by aggregating the current time in
-	 * milliseconds since epoch (Jan. 1, 1970) with a 16 bits counter. The
-	 * counter is initialized at a random number. This generator can create up
-	 * to 65536 different id per millisecond.
-	 * 
+	 * Creates a unique 64 bits ID with the default generator, which has no
+	 * node bits and can create from 32768 to 65536 different ids per
+	 * millisecond.
+	 *
 	 * @return a new id.
 	 */
-	public static synchronized long nextId() {
-		long now = System.currentTimeMillis();
-		if (counter == -1) {
-			counter = rnd.nextInt(SHORT_MAX);
+	public static long nextId() {
+		return DEFAULT.next();
+	}
+
+	/**
+	 * Creates a unique 64 bits ID.
+	 *
+	 * @return a new id, greater than any id previously returned by this
+	 *         generator.
+	 */
+	public long next() {
+		while (true) {
+			long previous = last.get();
+			long previousTime = previous >> sequenceBits;
+			long now = currentTimeMillis();
+			long state;
+			if (now > previousTime) {
+				state = (now << sequenceBits) | firstSequence();
+			} else if (((previous & sequenceMask) == sequenceMask)
+					&& (now == previousTime)) {
+				// Sequence exhausted: wait for the next millisecond.
+				Thread.yield();
+				continue;
+			} else {
+				// Same millisecond, or the clock went backward. Exhausting the
+				// sequence while the clock is behind carries into the next
+				// millisecond, which keeps the ids increasing.
+				state = previous + 1;
+			}
+			if (last.compareAndSet(previous, state)) {
+				return ((state >> sequenceBits) << LOW_BITS) | node
+						| (state & sequenceMask);
+			}
 		}
-		long id = (now << 16) | counter;
-		counter = (counter + 1) % SHORT_MAX;
-		return id;
+	}
+
+	/**
+	 * @return the number of bits of the sequence.
+	 */
+	public int getSequenceBits() {
+		return sequenceBits;
+	}
+
+	private long firstSequence() {
+		if (randomStart) {
+			return RANDOM.nextInt(1 << (sequenceBits - 1));
+		}
+		return 0;
+	}
+
+	long currentTimeMillis() {
+		return System.currentTimeMillis();
 	}
 }
@@ -0,0 +1,450 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * <p>
+ * Loads the read only columns of every table in a single
+ * DatabaseMetaData.getColumns pass. Once loaded, Bridge instances use this
+ * information instead of preparing a "SELECT *" query on their table to find
+ * its read only columns.
+ * </p>
+ * <p>
+ * Auto increment and generated columns are considered read only. Tables that
+ * were not loaded are still introspected by the Bridge itself. Tables are
+ * known by name only: unless a schema is given, only the current schema of
+ * the connection is loaded, and a table name found in several of the loaded
+ * schemas is left out.
+ * </p>
+ * <p>
+ * The warmUp methods combine the schema introspection with a scan of the
+ * entity classes of a package and build all their descriptors in parallel,
+ * typically once at application startup.
+ * </p>
+ *
+ * @author Jean-Philippe Gravel
+ */
+public final class SchemaIntrospector {
+
+	private static ConcurrentMap<String, Set<String>> tables;
+
+	static {
+		tables = new ConcurrentHashMap<String, Set<String>>();
+	}
+
+	/**
+	 * This utility class cannot be instanciated.
+	 */
+	private SchemaIntrospector() {
+	}
+
+	/**
+	 * Loads the read only columns of the tables of the current schema of the
+	 * default connection of the Connector.
+	 *
+	 * @return the number of tables loaded.
+	 *
+	 * @throws SQLException
+	 *             if the database meta data cannot be read.
+	 */
+	public static int load() throws SQLException {
+		Connection connection = Connector.openConnection();
+		try {
+			return load(connection, null);
+		} finally {
+			Connector.closeConnection();
+		}
+	}
+
+	/**
+	 * Loads the read only columns of the tables of the current schema of the
+	 * given connection.
+	 *
+	 * @param connection
+	 *            the connection to the database.
+	 *
+	 * @return the number of tables loaded.
+	 *
+	 * @throws SQLException
+	 *             if the database meta data cannot be read.
+	 */
+	public static int load(Connection connection) throws SQLException {
+		return load(connection, null);
+	}
+
+	/**
+	 * Loads the read only columns of the tables of the given schemas.
+	 *
+	 * @param connection
+	 *            the connection to the database.
+	 * @param schemaPattern
+	 *            a DatabaseMetaData schema name pattern or null to load the
+	 *            current schema of the connection.
+	 *
+	 * @return the number of tables loaded.
+	 *
+	 * @throws SQLException
+	 *             if the database meta data cannot be read.
+	 */
+	public static int load(Connection connection, String schemaPattern)
+			throws SQLException {
+		Util.throwIfNull(connection, "connection");
+
+		DatabaseMetaData metaData = connection.getMetaData();
+		String catalog = null;
+		if (schemaPattern == null) {
+			catalog = connection.getCatalog();
+			schemaPattern = getCurrentSchemaPattern(connection);
+		}
+		ResultSet rs = metaData.getColumns(catalog, schemaPattern, "%", "%");
+
+		Map<String, Set<String>> loaded = new HashMap<String, Set<String>>();
+		Map<String, String> schemas = new HashMap<String, String>();
+		Set<String> ambiguous = new HashSet<String>();
+		try {
+			Set<String> labels = getColumnLabels(rs.getMetaData());
+			boolean hasAutoIncrement = labels.contains("IS_AUTOINCREMENT");
+			boolean hasGenerated = labels.contains("IS_GENERATEDCOLUMN");
+
+			while (rs.next()) {
+				String table = rs.getString("TABLE_NAME").toLowerCase();
+				String schema = rs.getString("TABLE_SCHEM");
+				if (!schemas.containsKey(table)) {
+					schemas.put(table, schema);
+				} else if (!same(schemas.get(table), schema)) {
+					ambiguous.add(table);
+				}
+				Set<String> roCols = loaded.get(table);
+				if (roCols == null) {
+					roCols = new HashSet<String>();
+					loaded.put(table, roCols);
+				}
+
+				boolean readOnly = false;
+				if (hasAutoIncrement) {
+					readOnly = "YES".equals(rs.getString("IS_AUTOINCREMENT"));
+				}
+				if (!readOnly && hasGenerated) {
+					readOnly = "YES".equals(rs.getString("IS_GENERATEDCOLUMN"));
+				}
+				if (readOnly) {
+					roCols.add(rs.getString("COLUMN_NAME"));
+				}
+			}
+		} finally {
+			rs.close();
+		}
+
+		loaded.keySet().removeAll(ambiguous);
+		tables.putAll(loaded);
+		return loaded.size();
+	}
+
+	private static boolean same(String a, String b) {
+		return (a == null) ? (b == null) : a.equals(b);
+	}
+
+	// The current schema of the connection escaped as a schema pattern, null
+	// if the database has no schemas. Drivers older than JDBC 4.1 use the
+	// user name as their default schema.
+	private static String getCurrentSchemaPattern(Connection connection)
+			throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		String schema;
+		try {
+			schema = connection.getSchema();
+		} catch (AbstractMethodError e) {
+			schema = getUserSchema(metaData);
+		} catch (SQLFeatureNotSupportedException e) {
+			schema = getUserSchema(metaData);
+		}
+		if (schema == null) {
+			return null;
+		}
+
+		String escape = metaData.getSearchStringEscape();
+		if ((escape == null) || escape.isEmpty()) {
+			return schema;
+		}
+		return schema.replace(escape, escape + escape)
+				.replace("_", escape + "_").replace("%", escape + "%");
+	}
+
+	private static String getUserSchema(DatabaseMetaData metaData)
+			throws SQLException {
+		String user = metaData.getUserName();
+		if (user == null) {
+			return null;
+		} else if (metaData.storesUpperCaseIdentifiers()) {
+			return user.toUpperCase();
+		} else if (metaData.storesLowerCaseIdentifiers()) {
+			return user.toLowerCase();
+		}
+		return user;
+	}
+
+	private static Set<String> getColumnLabels(ResultSetMetaData metaData)
+			throws SQLException {
+		Set<String> labels = new HashSet<String>();
+		for (int i = 1; i <= metaData.getColumnCount(); i++) {
+			labels.add(metaData.getColumnLabel(i).toUpperCase());
+		}
+		return labels;
+	}
+
+	/**
+	 * Gets the read only columns of the given table.
+	 *
+	 * @param tableName
+	 *            the name of the table.
+	 *
+	 * @return the read only columns of the table or null if the table has not
+	 *         been loaded.
+	 */
+	public static Set<String> getReadOnlyColumns(String tableName) {
+		Util.throwIfNull(tableName, "tableName");
+		return tables.get(tableName.toLowerCase());
+	}
+
+	/**
+	 * Tells if the given table has been loaded.
+	 *
+	 * @param tableName
+	 *            the name of the table.
+	 *
+	 * @return true if the table read only columns are known.
+	 */
+	public static boolean isLoaded(String tableName) {
+		return getReadOnlyColumns(tableName) != null;
+	}
+
+	/**
+	 * Forgets every loaded table.
+	 */
+	public static void clear() {
+		tables.clear();
+	}
+
+	/**
+	 * Loads the schema through the given connection, then finds the entity
+	 * classes of the given package and builds their descriptors in parallel.
+	 *
+	 * @param connection
+	 *            the connection to the database.
+	 * @param packageName
+	 *            the package containing the entity classes, sub packages
+	 *            included.
+	 *
+	 * @return the descriptors built.
+	 *
+	 * @throws SQLException
+	 *             if the database meta data cannot be read.
+	 * @throws IOException
+	 *             if the package cannot be scanned.
+	 */
+	public static List<SqlDescriptor> warmUp(Connection connection,
+			String packageName) throws SQLException, IOException {
+		load(connection);
+		return warmUp(scanPackage(packageName));
+	}
+
+	/**
+	 * Builds the descriptors of the given types in parallel. The queries of
+	 * the descriptors whose table has been loaded are initialized as well.
+	 * Types without a guessable primary key ("id" or "{TableName}Id") are
+	 * left out of the returned list.
+	 *
+	 * @param types
+	 *            the entity types.
+	 *
+	 * @return the descriptors built.
+	 */
+	public static List<SqlDescriptor> warmUp(Collection<Class<?>> types) {
+		Util.throwIfNull(types, "types");
+
+		int threads = Math.max(1, Math.min(types.size(), Runtime
+				.getRuntime().availableProcessors()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<SqlDescriptor>> futures =
+					new ArrayList<Future<SqlDescriptor>>();
+			for (final Class<?> type : types) {
+				futures.add(executor.submit(new Callable<SqlDescriptor>() {
+					public SqlDescriptor call() {
+						return describe(type);
+					}
+				}));
+			}
+
+			List<SqlDescriptor> descriptors = new ArrayList<SqlDescriptor>();
+			for (Future<SqlDescriptor> future : futures) {
+				SqlDescriptor descriptor = future.get();
+				if (descriptor.getPrimaryKey() != null) {
+					descriptors.add(descriptor);
+				}
+			}
+			return descriptors;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UnexpectedException("Descriptor warm up interrupted.", e);
+		} catch (ExecutionException e) {
+			throw new UnexpectedException("Unable to build a descriptor.",
+					e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static SqlDescriptor describe(Class<?> type) {
+		SqlDescriptor descriptor = SqlDescriptor.getInstance(type);
+		if ((descriptor.getPrimaryKey() != null)
+				&& (descriptor.getReadOnlyColumns() == null)) {
+			Set<String> roCols = getReadOnlyColumns(descriptor.getTableName());
+			if (roCols != null) {
+				descriptor.initializeQueries(roCols);
+			}
+		}
+		return descriptor;
+	}
+
+	/**
+	 * Finds the entity classes of the given package and of its sub packages.
+	 * Entity classes are concrete top level classes having a public
+	 * parameterless constructor.
+	 *
+	 * @param packageName
+	 *            the package to scan.
+	 *
+	 * @return the entity classes found.
+	 *
+	 * @throws IOException
+	 *             if the package cannot be scanned.
+	 */
+	public static List<Class<?>> scanPackage(String packageName)
+			throws IOException {
+		Util.throwIfNullOrEmpty(packageName, "packageName");
+
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		if (loader == null) {
+			loader = SchemaIntrospector.class.getClassLoader();
+		}
+
+		String path = packageName.replace('.', '/');
+		Set<String> classNames = new HashSet<String>();
+		Enumeration<URL> resources = loader.getResources(path);
+		while (resources.hasMoreElements()) {
+			URL url = resources.nextElement();
+			if ("jar".equals(url.getProtocol())) {
+				scanJar(url, path, classNames);
+			} else if ("file".equals(url.getProtocol())) {
+				File directory = new File(URLDecoder.decode(url.getPath(),
+						"UTF-8"));
+				scanDirectory(directory, packageName, classNames);
+			}
+		}
+
+		List<Class<?>> types = new ArrayList<Class<?>>();
+		for (String className : classNames) {
+			try {
+				Class<?> type = Class.forName(className, false, loader);
+				if (isEntity(type)) {
+					types.add(type);
+				}
+			} catch (ClassNotFoundException e) {
+				throw new UnexpectedException("Unable to load " + className
+						+ ".", e);
+			} catch (LinkageError e) {
+				// Classes depending on missing libraries are not entities.
+				continue;
+			}
+		}
+		return types;
+	}
+
+	private static void scanDirectory(File directory, String packageName,
+			Set<String> classNames) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isDirectory()) {
+				scanDirectory(file, packageName + "." + name, classNames);
+			} else if (name.endsWith(".class") && (name.indexOf('$') < 0)) {
+				classNames.add(packageName + "."
+						+ name.substring(0, name.length() - 6));
+			}
+		}
+	}
+
+	private static void scanJar(URL url, String path, Set<String> classNames)
+			throws IOException {
+		JarURLConnection connection = (JarURLConnection) url.openConnection();
+		JarFile jar = connection.getJarFile();
+		Enumeration<JarEntry> entries = jar.entries();
+		while (entries.hasMoreElements()) {
+			String name = entries.nextElement().getName();
+			if (name.startsWith(path + "/") && name.endsWith(".class")
+					&& (name.indexOf('$') < 0)) {
+				classNames.add(name.substring(0, name.length() - 6).replace(
+						'/', '.'));
+			}
+		}
+	}
+
+	private static boolean isEntity(Class<?> type) {
+		if (type.isInterface() || type.isEnum() || type.isAnnotation()
+				|| Modifier.isAbstract(type.getModifiers())) {
+			return false;
+		}
+		try {
+			type.getConstructor();
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+		return true;
+	}
+}
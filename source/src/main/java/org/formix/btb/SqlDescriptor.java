@@ -16,7 +16,10 @@ package org.formix.btb;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
@@ -25,37 +28,177 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SqlDescriptor {
 
-	private static HashMap<Class<?>, SqlDescriptor> cache;
+	/**
+	 * The name of the property used as version column for optimistic
+	 * concurrency, case insensitive.
+	 */
+	public static final String VERSION_PROPERTY = "version";
 
+	private static ConcurrentMap<DescriptorKey, SqlDescriptor> cache;
+	private static AtomicLong cacheHits;
+	private static AtomicLong cacheMisses;
+
+	/**
+	 * Gets the descriptor of the given type. Descriptors are built once per
+	 * type and set of ignored properties and then shared by every Bridge and
+	 * Query working on that type.
+	 * 
+	 * @param type
+	 *            the type to describe.
+	 * 
+	 * @param ignoredProperties
+	 *            the properties that are not persisted.
+	 * 
+	 * @return the shared descriptor of the given type.
+	 * 
+	 * @throws PrimaryKeyNotFoundException
+	 *             if the primary key of the type cannot be found.
+	 */
 	public static SqlDescriptor getInstance(Class<?> type,
 			String... ignoredProperties) throws PrimaryKeyNotFoundException {
 
-		Set<Object> key = new HashSet<Object>();
-		key.add(type);
-		Collections.addAll(key, ignoredProperties);
+		Util.throwIfNull(type, "type");
+		DescriptorKey key = new DescriptorKey(type, ignoredProperties);
 
 		// If the current type is found in the cache, we return it.
-		if (cache.containsKey(key)) {
-			return cache.get(key);
+		SqlDescriptor descriptor = cache.get(key);
+		if (descriptor != null) {
+			cacheHits.incrementAndGet();
+			return descriptor;
+		}
+
+		cacheMisses.incrementAndGet();
+		descriptor = new SqlDescriptor(type, ignoredProperties);
+		SqlDescriptor existing = cache.putIfAbsent(key, descriptor);
+		if (existing != null) {
+			// Another thread built the same descriptor in the meantime.
+			return existing;
+		}
+		return descriptor;
+	}
+
+	/**
+	 * Builds the descriptors of the given types ahead of time so that the
+	 * first Bridge or Query created for each of them does not pay for the
+	 * reflective scan.
+	 * 
+	 * @param types
+	 *            the entity types to describe.
+	 */
+	public static void warmUp(Class<?>... types) {
+		Util.throwIfNull(types, "types");
+		for (Class<?> type : types) {
+			getInstance(type);
 		}
+	}
+
+	/**
+	 * Builds the descriptors of the given types ahead of time.
+	 * 
+	 * @param types
+	 *            the entity types to describe.
+	 * 
+	 * @see #warmUp(Class...)
+	 */
+	public static void warmUp(Collection<Class<?>> types) {
+		Util.throwIfNull(types, "types");
+		warmUp(types.toArray(new Class<?>[types.size()]));
+	}
+
+	/**
+	 * @return the number of descriptors found in the cache.
+	 */
+	public static long getCacheHitCount() {
+		return cacheHits.get();
+	}
+
+	/**
+	 * @return the number of descriptors that had to be built.
+	 */
+	public static long getCacheMissCount() {
+		return cacheMisses.get();
+	}
 
-		return new SqlDescriptor(type, ignoredProperties);
+	/**
+	 * @return the number of descriptors currently cached.
+	 */
+	public static int getCacheSize() {
+		return cache.size();
+	}
+
+	/**
+	 * Removes every cached descriptor and resets the cache counters. The
+	 * next call to getInstance will rebuild the descriptors, including the
+	 * read only columns fetched from the database.
+	 */
+	public static void clearCache() {
+		cache.clear();
+		cacheHits.set(0);
+		cacheMisses.set(0);
 	}
 
 	static {
-		cache = new HashMap<Class<?>, SqlDescriptor>();
+		cache = new ConcurrentHashMap<DescriptorKey, SqlDescriptor>();
+		cacheHits = new AtomicLong(0);
+		cacheMisses = new AtomicLong(0);
+	}
+
+	/**
+	 * Identifies a descriptor by its type and its ignored properties.
+	 */
+	private static final class DescriptorKey {
+
+		private final Class<?> type;
+		private final Set<String> ignoredProperties;
+
+		public DescriptorKey(Class<?> type, String[] ignoredProperties) {
+			this.type = type;
+			this.ignoredProperties = new HashSet<String>();
+			Collections.addAll(this.ignoredProperties, ignoredProperties);
+		}
+
+		@Override
+		public int hashCode() {
+			return type.hashCode() * 31 + ignoredProperties.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof DescriptorKey)) {
+				return false;
+			}
+			DescriptorKey other = (DescriptorKey) obj;
+			return (other.type == type)
+					&& other.ignoredProperties.equals(ignoredProperties);
+		}
 	}
 
 	private Class<?> type;
 	private HashMap<String, Method> accessors;
 	private HashMap<String, Method> mutators;
+	private HashMap<String, PropertyAccessor> properties;
+	private ConcurrentMap<String, RowMapper> rowMappers;
+	private ConcurrentMap<BitSet, String> partialUpdateQueries;
+	private ConcurrentMap<Dialect, String> upsertQueries;
+	private ConcurrentMap<String, List<String>> propertyGroups;
+	private volatile ChangeTracker changeTracker;
+	private volatile LoadTracker loadTracker;
+	private volatile KeyGenerator keyGenerator;
 	private List<String> columns;
-	private Set<String> readOnlyColumns;
+	private volatile Set<String> readOnlyColumns;
+	private PropertyAccessor[] insertAccessors;
+	private PropertyAccessor[] updateAccessors;
+	private String versionColumn;
+	private int versionIndex;
 	private Set<String> ignoredProperties;
 	private String tableName;
 	private String primaryKey;
@@ -70,25 +213,204 @@ public class SqlDescriptor {
 		this.type = type;
 		this.ignoredProperties = new HashSet<String>();
 		Collections.addAll(this.ignoredProperties, ignoredProperties);
-		initialize();
+		this.rowMappers = new ConcurrentHashMap<String, RowMapper>();
+		this.partialUpdateQueries = new ConcurrentHashMap<BitSet, String>();
+		this.upsertQueries = new ConcurrentHashMap<Dialect, String>();
+		this.propertyGroups = new ConcurrentHashMap<String, List<String>>();
+		HashMap<String, Method> accessors = getColumnMethodMap("get",
+				this.type);
+		accessors.putAll(getColumnMethodMap("is", this.type));
+		initialize(accessors, getColumnMethodMap("set", this.type));
 	}
 
-	private void initialize() {
+	private SqlDescriptor(Class<?> type, String[] ignoredProperties,
+			Map<String, Method> accessors, Map<String, Method> mutators) {
+		this.type = type;
+		this.ignoredProperties = new HashSet<String>();
+		Collections.addAll(this.ignoredProperties, ignoredProperties);
+		this.rowMappers = new ConcurrentHashMap<String, RowMapper>();
+		this.partialUpdateQueries = new ConcurrentHashMap<BitSet, String>();
+		this.upsertQueries = new ConcurrentHashMap<Dialect, String>();
+		this.propertyGroups = new ConcurrentHashMap<String, List<String>>();
+		initialize(new HashMap<String, Method>(accessors),
+				new HashMap<String, Method>(mutators));
+	}
+
+	private void initialize(HashMap<String, Method> accessors,
+			HashMap<String, Method> mutators) {
 		tableName = findTableName(this.type);
-		accessors = getColumnMethodMap("get", this.type);
-		accessors.putAll(getColumnMethodMap("is", this.type));
-		mutators = getColumnMethodMap("set", this.type);
+		this.accessors = accessors;
+		this.mutators = mutators;
 		primaryKey = guessPrimayKey(tableName);
 		columns = createColumnList(accessors, mutators);
+		properties = createPropertyMap(columns);
+	}
+
+	/**
+	 * Recreates a descriptor from previously resolved get/set methods and
+	 * read only columns, skipping the reflective scan of the type hierarchy
+	 * and the database introspection. The descriptor is registered in the
+	 * cache unless a descriptor already exists for the same key.
+	 * 
+	 * @param type
+	 *            the described type.
+	 * @param ignoredProperties
+	 *            the properties that are not persisted.
+	 * @param accessors
+	 *            the read methods by property name.
+	 * @param mutators
+	 *            the write methods by property name.
+	 * @param roCols
+	 *            the read only columns.
+	 * 
+	 * @return the cached descriptor.
+	 */
+	static SqlDescriptor restore(Class<?> type, String[] ignoredProperties,
+			Map<String, Method> accessors, Map<String, Method> mutators,
+			Set<String> roCols) {
+		SqlDescriptor descriptor = new SqlDescriptor(type, ignoredProperties,
+				accessors, mutators);
+		descriptor.initializeQueries(roCols);
+		SqlDescriptor existing = cache.putIfAbsent(new DescriptorKey(type,
+				ignoredProperties), descriptor);
+		if (existing != null) {
+			return existing;
+		}
+		return descriptor;
+	}
+
+	/**
+	 * @return the cached descriptors.
+	 */
+	static Collection<SqlDescriptor> getCachedInstances() {
+		return Collections.unmodifiableCollection(cache.values());
+	}
+
+	/**
+	 * @return the read methods by property name.
+	 */
+	Map<String, Method> getAccessorMethods() {
+		return Collections.unmodifiableMap(accessors);
+	}
+
+	/**
+	 * @return the write methods by property name.
+	 */
+	Map<String, Method> getMutatorMethods() {
+		return Collections.unmodifiableMap(mutators);
+	}
+
+	private HashMap<String, PropertyAccessor> createPropertyMap(
+			List<String> columns) {
+		HashMap<String, PropertyAccessor> map =
+				new HashMap<String, PropertyAccessor>();
+		for (String column : columns) {
+			map.put(column, PropertyAccessor.create(column,
+					accessors.get(column), mutators.get(column)));
+		}
+		return map;
 	}
 
 	public void initializeQueries(Set<String> roCols) {
 		Util.throwIfNull(roCols, "roCols");
-		this.readOnlyColumns = translateColumns(roCols);
+		Set<String> translatedCols = translateColumns(roCols);
+		insertAccessors = createInsertAccessors(translatedCols);
+		versionIndex = findVersionIndex();
+		versionColumn = versionIndex < 0 ? null
+				: insertAccessors[versionIndex].getName();
+		updateAccessors = createUpdateAccessors();
 		selectQuery = createSelectQuery();
-		insertQuery = createInsertQuery(readOnlyColumns);
-		updateQuery = createUpdateQuery(readOnlyColumns);
+		insertQuery = createInsertQuery(translatedCols);
+		updateQuery = createUpdateQuery(translatedCols);
 		deleteQuery = createDeleteQuery();
+
+		// Published last: a non null value tells other threads that the
+		// queries are ready.
+		this.readOnlyColumns = translatedCols;
+	}
+
+	private PropertyAccessor[] createInsertAccessors(
+			Set<String> readOnlyColumns) {
+		List<PropertyAccessor> list = new ArrayList<PropertyAccessor>();
+		for (String column : columns) {
+			if (readOnlyColumns.contains(column)
+					|| this.ignoredProperties.contains(column)) {
+				continue;
+			}
+			list.add(properties.get(column));
+		}
+		return list.toArray(new PropertyAccessor[list.size()]);
+	}
+
+	/**
+	 * Gets the accessors of the columns written by the insert query, in the
+	 * order of its parameters.
+	 * 
+	 * @return the accessors of the written columns.
+	 */
+	PropertyAccessor[] getInsertAccessors() {
+		return insertAccessors;
+	}
+
+	/**
+	 * Gets the accessors of the columns assigned by the update query, in the
+	 * order of its parameters. The version column, incremented by the query
+	 * itself, is left out.
+	 * 
+	 * @return the accessors of the assigned columns.
+	 */
+	PropertyAccessor[] getUpdateAccessors() {
+		return updateAccessors;
+	}
+
+	// The version column is a writable int, long or short property named
+	// "version" which is not the primary key.
+	private int findVersionIndex() {
+		for (int i = 0; i < insertAccessors.length; i++) {
+			PropertyAccessor accessor = insertAccessors[i];
+			if (!accessor.getName().equalsIgnoreCase(VERSION_PROPERTY)
+					|| accessor.getName().equals(primaryKey)
+					|| !accessor.isReadable() || !accessor.isWritable()) {
+				continue;
+			}
+			ColumnType type = accessor.getBindType();
+			if ((type == ColumnType.INT) || (type == ColumnType.LONG)
+					|| (type == ColumnType.SHORT)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private PropertyAccessor[] createUpdateAccessors() {
+		if (versionIndex < 0) {
+			return insertAccessors;
+		}
+		PropertyAccessor[] accessors = new PropertyAccessor[
+				insertAccessors.length - 1];
+		System.arraycopy(insertAccessors, 0, accessors, 0, versionIndex);
+		System.arraycopy(insertAccessors, versionIndex + 1, accessors,
+				versionIndex, accessors.length - versionIndex);
+		return accessors;
+	}
+
+	/**
+	 * Gets the version column, used for optimistic concurrency. Update
+	 * queries increment it and only match rows still having the version of
+	 * the item.
+	 * 
+	 * @return the version column or null if the type has none.
+	 */
+	public String getVersionColumn() {
+		return versionColumn;
+	}
+
+	/**
+	 * @return the position of the version column in the insert accessors
+	 *         array, -1 if the type has none.
+	 */
+	int getVersionIndex() {
+		return versionIndex;
 	}
 
 	private Set<String> translateColumns(Set<String> readOnlyColumns) {
@@ -302,7 +624,8 @@ public class SqlDescriptor {
 		for (String column : columns) {
 
 			if (readOnlyColumns.contains(column)
-					|| this.ignoredProperties.contains(column)) {
+					|| this.ignoredProperties.contains(column)
+					|| column.equals(versionColumn)) {
 				continue;
 			}
 
@@ -314,7 +637,18 @@ public class SqlDescriptor {
 			first = false;
 		}
 
-		return query + " WHERE " + primaryKey + " = ?";
+		return query + createVersionClause(first);
+	}
+
+	// Increments the version and adds the version condition, if any, after
+	// the assignments.
+	private String createVersionClause(boolean noAssignment) {
+		if (versionColumn == null) {
+			return " WHERE " + primaryKey + " = ?";
+		}
+		return (noAssignment ? "" : ", ") + versionColumn + " = "
+				+ versionColumn + " + 1 WHERE " + primaryKey + " = ? AND "
+				+ versionColumn + " = ?";
 	}
 
 	public String getDeleteQuery() {
@@ -334,30 +668,64 @@ public class SqlDescriptor {
 		Util.throwIfNull(item, "item");
 		Util.throwIfNullOrEmpty(property, "property");
 
-		Method m = mutators.get(property);
+		assign(getWritableAccessor(property), item, value);
+	}
 
-		// Code to support calendar properties.
-		Object valueToAssign = value;
-		if (valueToAssign instanceof Date) {
-			Date date = (Date) valueToAssign;
-			Class<?> paramType = m.getParameterTypes()[0];
-			if (Calendar.class.isAssignableFrom(paramType)) {
-				Calendar cal = Calendar.getInstance();
-				cal.setTimeInMillis(date.getTime());
-				valueToAssign = cal;
-			}
-		}
+	/**
+	 * Assigns a value to an item using the given accessor. Date values are
+	 * converted when assigned to Calendar properties.
+	 * 
+	 * @param accessor
+	 *            the accessor of the property to assign.
+	 * @param item
+	 *            the item to modify.
+	 * @param value
+	 *            the value to assign.
+	 */
+	void assign(PropertyAccessor accessor, Object item, Object value) {
 
 		try {
-			m.invoke(item, valueToAssign);
+			accessor.set(item, toAssignable(accessor, value));
 		} catch (Exception e) {
-			Class<?> paramType = m.getParameterTypes()[0];
-			String msg = e.getMessage() + " : " + "Class: "
-					+ item.getClass().getName() + ", Method: " + m.getName()
-					+ "(" + paramType.getName() + "), Received: " + value
-					+ " (" + value.getClass().getName() + ").";
-			throw new IllegalArgumentException(msg);
+			throw createAssignException(accessor, item, value, e);
+		}
+	}
+
+	/**
+	 * Converts a value read from the database to a value assignable to the
+	 * given property.
+	 * 
+	 * @param accessor
+	 *            the accessor of the property to assign.
+	 * @param value
+	 *            the value read from the database.
+	 * 
+	 * @return the value to assign.
+	 */
+	Object toAssignable(PropertyAccessor accessor, Object value) {
+
+		// Code to support calendar properties.
+		if (accessor.isCalendar() && (value instanceof Date)) {
+			Date date = (Date) value;
+			Calendar cal = Calendar.getInstance();
+			cal.setTimeInMillis(date.getTime());
+			return cal;
 		}
+		return value;
+	}
+
+	IllegalArgumentException createAssignException(PropertyAccessor accessor,
+			Object item, Object value, Exception e) {
+		String received = "null";
+		if (value != null) {
+			received = value + " (" + value.getClass().getName() + ")";
+		}
+		String msg = e.getMessage() + " : " + "Class: "
+				+ item.getClass().getName() + ", Method: "
+				+ accessor.getSetter().getName() + "("
+				+ accessor.getType().getName() + "), Received: " + received
+				+ ".";
+		return new IllegalArgumentException(msg);
 	}
 
 	protected Object getValue(Object item, String property) {
@@ -365,16 +733,11 @@ public class SqlDescriptor {
 		Util.throwIfNull(item, "item");
 		Util.throwIfNullOrEmpty(property, "property");
 
-		Method m = accessors.get(property);
-		if (m == null) {
-			throw new IllegalStateException(String.format(
-					"There is no accessor for the property [%s.%s].", this
-							.getType().getName(), property));
-		}
+		PropertyAccessor accessor = getReadableAccessor(property);
 
 		Object value = null;
 		try {
-			value = m.invoke(item, new Object[] {});
+			value = accessor.get(item);
 		} catch (InvocationTargetException e) {
 			throw new RuntimeException(e);
 		} catch (IllegalAccessException e) {
@@ -384,6 +747,241 @@ public class SqlDescriptor {
 		return value;
 	}
 
+	/**
+	 * Gets the accessor used to read and write the given property.
+	 * 
+	 * @param property
+	 *            the property name.
+	 * 
+	 * @return the property accessor or null if the property is not mapped.
+	 */
+	PropertyAccessor getAccessor(String property) {
+		return properties.get(property);
+	}
+
+	/**
+	 * Gets the row mapper compiled for the shape of a result set, its column
+	 * labels. The mapper is built on the first call and shared afterward by
+	 * every query returning the same columns, whatever its SQL text, so the
+	 * number of cached mappers is bounded by the number of distinct shapes
+	 * rather than by the number of distinct queries.
+	 * 
+	 * @param primaryKey
+	 *            the primary key used by the query, may be null.
+	 * @param metaData
+	 *            the result set meta data of the query.
+	 * 
+	 * @return the row mapper for the query.
+	 * 
+	 * @throws SQLException
+	 *             if the meta data cannot be read.
+	 */
+	RowMapper getRowMapper(String primaryKey, ResultSetMetaData metaData)
+			throws SQLException {
+		String[] labels = RowMapper.getLabels(metaData);
+		StringBuilder sb = new StringBuilder();
+		sb.append(primaryKey);
+		for (String label : labels) {
+			sb.append(',').append(label);
+		}
+		String key = sb.toString();
+		RowMapper mapper = rowMappers.get(key);
+		if ((mapper == null) || !mapper.matches(labels)) {
+			mapper = RowMapper.compile(this, primaryKey, metaData);
+			rowMappers.put(key, mapper);
+		}
+		return mapper;
+	}
+
+	/**
+	 * Gets the tracker keeping the loaded values of the items of this type.
+	 * The tracker is created on the first call.
+	 * 
+	 * @return the change tracker of this descriptor.
+	 */
+	ChangeTracker getChangeTracker() {
+		ChangeTracker tracker = changeTracker;
+		if (tracker == null) {
+			synchronized (this) {
+				tracker = changeTracker;
+				if (tracker == null) {
+					tracker = new ChangeTracker(this);
+					changeTracker = tracker;
+				}
+			}
+		}
+		return tracker;
+	}
+
+	/**
+	 * Tells if a change tracker has been created for this descriptor.
+	 * 
+	 * @return true if items of this type may be tracked.
+	 */
+	boolean hasChangeTracker() {
+		return changeTracker != null;
+	}
+
+	/**
+	 * Gets the tracker keeping the partially loaded items of this type. The
+	 * tracker is created on the first call.
+	 * 
+	 * @return the load tracker of this descriptor.
+	 */
+	LoadTracker getLoadTracker() {
+		LoadTracker tracker = loadTracker;
+		if (tracker == null) {
+			synchronized (this) {
+				tracker = loadTracker;
+				if (tracker == null) {
+					tracker = new LoadTracker(this);
+					loadTracker = tracker;
+				}
+			}
+		}
+		return tracker;
+	}
+
+	/**
+	 * Tells if a load tracker has been created for this descriptor.
+	 * 
+	 * @return true if items of this type may be partially loaded.
+	 */
+	boolean hasLoadTracker() {
+		return loadTracker != null;
+	}
+
+	/**
+	 * Defines a named group of properties, loaded together by queries using
+	 * property groups. Defining an existing group replaces it.
+	 * 
+	 * @param name
+	 *            the group name.
+	 * @param columns
+	 *            the properties of the group.
+	 */
+	void setPropertyGroup(String name, List<String> columns) {
+		propertyGroups.put(name,
+				Collections.unmodifiableList(new ArrayList<String>(columns)));
+	}
+
+	/**
+	 * Gets the properties of a named group.
+	 * 
+	 * @param name
+	 *            the group name.
+	 * 
+	 * @return the properties of the group or null if the group is not
+	 *         defined.
+	 */
+	List<String> getPropertyGroup(String name) {
+		return propertyGroups.get(name);
+	}
+
+	/**
+	 * Gets the generator assigning the primary key of new items on the client
+	 * side.
+	 * 
+	 * @return the key generator or null if the keys are not generated by the
+	 *         client.
+	 */
+	KeyGenerator getKeyGenerator() {
+		return keyGenerator;
+	}
+
+	/**
+	 * Sets the generator assigning the primary key of new items on the client
+	 * side.
+	 * 
+	 * @param keyGenerator
+	 *            the key generator or null to stop generating keys.
+	 */
+	void setKeyGenerator(KeyGenerator keyGenerator) {
+		this.keyGenerator = keyGenerator;
+	}
+
+	/**
+	 * Gets an update query writing only some of the columns of the update
+	 * query. Queries are generated once per set of columns.
+	 * 
+	 * @param changes
+	 *            the positions, in the insert accessors array, of the columns
+	 *            to write. Must not be empty nor contain the version column.
+	 * 
+	 * @return the update query of the given columns.
+	 */
+	String getUpdateQuery(BitSet changes) {
+		String query = partialUpdateQueries.get(changes);
+		if (query == null) {
+			StringBuilder sb = new StringBuilder("UPDATE ");
+			sb.append(getTableName()).append(" SET ");
+			boolean first = true;
+			for (int i = changes.nextSetBit(0); i >= 0; i = changes
+					.nextSetBit(i + 1)) {
+				if (!first) {
+					sb.append(", ");
+				}
+				sb.append(insertAccessors[i].getName()).append(" = ?");
+				first = false;
+			}
+			sb.append(createVersionClause(first));
+			query = sb.toString();
+			partialUpdateQueries.put((BitSet) changes.clone(), query);
+		}
+		return query;
+	}
+
+	/**
+	 * Gets the statement inserting an item or updating it if its key already
+	 * exists, for the given dialect. The statement parameters are the same as
+	 * the insert query parameters.
+	 * 
+	 * @param dialect
+	 *            the dialect of the database.
+	 * 
+	 * @return the upsert query or null if the dialect has no upsert statement,
+	 *         if the primary key is not written by the insert query or if the
+	 *         type has a version column.
+	 */
+	String getUpsertQuery(Dialect dialect) {
+		if (!dialect.supportsUpsert() || (primaryKey == null)
+				|| readOnlyColumns.contains(primaryKey)
+				|| (versionColumn != null)) {
+			return null;
+		}
+		String query = upsertQueries.get(dialect);
+		if (query == null) {
+			List<String> written = new ArrayList<String>();
+			for (PropertyAccessor accessor : insertAccessors) {
+				written.add(accessor.getName());
+			}
+			query = dialect.createUpsertQuery(getTableName(), primaryKey,
+					written);
+			upsertQueries.put(dialect, query);
+		}
+		return query;
+	}
+
+	PropertyAccessor getReadableAccessor(String property) {
+		PropertyAccessor accessor = properties.get(property);
+		if ((accessor == null) || !accessor.isReadable()) {
+			throw new IllegalStateException(String.format(
+					"There is no accessor for the property [%s.%s].", this
+							.getType().getName(), property));
+		}
+		return accessor;
+	}
+
+	PropertyAccessor getWritableAccessor(String property) {
+		PropertyAccessor accessor = properties.get(property);
+		if ((accessor == null) || !accessor.isWritable()) {
+			throw new IllegalStateException(String.format(
+					"There is no mutator for the property [%s.%s].", this
+							.getType().getName(), property));
+		}
+		return accessor;
+	}
+
 	public boolean isMutable(String property) {
 		return mutators.containsKey(property);
 	}
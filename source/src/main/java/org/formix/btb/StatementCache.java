@@ -0,0 +1,357 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A least recently used cache of the prepared statements of a connection.
+ * Statements handed out by the cache are proxies: closing them closes their
+ * open result set, clears their parameters and batch, restores the max rows,
+ * fetch size, fetch direction, max field size and query timeout set through
+ * the proxy, and gives them back to the cache instead of closing the driver
+ * statement. Their getConnection() returns the connection owning the cache.
+ * </p>
+ * <p>
+ * A statement in use is not in the cache, so preparing the same SQL twice
+ * before closing the first statement returns two distinct statements. The
+ * least recently used idle statement is closed when the cache is full.
+ * </p>
+ * <p>
+ * Instances are not thread safe, like the connection they belong to. The
+ * totals of all caches are kept in static counters.
+ * </p>
+ *
+ * @author Jean-Philippe Gravel
+ */
+class StatementCache {
+
+	private static final AtomicLong totalHits = new AtomicLong();
+	private static final AtomicLong totalMisses = new AtomicLong();
+
+	// The settings restored when a statement is given back.
+	private static final String[] SETTINGS = { "MaxRows", "FetchSize",
+			"FetchDirection", "MaxFieldSize", "QueryTimeout" };
+
+	private final Connection connection;
+	private final int maxSize;
+	private final LinkedHashMap<String, PreparedStatement> idle;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Creates a statement cache.
+	 *
+	 * @param connection
+	 *            the connection returned by the getConnection() method of the
+	 *            cached statements.
+	 * @param maxSize
+	 *            the maximum number of idle statements kept.
+	 */
+	public StatementCache(Connection connection, int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException(
+					"The statement cache size must be greater than zero.");
+		}
+		this.connection = connection;
+		this.maxSize = maxSize;
+		this.idle = new LinkedHashMap<String, PreparedStatement>(16, 0.75f,
+				true);
+		this.hits = 0;
+		this.misses = 0;
+	}
+
+	/**
+	 * Builds the cache key of a statement.
+	 *
+	 * @param sql
+	 *            the SQL of the statement.
+	 * @param options
+	 *            the prepareStatement options, like the auto generated keys
+	 *            flag or the result set type and concurrency.
+	 *
+	 * @return the cache key.
+	 */
+	public static String key(String sql, int... options) {
+		StringBuilder sb = new StringBuilder();
+		for (int option : options) {
+			sb.append(option).append(':');
+		}
+		return sb.append(sql).toString();
+	}
+
+	/**
+	 * Removes an idle statement from the cache.
+	 *
+	 * @param key
+	 *            the statement key.
+	 *
+	 * @return a proxy of the cached statement or null if there is no idle
+	 *         statement for the key.
+	 */
+	public PreparedStatement take(String key) {
+		PreparedStatement stmt = idle.remove(key);
+		if (stmt == null) {
+			misses++;
+			totalMisses.incrementAndGet();
+			return null;
+		}
+		hits++;
+		totalHits.incrementAndGet();
+		return wrap(key, stmt);
+	}
+
+	/**
+	 * Wraps a newly prepared statement so that closing it gives it back to
+	 * the cache.
+	 *
+	 * @param key
+	 *            the statement key.
+	 * @param stmt
+	 *            the driver statement.
+	 *
+	 * @return the statement proxy.
+	 */
+	public PreparedStatement wrap(String key, PreparedStatement stmt) {
+		return (PreparedStatement) Proxy.newProxyInstance(
+				PreparedStatement.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class },
+				new CachedStatementHandler(key, stmt));
+	}
+
+	private void release(String key, PreparedStatement stmt,
+			Map<String, Integer> settings) throws SQLException {
+		if (stmt.isClosed()) {
+			return;
+		}
+		try {
+			ResultSet rs = stmt.getResultSet();
+			if (rs != null) {
+				rs.close();
+			}
+			stmt.clearParameters();
+			stmt.clearBatch();
+			if (settings != null) {
+				// Max rows first: some drivers check the fetch size against it.
+				for (String setting : SETTINGS) {
+					if (settings.containsKey(setting)) {
+						setSetting(stmt, setting, settings.get(setting));
+					}
+				}
+			}
+		} catch (SQLException e) {
+			stmt.close();
+			throw e;
+		}
+
+		PreparedStatement previous = idle.put(key, stmt);
+		if (previous != null) {
+			// Another statement with the same SQL was released first.
+			previous.close();
+		}
+		if (idle.size() > maxSize) {
+			String eldest = idle.keySet().iterator().next();
+			idle.remove(eldest).close();
+		}
+	}
+
+	/**
+	 * Closes every idle statement.
+	 *
+	 * @throws SQLException
+	 *             if a statement cannot be closed.
+	 */
+	public void close() throws SQLException {
+		List<PreparedStatement> statements = new ArrayList<PreparedStatement>(
+				idle.values());
+		idle.clear();
+		SQLException error = null;
+		for (PreparedStatement stmt : statements) {
+			try {
+				stmt.close();
+			} catch (SQLException e) {
+				error = e;
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * @return the maximum number of idle statements kept.
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the number of idle statements.
+	 */
+	public int getSize() {
+		return idle.size();
+	}
+
+	/**
+	 * @return the number of statements served from this cache.
+	 */
+	public long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of statements prepared by the driver for this cache.
+	 */
+	public long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of statements served from all the caches.
+	 */
+	public static long getTotalHitCount() {
+		return totalHits.get();
+	}
+
+	/**
+	 * @return the number of statements prepared by the driver for all the
+	 *         caches.
+	 */
+	public static long getTotalMissCount() {
+		return totalMisses.get();
+	}
+
+	/**
+	 * Resets the counters of all the caches.
+	 */
+	public static void resetTotals() {
+		totalHits.set(0);
+		totalMisses.set(0);
+	}
+
+	// Returns the name of the setting changed by the given method, or null.
+	private static String findSetting(Method method) {
+		if (method.getParameterTypes().length == 1) {
+			for (String setting : SETTINGS) {
+				if (method.getName().equals("set" + setting)) {
+					return setting;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static int getSetting(PreparedStatement stmt, String setting)
+			throws SQLException {
+		if ("MaxRows".equals(setting)) {
+			return stmt.getMaxRows();
+		} else if ("FetchSize".equals(setting)) {
+			return stmt.getFetchSize();
+		} else if ("FetchDirection".equals(setting)) {
+			return stmt.getFetchDirection();
+		} else if ("MaxFieldSize".equals(setting)) {
+			return stmt.getMaxFieldSize();
+		}
+		return stmt.getQueryTimeout();
+	}
+
+	private static void setSetting(PreparedStatement stmt, String setting,
+			int value) throws SQLException {
+		if ("MaxRows".equals(setting)) {
+			stmt.setMaxRows(value);
+		} else if ("FetchSize".equals(setting)) {
+			stmt.setFetchSize(value);
+		} else if ("FetchDirection".equals(setting)) {
+			stmt.setFetchDirection(value);
+		} else if ("MaxFieldSize".equals(setting)) {
+			stmt.setMaxFieldSize(value);
+		} else {
+			stmt.setQueryTimeout(value);
+		}
+	}
+
+	private class CachedStatementHandler implements InvocationHandler {
+
+		private final String key;
+		private final PreparedStatement stmt;
+		private boolean closed;
+		// The values of the settings changed through the proxy, as they were
+		// when the statement was handed out.
+		private Map<String, Integer> settings;
+
+		public CachedStatementHandler(String key, PreparedStatement stmt) {
+			this.key = key;
+			this.stmt = stmt;
+			this.closed = false;
+			this.settings = null;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			String name = method.getName();
+			if ("close".equals(name)
+					&& (method.getParameterTypes().length == 0)) {
+				if (!closed) {
+					closed = true;
+					release(key, stmt, settings);
+				}
+				return null;
+			} else if ("isClosed".equals(name)) {
+				return closed || stmt.isClosed();
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("toString".equals(name)) {
+				return "Cached " + stmt;
+			}
+
+			if (closed) {
+				throw new SQLException("The statement is closed.");
+			}
+			if ("getConnection".equals(name)) {
+				return connection;
+			}
+			String setting = findSetting(method);
+			if (setting != null) {
+				if (settings == null) {
+					settings = new HashMap<String, Integer>();
+				}
+				if (!settings.containsKey(setting)) {
+					settings.put(setting, getSetting(stmt, setting));
+				}
+			}
+			try {
+				return method.invoke(stmt, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
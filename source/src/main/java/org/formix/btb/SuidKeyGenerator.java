@@ -0,0 +1,64 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not 
+ * use this file except in compliance with the License. You may obtain a copy 
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+/**
+ * Generates 64 bits keys with SUID. The primary key column must be a BIGINT
+ * (or any type able to hold a long value) that is not generated by the
+ * database.
+ * <p>
+ * When several processes insert in the same tables, give each of them a
+ * distinct node id. Without node bits, the keys of different processes only
+ * differ by a random sequence start and may collide. Within a process,
+ * generators sharing a node id must be a single instance.
+ * </p>
+ * 
+ * @author Jean-Philippe Gravel
+ */
+public class SuidKeyGenerator implements KeyGenerator {
+
+	private final SUID suid;
+
+	/**
+	 * Creates a generator without node bits, sharing the default SUID
+	 * sequence of the process.
+	 */
+	public SuidKeyGenerator() {
+		this.suid = null;
+	}
+
+	/**
+	 * Creates a generator for the given node.
+	 * 
+	 * @param nodeId
+	 *            the id of the node, between 0 and 2^nodeBits - 1.
+	 * @param nodeBits
+	 *            the number of bits of the node id, between 0 and 15. Each
+	 *            node can generate 2^(16 - nodeBits) keys per millisecond.
+	 */
+	public SuidKeyGenerator(int nodeId, int nodeBits) {
+		this.suid = new SUID(nodeId, nodeBits);
+	}
+
+	/**
+	 * @return a new SUID.
+	 */
+	public Object nextKey(SqlDescriptor descriptor) {
+		if (suid == null) {
+			return SUID.nextId();
+		}
+		return suid.next();
+	}
+}
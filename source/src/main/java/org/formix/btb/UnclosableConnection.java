@@ -36,15 +36,100 @@ import java.util.concurrent.Executor;
 public class UnclosableConnection implements Connection {
 
 	private Connection conn;
+	private StatementCache statementCache;
 
 	public UnclosableConnection(Connection conn) {
+		this(conn, 0);
+	}
+
+	/**
+	 * Wraps the given connection and caches its prepared statements.
+	 * 
+	 * @param conn
+	 *            the connection to wrap.
+	 * @param statementCacheSize
+	 *            the maximum number of idle prepared statements kept open, 0
+	 *            to disable the cache.
+	 */
+	public UnclosableConnection(Connection conn, int statementCacheSize) {
 		this.conn = conn;
+		if (statementCacheSize > 0) {
+			this.statementCache = new StatementCache(this,
+					statementCacheSize);
+		} else {
+			this.statementCache = null;
+		}
 	}
 	
 	Connection getInternalConnection() {
 		return this.conn;
 	}
 
+	/**
+	 * Closes the cached prepared statements. Called before the internal
+	 * connection is closed.
+	 * 
+	 * @throws SQLException
+	 *             if a statement cannot be closed.
+	 */
+	void closeStatements() throws SQLException {
+		if (this.statementCache != null) {
+			this.statementCache.close();
+		}
+	}
+
+	/**
+	 * @return the number of prepared statements served from the statement
+	 *         cache of this connection.
+	 */
+	public long getStatementCacheHitCount() {
+		if (this.statementCache == null) {
+			return 0;
+		}
+		return this.statementCache.getHitCount();
+	}
+
+	/**
+	 * @return the number of prepared statements created by the driver while
+	 *         the statement cache of this connection was enabled.
+	 */
+	public long getStatementCacheMissCount() {
+		if (this.statementCache == null) {
+			return 0;
+		}
+		return this.statementCache.getMissCount();
+	}
+
+	/**
+	 * @return the number of idle statements in the statement cache.
+	 */
+	public int getStatementCacheSize() {
+		if (this.statementCache == null) {
+			return 0;
+		}
+		return this.statementCache.getSize();
+	}
+
+	private PreparedStatement prepareCached(String key, String sql,
+			int... options) throws SQLException {
+		PreparedStatement stmt = this.statementCache.take(key);
+		if (stmt != null) {
+			return stmt;
+		}
+		switch (options.length) {
+		case 0:
+			stmt = this.conn.prepareStatement(sql);
+			break;
+		case 1:
+			stmt = this.conn.prepareStatement(sql, options[0]);
+			break;
+		default:
+			stmt = this.conn.prepareStatement(sql, options[0], options[1]);
+			break;
+		}
+		return this.statementCache.wrap(key, stmt);
+	}
+
 	public <T> T unwrap(Class<T> iface) throws SQLException {
 		return this.conn.unwrap(iface);
 	}
@@ -58,6 +143,9 @@ public class UnclosableConnection implements Connection {
 	}
 
 	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		if (this.statementCache != null) {
+			return prepareCached(StatementCache.key(sql), sql);
+		}
 		return this.conn.prepareStatement(sql);
 	}
 
@@ -138,6 +226,11 @@ public class UnclosableConnection implements Connection {
 
 	public PreparedStatement prepareStatement(String sql, int resultSetType,
 			int resultSetConcurrency) throws SQLException {
+		if (this.statementCache != null) {
+			return prepareCached(StatementCache.key(sql, resultSetType,
+					resultSetConcurrency), sql, resultSetType,
+					resultSetConcurrency);
+		}
 		return this.conn.prepareStatement(sql, resultSetType,
 				resultSetConcurrency);
 	}
@@ -202,6 +295,10 @@ public class UnclosableConnection implements Connection {
 
 	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys)
 			throws SQLException {
+		if (this.statementCache != null) {
+			return prepareCached(StatementCache.key(sql, autoGeneratedKeys),
+					sql, autoGeneratedKeys);
+		}
 		return this.conn.prepareStatement(sql, autoGeneratedKeys);
 	}
 
@@ -0,0 +1,726 @@
+/**
+ * Copyright 2012 Jean-Philippe Gravel, P. Eng., CSDP
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * Queues the insert, update and delete operations of a Bridge and executes
+ * them in JDBC batches on a background thread. A flush is started when the
+ * number of pending operations reaches the batch size or when the flush
+ * interval has elapsed since the last flush.
+ * </p>
+ * <p>
+ * Operations on the same primary key are coalesced: updating an item pending
+ * for insertion or update only keeps one operation, deleting an item pending
+ * for insertion cancels both operations and inserting an item pending for
+ * deletion or update saves it (see Bridge.save). Items are kept by
+ * reference, so the values written are those of the items when the flush
+ * happens.
+ * </p>
+ * <p>
+ * The queue is bounded: when the capacity is reached, the calling thread
+ * blocks until a flush frees some room. Each flush runs in its own
+ * transaction and executes the inserts, the saves, the updates and then the
+ * deletes. A failed flush is rolled back and its operations are executed
+ * again one by one, each in its own transaction: only the operations failing
+ * again are dropped, and the last error is available through getLastError().
+ * Closing the write behind bridge, or stopping the JVM, flushes the pending
+ * operations.
+ * </p>
+ * <p>
+ * The bridge should use the Connector (no connection given to its
+ * constructor) since the flushes are executed by another thread. A flush
+ * of a bridge having its own connection cannot be rolled back: when it
+ * fails, all its operations are dropped.
+ * </p>
+ *
+ * @author Jean-Philippe Gravel
+ */
+public class WriteBehindBridge<A> {
+
+	/**
+	 * The default maximum number of pending operations.
+	 */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/**
+	 * The default number of pending operations starting a flush.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = Bridge.DEFAULT_BATCH_SIZE;
+
+	/**
+	 * The default maximum delay between two flushes, in milliseconds.
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+	private static enum OperationType {
+		INSERT, SAVE, UPDATE, DELETE
+	}
+
+	private static class Operation {
+		private OperationType type;
+		private Object item;
+
+		public Operation(OperationType type, Object item) {
+			this.type = type;
+			this.item = item;
+		}
+	}
+
+	private final Bridge<A> bridge;
+	private final SqlDescriptor descriptor;
+	private final int capacity;
+	private final int batchSize;
+	private final long flushInterval;
+
+	private final ReentrantLock lock;
+	private final Condition notFull;
+	private final Condition flushNeeded;
+	private final Condition flushDone;
+
+	// Pending operations by primary key, and inserts of generated keys.
+	private final Map<Object, Operation> keyed;
+	private final Map<Object, Operation> unkeyed;
+	private final Thread flusher;
+	private final Thread shutdownHook;
+
+	private boolean closed;
+	private boolean flushRequested;
+	private boolean flushing;
+	private long flushSequence;
+
+	private long flushCount;
+	private long flushedOperations;
+	private long coalescedOperations;
+	private long failedOperations;
+	private long lastFlushLatency;
+	private long totalFlushLatency;
+	private Exception lastError;
+
+	/**
+	 * Creates a write behind bridge with the default capacity, batch size and
+	 * flush interval.
+	 *
+	 * @param bridge
+	 *            the bridge executing the operations.
+	 */
+	public WriteBehindBridge(Bridge<A> bridge) {
+		this(bridge, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE,
+				DEFAULT_FLUSH_INTERVAL);
+	}
+
+	/**
+	 * Creates a write behind bridge.
+	 *
+	 * @param bridge
+	 *            the bridge executing the operations.
+	 * @param capacity
+	 *            the maximum number of pending operations.
+	 * @param batchSize
+	 *            the number of pending operations starting a flush, and the
+	 *            JDBC batch size.
+	 * @param flushInterval
+	 *            the maximum delay between two flushes, in milliseconds.
+	 */
+	public WriteBehindBridge(Bridge<A> bridge, int capacity, int batchSize,
+			long flushInterval) {
+		Util.throwIfNull(bridge, "bridge");
+		if ((capacity < 1) || (batchSize < 1) || (flushInterval < 1)) {
+			throw new IllegalArgumentException("The capacity, batch size and "
+					+ "flush interval must be greater than zero.");
+		}
+		this.bridge = bridge;
+		this.descriptor = bridge.getDescriptor();
+		this.capacity = capacity;
+		this.batchSize = Math.min(batchSize, capacity);
+		this.flushInterval = flushInterval;
+
+		this.lock = new ReentrantLock();
+		this.notFull = lock.newCondition();
+		this.flushNeeded = lock.newCondition();
+		this.flushDone = lock.newCondition();
+		this.keyed = new LinkedHashMap<Object, Operation>();
+		this.unkeyed = new IdentityHashMap<Object, Operation>();
+		this.closed = false;
+
+		this.flusher = new Thread(new Runnable() {
+			public void run() {
+				flushLoop();
+			}
+		}, "WriteBehindBridge-" + descriptor.getTableName());
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+
+		this.shutdownHook = new Thread(new Runnable() {
+			public void run() {
+				close();
+			}
+		});
+		Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+	}
+
+	/**
+	 * @return the bridge executing the operations.
+	 */
+	public Bridge<A> getBridge() {
+		return bridge;
+	}
+
+	/**
+	 * Queues the insertion of an item.
+	 *
+	 * @param item
+	 *            the item to insert.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for room in the queue.
+	 */
+	public void insert(A item) throws InterruptedException {
+		Util.throwIfNull(item, "item");
+		// Generated keys are assigned now so the insert can be coalesced with
+		// later operations on the same item.
+		try {
+			bridge.assignKey(item);
+		} catch (SQLException e) {
+			throw new UnexpectedException("Unable to assign a key to " + item
+					+ ".", e);
+		}
+		enqueue(OperationType.INSERT, item);
+	}
+
+	/**
+	 * Queues the update of an item.
+	 *
+	 * @param item
+	 *            the item to update.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for room in the queue.
+	 */
+	public void update(A item) throws InterruptedException {
+		enqueue(OperationType.UPDATE, item);
+	}
+
+	/**
+	 * Queues the deletion of an item.
+	 *
+	 * @param item
+	 *            the item to delete.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for room in the queue.
+	 */
+	public void delete(A item) throws InterruptedException {
+		enqueue(OperationType.DELETE, item);
+	}
+
+	private void enqueue(OperationType type, Object item)
+			throws InterruptedException {
+		Util.throwIfNull(item, "item");
+
+		lock.lockInterruptibly();
+		try {
+			checkOpen();
+			if (coalesce(type, item)) {
+				coalescedOperations++;
+				return;
+			}
+
+			while (size() >= capacity) {
+				flushRequested = true;
+				flushNeeded.signal();
+				notFull.await();
+				checkOpen();
+				if (coalesce(type, item)) {
+					coalescedOperations++;
+					return;
+				}
+			}
+
+			Object key = getKey(type, item);
+			if (key == null) {
+				unkeyed.put(item, new Operation(type, item));
+			} else {
+				keyed.put(key, new Operation(type, item));
+			}
+			if (size() >= batchSize) {
+				flushNeeded.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Merges the operation with a pending operation on the same item or key.
+	// Returns false if the operation must be queued.
+	private boolean coalesce(OperationType type, Object item) {
+		Operation pending = unkeyed.get(item);
+		if (pending != null) {
+			// A pending insert writes the item state at flush time.
+			if (type == OperationType.DELETE) {
+				unkeyed.remove(item);
+				notFull.signalAll();
+			}
+			return true;
+		}
+
+		Object key = getKey(type, item);
+		if (key == null) {
+			return false;
+		}
+		pending = keyed.get(key);
+		if (pending == null) {
+			return false;
+		}
+
+		switch (type) {
+		case INSERT:
+			// The row may not exist yet: an update would write nothing.
+			if ((pending.type == OperationType.DELETE)
+					|| (pending.type == OperationType.UPDATE)) {
+				pending.type = OperationType.SAVE;
+			}
+			break;
+		case UPDATE:
+			if (pending.type == OperationType.DELETE) {
+				// The row is gone, the update would match nothing.
+				return true;
+			}
+			break;
+		case DELETE:
+			if (pending.type == OperationType.INSERT) {
+				keyed.remove(key);
+				notFull.signalAll();
+				return true;
+			}
+			pending.type = OperationType.DELETE;
+			break;
+		default:
+			break;
+		}
+		pending.item = item;
+		return true;
+	}
+
+	private Object getKey(OperationType type, Object item) {
+		String key = descriptor.getPrimaryKey();
+		if ((type == OperationType.INSERT) && descriptor.isReadOnly(key)) {
+			return null;
+		}
+		try {
+			return descriptor.getValue(item, key);
+		} catch (Exception e) {
+			throw new UnexpectedException("Unable to read the primary key of "
+					+ item + ".", e);
+		}
+	}
+
+	private int size() {
+		return keyed.size() + unkeyed.size();
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException(
+					"The write behind bridge is closed.");
+		}
+	}
+
+	/**
+	 * Flushes the pending operations and waits for the flush to complete.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public void flush() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			long target = flushSequence + (flushing ? 2 : 1);
+			flushRequested = true;
+			flushNeeded.signal();
+			while ((flushSequence < target) && flusher.isAlive()) {
+				flushDone.await(flushInterval, TimeUnit.MILLISECONDS);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops accepting operations, flushes the pending operations and stops
+	 * the background thread. Calling close more than once has no effect.
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			flushNeeded.signal();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+
+		boolean interrupted = false;
+		while (flusher.isAlive()) {
+			try {
+				flusher.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (Thread.currentThread() != shutdownHook) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				// The JVM is shutting down.
+			}
+		}
+	}
+
+	private void flushLoop() {
+		while (true) {
+			List<Operation> operations;
+			lock.lock();
+			try {
+				long deadline = System.nanoTime()
+						+ TimeUnit.MILLISECONDS.toNanos(flushInterval);
+				long remaining = deadline - System.nanoTime();
+				while (!closed && !flushRequested && (size() < batchSize)
+						&& (remaining > 0)) {
+					try {
+						remaining = flushNeeded.awaitNanos(remaining);
+					} catch (InterruptedException e) {
+						closed = true;
+					}
+				}
+				flushRequested = false;
+				operations = drain();
+				flushing = true;
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+
+			execute(operations);
+
+			lock.lock();
+			try {
+				flushing = false;
+				flushSequence++;
+				flushDone.signalAll();
+				if (closed && (size() == 0)) {
+					return;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private List<Operation> drain() {
+		List<Operation> operations = new ArrayList<Operation>(size());
+		operations.addAll(unkeyed.values());
+		operations.addAll(keyed.values());
+		unkeyed.clear();
+		keyed.clear();
+		return operations;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void execute(List<Operation> operations) {
+		if (operations.isEmpty()) {
+			return;
+		}
+
+		List<A> inserts = new ArrayList<A>();
+		List<A> saves = new ArrayList<A>();
+		List<A> updates = new ArrayList<A>();
+		List<A> deletes = new ArrayList<A>();
+		for (Operation operation : operations) {
+			switch (operation.type) {
+			case INSERT:
+				inserts.add((A) operation.item);
+				break;
+			case SAVE:
+				saves.add((A) operation.item);
+				break;
+			case UPDATE:
+				updates.add((A) operation.item);
+				break;
+			default:
+				deletes.add((A) operation.item);
+				break;
+			}
+		}
+
+		long start = System.nanoTime();
+		boolean useConnector = bridge.getConnection() == null;
+		Object[] versions = readVersions(operations);
+		Exception error = null;
+		try {
+			if (useConnector) {
+				Connector.openConnection();
+			}
+			bridge.insertAll(inserts, batchSize);
+			bridge.saveAll(saves, batchSize);
+			bridge.updateAll(updates, batchSize);
+			bridge.deleteAll(deletes, batchSize);
+			if (useConnector) {
+				Connector.closeConnection();
+			}
+		} catch (SQLException e) {
+			error = e;
+		} catch (RuntimeException e) {
+			error = e;
+		}
+		long failed = 0;
+		if ((error != null) && useConnector) {
+			try {
+				Connector.rollBack();
+			} catch (RuntimeException e) {
+				// The flush error is reported.
+			}
+			// The rolled back batches may have changed the items: their
+			// versions are restored and their snapshots dropped, so that each
+			// operation is executed again as if the flush never happened.
+			restoreVersions(operations, versions);
+			if (descriptor.hasChangeTracker()) {
+				for (Operation operation : operations) {
+					descriptor.getChangeTracker().forget(operation.item);
+				}
+			}
+			error = null;
+			for (OperationType type : OperationType.values()) {
+				for (Operation operation : operations) {
+					if (operation.type == type) {
+						Exception e = executeOne(operation);
+						if (e != null) {
+							failed++;
+							error = e;
+						}
+					}
+				}
+			}
+		} else if (error != null) {
+			failed = operations.size();
+		}
+		long latency = System.nanoTime() - start;
+
+		lock.lock();
+		try {
+			flushCount++;
+			lastFlushLatency = latency;
+			totalFlushLatency += latency;
+			flushedOperations += operations.size() - failed;
+			failedOperations += failed;
+			if (error != null) {
+				lastError = error;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Executes an operation in its own transaction, returning its error or
+	// null if it succeeded.
+	@SuppressWarnings("unchecked")
+	private Exception executeOne(Operation operation) {
+		A item = (A) operation.item;
+		Exception error = null;
+		try {
+			Connector.openConnection();
+			switch (operation.type) {
+			case INSERT:
+				bridge.insert(item);
+				break;
+			case SAVE:
+				bridge.save(item);
+				break;
+			case UPDATE:
+				bridge.update(item);
+				break;
+			default:
+				bridge.delete(item);
+				break;
+			}
+			Connector.closeConnection();
+		} catch (SQLException e) {
+			error = e;
+		} catch (RuntimeException e) {
+			error = e;
+		}
+		if (error != null) {
+			try {
+				Connector.rollBack();
+			} catch (RuntimeException e) {
+				// The operation error is reported.
+			}
+		}
+		return error;
+	}
+
+	// The versions of the items before the flush, null if the type has no
+	// version column.
+	private Object[] readVersions(List<Operation> operations) {
+		String column = descriptor.getVersionColumn();
+		if (column == null) {
+			return null;
+		}
+		Object[] versions = new Object[operations.size()];
+		for (int i = 0; i < versions.length; i++) {
+			versions[i] = descriptor.getValue(operations.get(i).item, column);
+		}
+		return versions;
+	}
+
+	private void restoreVersions(List<Operation> operations,
+			Object[] versions) {
+		if (versions == null) {
+			return;
+		}
+		String column = descriptor.getVersionColumn();
+		for (int i = 0; i < versions.length; i++) {
+			Object item = operations.get(i).item;
+			try {
+				descriptor.setValue(item, column, versions[i]);
+			} catch (Exception e) {
+				throw new UnexpectedException("Unable to restore the version "
+						+ "of " + item + ".", e);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of pending operations.
+	 */
+	public int getQueueDepth() {
+		lock.lock();
+		try {
+			return size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the maximum number of pending operations.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of flushes executed.
+	 */
+	public long getFlushCount() {
+		lock.lock();
+		try {
+			return flushCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of operations written to the database.
+	 */
+	public long getFlushedOperationCount() {
+		lock.lock();
+		try {
+			return flushedOperations;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of operations merged with a pending operation.
+	 */
+	public long getCoalescedOperationCount() {
+		lock.lock();
+		try {
+			return coalescedOperations;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of operations dropped because they failed, alone or
+	 *         with their flush.
+	 */
+	public long getFailedOperationCount() {
+		lock.lock();
+		try {
+			return failedOperations;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the duration of the last flush, in milliseconds.
+	 */
+	public double getLastFlushLatency() {
+		lock.lock();
+		try {
+			return lastFlushLatency / 1000000.0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the average duration of the flushes, in milliseconds.
+	 */
+	public double getAverageFlushLatency() {
+		lock.lock();
+		try {
+			if (flushCount == 0) {
+				return 0;
+			}
+			return totalFlushLatency / 1000000.0 / flushCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the error of the last dropped operation or null if no operation
+	 *         has been dropped.
+	 */
+	public Exception getLastError() {
+		lock.lock();
+		try {
+			return lastError;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2008 Jean-Philippe Gravel, eng. Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.util.List;
+
+import org.formix.btb.types.Employee;
+
+/**
+ * Measures the per row cost of mapping an Employee through reflective
+ * accessors (the former Method.invoke path) and through method handle
+ * accessors. Run it with the test classpath:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.formix.btb.AccessorBenchmark
+ * </pre>
+ */
+public class AccessorBenchmark {
+
+	private static final int WARMUP_ROWS = 500000;
+	private static final int ROWS = 2000000;
+
+	public static void main(String[] args) throws Exception {
+		SqlDescriptor descriptor = SqlDescriptor.getInstance(Employee.class);
+		List<String> columns = descriptor.getColumns();
+
+		PropertyAccessor[] reflective = new PropertyAccessor[columns.size()];
+		PropertyAccessor[] compiled = new PropertyAccessor[columns.size()];
+		for (int i = 0; i < columns.size(); i++) {
+			PropertyAccessor accessor = descriptor.getAccessor(columns.get(i));
+			reflective[i] = PropertyAccessor.createReflective(
+					accessor.getName(), accessor.getGetter(),
+					accessor.getSetter());
+			compiled[i] = accessor;
+		}
+
+		// The Calendar column is left out since Employee.setBirthDate clones
+		// its value, which would dominate the measure.
+		Object[] row = new Object[] { null, 12, 42,
+				"Robert Walsh", "123 345 567", 14.35 };
+
+		run("reflection", reflective, row, WARMUP_ROWS);
+		run("handles", compiled, row, WARMUP_ROWS);
+
+		report("reflection", run("reflection", reflective, row, ROWS));
+		report("handles", run("handles", compiled, row, ROWS));
+	}
+
+	private static long run(String name, PropertyAccessor[] accessors,
+			Object[] row, int rows) throws Exception {
+		Object sink = null;
+		Employee e = new Employee();
+		long start = System.nanoTime();
+		for (int r = 0; r < rows; r++) {
+			for (int i = 1; i < accessors.length; i++) {
+				accessors[i].set(e, row[i]);
+			}
+			for (int i = 0; i < accessors.length; i++) {
+				sink = accessors[i].get(e);
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		if (sink == null) {
+			System.out.println(name + ": unexpected null value.");
+		}
+		return elapsed / rows;
+	}
+
+	private static void report(String name, long nanosPerRow) {
+		System.out.println(String.format("%-12s %6d ns/row", name,
+				nanosPerRow));
+	}
+}
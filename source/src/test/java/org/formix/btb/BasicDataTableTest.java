@@ -18,7 +18,9 @@ import static junit.framework.Assert.*;
 import java.io.File;
 import java.sql.SQLException;
 import java.sql.SQLNonTransientConnectionException;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -246,4 +248,47 @@ public class BasicDataTableTest {
 				new HashSet<String>(columns),
 				new HashSet<String>(sqlDescriptor.getColumns()));
 	}
+
+	@Test
+	public void testDescriptorCache() throws Exception {
+		long hits = SqlDescriptor.getCacheHitCount();
+		SqlDescriptor.warmUp(Employee.class, EmployeeTable.class);
+
+		assertSame("The descriptor should be shared between bridges.",
+				sqlDescriptor, SqlDescriptor.getInstance(Employee.class));
+		assertSame("The descriptor should be shared between bridges.",
+				sqlDescriptor, new Bridge<Employee>(Employee.class)
+						.getDescriptor());
+		assertTrue("The cache hit count should have increased.",
+				SqlDescriptor.getCacheHitCount() >= hits + 3);
+
+		Bridge<EmployeeWithState> bridge = new Bridge<EmployeeWithState>(
+				EmployeeWithState.class, "state");
+		assertNotSame(
+				"Ignored properties should be part of the descriptor key.",
+				bridge.getDescriptor(),
+				SqlDescriptor.getInstance(EmployeeWithState.class));
+	}
+
+	@Test
+	public void testGetUpsertQuery() {
+		List<String> cols = Arrays.asList("id", "name");
+		assertEquals("INSERT INTO IntKey (id, name) VALUES (?, ?) "
+				+ "ON CONFLICT (id) DO UPDATE SET name = EXCLUDED.name",
+				Dialect.POSTGRESQL.createUpsertQuery("IntKey", "id", cols));
+		assertEquals("INSERT INTO IntKey (id, name) VALUES (?, ?) "
+				+ "ON DUPLICATE KEY UPDATE name = VALUES(name)",
+				Dialect.MYSQL.createUpsertQuery("IntKey", "id", cols));
+		assertEquals("MERGE INTO IntKey (id, name) KEY (id) VALUES (?, ?)",
+				Dialect.H2.createUpsertQuery("IntKey", "id", cols));
+		assertEquals("MERGE INTO IntKey t USING (SELECT ? AS id, ? AS name "
+				+ "FROM dual) s ON (t.id = s.id) WHEN MATCHED THEN UPDATE "
+				+ "SET name = s.name WHEN NOT MATCHED THEN INSERT (id, name) "
+				+ "VALUES (s.id, s.name)", Dialect.ORACLE.createUpsertQuery(
+				"IntKey", "id", cols));
+		assertNull(Dialect.DERBY.createUpsertQuery("IntKey", "id", cols));
+		assertEquals(Dialect.DERBY, Dialect.forProductName("Apache Derby"));
+		assertEquals(Dialect.SQLSERVER, Dialect
+				.forProductName("Microsoft SQL Server"));
+	}
 }
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2008 Jean-Philippe Gravel, eng. Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLNonTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.formix.btb.utils.DatabaseManager;
+
+/**
+ * Measures the insert throughput of a loop of Bridge.insert calls against
+ * Bridge.insertAll on embedded Derby, both in a single transaction. Run it
+ * with the test classpath:
+ * 
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.formix.btb.InsertBenchmark
+ * </pre>
+ */
+public class InsertBenchmark {
+
+	private static final int ROWS = 50000;
+
+	public static class Reading {
+		private int id;
+		private String sensor;
+		private long stamp;
+		private double value;
+
+		public int getId() {
+			return id;
+		}
+
+		public void setId(int id) {
+			this.id = id;
+		}
+
+		public String getSensor() {
+			return sensor;
+		}
+
+		public void setSensor(String sensor) {
+			this.sensor = sensor;
+		}
+
+		public long getStamp() {
+			return stamp;
+		}
+
+		public void setStamp(long stamp) {
+			this.stamp = stamp;
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		public void setValue(double value) {
+			this.value = value;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		new DatabaseManager().createDatabase("CREATE TABLE Reading ("
+				+ "id INT NOT NULL, sensor VARCHAR(20), stamp BIGINT, "
+				+ "value DOUBLE, PRIMARY KEY(id))");
+
+		Connection conn = new ConnectionManager().createConnection();
+		conn.setAutoCommit(false);
+		try {
+			Bridge<Reading> bridge = new Bridge<Reading>(conn, Reading.class);
+
+			run(conn, bridge, false, 0);
+			run(conn, bridge, true, 0);
+			report("insert", run(conn, bridge, false, ROWS));
+			report("insertAll", run(conn, bridge, true, ROWS * 2));
+		} finally {
+			conn.close();
+			shutdown();
+		}
+	}
+
+	private static long run(Connection conn, Bridge<Reading> bridge,
+			boolean batch, int firstId) throws Exception {
+		List<Reading> readings = new ArrayList<Reading>(ROWS);
+		for (int i = 0; i < ROWS; i++) {
+			Reading reading = new Reading();
+			reading.setId(firstId + i);
+			reading.setSensor("sensor-" + (i % 16));
+			reading.setStamp(i * 1000L);
+			reading.setValue(i / 7.0);
+			readings.add(reading);
+		}
+
+		long start = System.nanoTime();
+		if (batch) {
+			bridge.insertAll(readings);
+		} else {
+			for (Reading reading : readings) {
+				bridge.insert(reading);
+			}
+		}
+		conn.commit();
+		long nanos = System.nanoTime() - start;
+
+		conn.createStatement().executeUpdate("DELETE FROM Reading");
+		conn.commit();
+		return nanos;
+	}
+
+	private static void report(String name, long nanos) {
+		System.out.println(String.format("%-10s %8d rows/s", name,
+				ROWS * 1000000000L / nanos));
+	}
+
+	private static void shutdown() {
+		try {
+			new ConnectionManager().createConnection("derbyShutdown");
+		} catch (SQLNonTransientConnectionException e) {
+			System.out.println("Connection closed.");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		Util.delete(new File("data"));
+	}
+}
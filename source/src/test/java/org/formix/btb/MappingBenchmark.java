@@ -0,0 +1,177 @@
+/**
+ * Copyright 2008 Jean-Philippe Gravel, eng. Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.Statement;
+
+import org.formix.btb.utils.DatabaseManager;
+
+/**
+ * Measures the time and the bytes allocated per row when mapping numeric rows
+ * with ResultSet.getObject (untyped) and with the typed ResultSet getters
+ * (typed). The allocation figures include the driver allocations, so only the
+ * difference between both lines is meaningful. Run it with the test
+ * classpath:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.formix.btb.MappingBenchmark
+ * </pre>
+ */
+public class MappingBenchmark {
+
+	private static final int ROWS = 100000;
+	private static final int PASSES = 10;
+
+	public static class Measure {
+		private int id;
+		private int count;
+		private long total;
+		private double ratio;
+		private boolean active;
+
+		public int getId() {
+			return id;
+		}
+
+		public void setId(int id) {
+			this.id = id;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public void setCount(int count) {
+			this.count = count;
+		}
+
+		public long getTotal() {
+			return total;
+		}
+
+		public void setTotal(long total) {
+			this.total = total;
+		}
+
+		public double getRatio() {
+			return ratio;
+		}
+
+		public void setRatio(double ratio) {
+			this.ratio = ratio;
+		}
+
+		public boolean isActive() {
+			return active;
+		}
+
+		public void setActive(boolean active) {
+			this.active = active;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		new DatabaseManager().createDatabase("CREATE TABLE Measure ("
+				+ "id INT NOT NULL, count INT, total BIGINT, "
+				+ "ratio DOUBLE, active BOOLEAN, PRIMARY KEY(id))");
+
+		Connection conn = new ConnectionManager().createConnection();
+		try {
+			populate(conn);
+			SqlDescriptor descriptor = SqlDescriptor
+					.getInstance(Measure.class);
+			String sql = "SELECT id, count, total, ratio, active FROM Measure";
+
+			measure(conn, descriptor, sql, false);
+			measure(conn, descriptor, sql, true);
+			report("untyped", measure(conn, descriptor, sql, false));
+			report("typed", measure(conn, descriptor, sql, true));
+		} finally {
+			conn.close();
+			shutdown();
+		}
+	}
+
+	private static void populate(Connection conn) throws Exception {
+		PreparedStatement stmt = conn.prepareStatement("INSERT INTO Measure "
+				+ "(id, count, total, ratio, active) VALUES (?, ?, ?, ?, ?)");
+		for (int i = 0; i < ROWS; i++) {
+			stmt.setInt(1, i);
+			stmt.setInt(2, i % 1000 + 1000);
+			stmt.setLong(3, i * 100000L);
+			stmt.setDouble(4, i / 3.0);
+			stmt.setBoolean(5, (i % 2) == 0);
+			stmt.addBatch();
+			if ((i % 1000) == 999) {
+				stmt.executeBatch();
+			}
+		}
+		stmt.executeBatch();
+		stmt.close();
+	}
+
+	private static long[] measure(Connection conn, SqlDescriptor descriptor,
+			String sql, boolean typed) throws Exception {
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory
+						.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		Statement stmt = conn.createStatement();
+
+		long bytes = 0;
+		long nanos = 0;
+		for (int pass = 0; pass < PASSES; pass++) {
+			ResultSet rs = stmt.executeQuery(sql);
+			RowMapper mapper = RowMapper.compile(descriptor, null,
+					rs.getMetaData(), typed);
+			Measure item = new Measure();
+
+			long startBytes = threads.getThreadAllocatedBytes(threadId);
+			long start = System.nanoTime();
+			while (rs.next()) {
+				mapper.map(item, rs);
+			}
+			nanos += System.nanoTime() - start;
+			bytes += threads.getThreadAllocatedBytes(threadId) - startBytes;
+			rs.close();
+		}
+
+		stmt.close();
+		long rows = (long) ROWS * PASSES;
+		return new long[] { nanos / rows, bytes / rows };
+	}
+
+	private static void report(String name, long[] result) {
+		System.out.println(String.format("%-8s %6d ns/row %6d bytes/row",
+				name, result[0], result[1]));
+	}
+
+	private static void shutdown() {
+		try {
+			new ConnectionManager().createConnection("derbyShutdown");
+		} catch (SQLNonTransientConnectionException e) {
+			System.out.println("Connection closed.");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		Util.delete(new File("data"));
+	}
+}
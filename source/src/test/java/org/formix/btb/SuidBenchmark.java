@@ -0,0 +1,103 @@
+/**
+ * Copyright 2008 Jean-Philippe Gravel, eng. Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the SUID throughput under contention, from 1 to 64 threads, for the
+ * compare and set generator and for the former synchronized generator. Run it
+ * with the test classpath:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.formix.btb.SuidBenchmark
+ * </pre>
+ */
+public class SuidBenchmark {
+
+	private static final long DURATION_MILLIS = 1000;
+
+	private interface Generator {
+		long next();
+	}
+
+	// The generator as it was before the compare and set version.
+	private static class SynchronizedSuid implements Generator {
+		private int counter = 0;
+
+		public synchronized long next() {
+			long id = (System.currentTimeMillis() << 16) | counter;
+			counter = (counter + 1) % 65536;
+			return id;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		final SUID suid = new SUID(0, 0);
+		Generator cas = new Generator() {
+			public long next() {
+				return suid.next();
+			}
+		};
+		Generator sync = new SynchronizedSuid();
+
+		run(cas, 4);
+		run(sync, 4);
+
+		System.out.println(String.format("%-8s %14s %14s", "threads",
+				"cas ids/ms", "sync ids/ms"));
+		for (int threads = 1; threads <= 64; threads *= 2) {
+			System.out.println(String.format("%-8d %14d %14d", threads,
+					run(cas, threads), run(sync, threads)));
+		}
+	}
+
+	private static long run(final Generator generator, int threadCount)
+			throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicLong total = new AtomicLong();
+		final long[] deadline = new long[1];
+		Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					long count = 0;
+					long sink = 0;
+					while (System.nanoTime() < deadline[0]) {
+						for (int i = 0; i < 1000; i++) {
+							sink ^= generator.next();
+						}
+						count += 1000;
+					}
+					total.addAndGet(count + (sink & 0));
+				}
+			};
+			threads[t].start();
+		}
+		deadline[0] = System.nanoTime() + DURATION_MILLIS * 1000000;
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return total.get() / DURATION_MILLIS;
+	}
+}
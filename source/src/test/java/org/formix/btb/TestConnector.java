@@ -56,5 +56,51 @@ public class TestConnector {
 		connector.close();
 		connector.close();
 	}
-	
+
+	@Test
+	public void TestStatementCache() throws Exception {
+		Connector connector = Connector.getInstance();
+		UnclosableConnection conn = (UnclosableConnection) connector.open();
+		String sql = "select * from StringKey where id = ?";
+
+		PreparedStatement stmt = conn.prepareStatement(sql);
+		stmt.setString(1, "aaa");
+		stmt.executeQuery().close();
+		stmt.close();
+		Assert.assertTrue(stmt.isClosed());
+		Assert.assertEquals(1, conn.getStatementCacheSize());
+
+		PreparedStatement cached = conn.prepareStatement(sql);
+		PreparedStatement other = conn.prepareStatement(sql);
+		Assert.assertEquals(1, conn.getStatementCacheHitCount());
+		Assert.assertEquals(2, conn.getStatementCacheMissCount());
+		cached.setString(1, "bbb");
+		ResultSet rs = cached.executeQuery();
+		Assert.assertTrue(rs.next());
+		Assert.assertEquals("name b", rs.getString("name"));
+		rs.close();
+		cached.close();
+		other.close();
+		Assert.assertEquals(1, conn.getStatementCacheSize());
+
+		// Settings and open result sets do not reach the next borrower.
+		stmt = conn.prepareStatement(sql);
+		Assert.assertSame(conn, stmt.getConnection());
+		int fetchSize = stmt.getFetchSize();
+		stmt.setFetchSize(fetchSize + 10);
+		stmt.setMaxRows(fetchSize + 20);
+		stmt.setQueryTimeout(5);
+		stmt.setString(1, "aaa");
+		rs = stmt.executeQuery();
+		stmt.close();
+		Assert.assertTrue(rs.isClosed());
+		stmt = conn.prepareStatement(sql);
+		Assert.assertEquals(0, stmt.getMaxRows());
+		Assert.assertEquals(fetchSize, stmt.getFetchSize());
+		Assert.assertEquals(0, stmt.getQueryTimeout());
+		stmt.close();
+
+		connector.close();
+		Assert.assertEquals(0, conn.getStatementCacheSize());
+	}
 }
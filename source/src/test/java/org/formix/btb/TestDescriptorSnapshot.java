@@ -0,0 +1,69 @@
+/**
+ * Copyright 2008 Jean-Philippe Gravel, eng. Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import static junit.framework.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.formix.btb.types.Employee;
+import org.junit.After;
+import org.junit.Test;
+
+public class TestDescriptorSnapshot {
+
+	private File file = new File("target/descriptors.properties");
+
+	@After
+	public void tearDown() {
+		SqlDescriptor.clearCache();
+		file.delete();
+	}
+
+	@Test
+	public void testSaveAndLoad() throws Exception {
+		SqlDescriptor.clearCache();
+		SqlDescriptor original = SqlDescriptor.getInstance(Employee.class);
+		original.initializeQueries(new HashSet<String>(Arrays.asList("id")));
+
+		assertEquals(1, DescriptorSnapshot.save(file, "1.0"));
+
+		SqlDescriptor.clearCache();
+		assertEquals("Another schema version must not be restored.", 0,
+				DescriptorSnapshot.load(file, "2.0"));
+		assertEquals(0, SqlDescriptor.getCacheSize());
+
+		assertEquals(1, DescriptorSnapshot.load(file, "1.0"));
+		long misses = SqlDescriptor.getCacheMissCount();
+		SqlDescriptor restored = SqlDescriptor.getInstance(Employee.class);
+		assertEquals("The restored descriptor must come from the cache.",
+				misses, SqlDescriptor.getCacheMissCount());
+
+		assertNotSame(original, restored);
+		assertEquals(original.getPrimaryKey(), restored.getPrimaryKey());
+		assertEquals(original.getColumns(), restored.getColumns());
+		assertEquals(original.getReadOnlyColumns(), restored
+				.getReadOnlyColumns());
+		assertEquals(original.getSelectQuery(), restored.getSelectQuery());
+		assertEquals(original.getInsertQuery(), restored.getInsertQuery());
+		assertEquals(original.getUpdateQuery(), restored.getUpdateQuery());
+		assertEquals(original.getDeleteQuery(), restored.getDeleteQuery());
+
+		Employee employee = new Employee();
+		restored.setValue(employee, "name", "John");
+		assertEquals("John", restored.getValue(employee, "name"));
+	}
+}
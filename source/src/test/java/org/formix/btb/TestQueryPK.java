@@ -13,19 +13,32 @@
  */
 package org.formix.btb;
 
+import static junit.framework.Assert.*;
+
 import java.io.File;
+import java.io.FileOutputStream;
+import java.sql.Connection;
 import java.sql.SQLNonTransientConnectionException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import org.formix.btb.Bridge;
 import org.formix.btb.ConnectionManager;
 import org.formix.btb.Join;
+import org.formix.btb.Page;
 import org.formix.btb.Query;
 import org.formix.btb.Util;
 import org.formix.btb.types.Department;
 import org.formix.btb.types.Employee;
 import org.formix.btb.types.IntKey;
 import org.formix.btb.types.StringKey;
+import org.formix.btb.types.SuidKey;
+import org.formix.btb.types.VersionedItem;
 import org.formix.btb.utils.DatabaseManager;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -87,4 +100,627 @@ public class TestQueryPK {
 		System.out.println(query);
 	}
 
+	@Test
+	public void testExecute_SharedRowMapper() throws Exception {
+		Bridge<IntKey> bridge = new Bridge<IntKey>(IntKey.class);
+		List<IntKey> first = bridge.newQuery().execute();
+		List<IntKey> second = new Query<IntKey>(
+				bridge.getSelectQuery(), IntKey.class).execute();
+
+		assertEquals(5, first.size());
+		assertEquals(first.size(), second.size());
+		for (int i = 0; i < first.size(); i++) {
+			assertEquals(first.get(i).getId(), second.get(i).getId());
+			assertEquals("name " + first.get(i).getId(), second.get(i)
+					.getName());
+		}
+	}
+
+	@Test
+	public void testInsertAll_Batch() throws Exception {
+		List<IntKey> list = new ArrayList<IntKey>();
+		for (int i = 100; i < 107; i++) {
+			IntKey item = new IntKey();
+			item.setId(i);
+			item.setName("name " + i);
+			list.add(item);
+		}
+
+		Bridge<IntKey> bridge = new Bridge<IntKey>(IntKey.class);
+		bridge.insertAll(list, 3);
+
+		Query<IntKey> query = bridge.newQuery();
+		query.setFilter(new PropertyFilter("id", Comparators.GREATER_OR_EQUAL,
+				100));
+		List<IntKey> inserted = query.execute();
+
+		Connection conn = new ConnectionManager().createConnection();
+		conn.createStatement().executeUpdate(
+				"DELETE FROM IntKey WHERE id >= 100");
+		conn.close();
+
+		assertEquals(7, inserted.size());
+		for (IntKey item : inserted) {
+			assertEquals("name " + item.getId(), item.getName());
+		}
+	}
+
+	@Test
+	public void testSave() throws Exception {
+		Bridge<IntKey> bridge = new Bridge<IntKey>(IntKey.class);
+		IntKey first = new IntKey();
+		first.setId(200);
+		first.setName("first");
+		bridge.save(first);
+
+		first.setName("first updated");
+		IntKey second = new IntKey();
+		second.setId(201);
+		second.setName("second");
+		List<IntKey> items = new ArrayList<IntKey>();
+		items.add(first);
+		items.add(second);
+		bridge.saveAll(items);
+
+		Query<IntKey> query = bridge.newQuery();
+		query.setFilter(new PropertyFilter("id", Comparators.GREATER_OR_EQUAL,
+				200));
+		query.setOrderBy("id");
+		List<IntKey> saved = query.execute();
+
+		Connection conn = new ConnectionManager().createConnection();
+		conn.createStatement().executeUpdate(
+				"DELETE FROM IntKey WHERE id >= 200");
+		conn.close();
+
+		assertEquals(2, saved.size());
+		assertEquals("first updated", saved.get(0).getName());
+		assertEquals("second", saved.get(1).getName());
+	}
+
+	@Test
+	public void testInsertAll_SuidKeys() throws Exception {
+		Bridge<SuidKey> bridge = new Bridge<SuidKey>(SuidKey.class);
+		bridge.setKeyGenerator(new SuidKeyGenerator());
+		try {
+			SuidKey parent = new SuidKey();
+			parent.setName("parent");
+			assertTrue(bridge.assignKey(parent));
+			assertFalse(bridge.assignKey(parent));
+
+			List<SuidKey> items = new ArrayList<SuidKey>();
+			items.add(parent);
+			for (int i = 0; i < 5; i++) {
+				SuidKey child = new SuidKey();
+				child.setParentId(parent.getId());
+				child.setName("child " + i);
+				items.add(child);
+			}
+			bridge.insertAll(items, 4);
+
+			SuidKey saved = new SuidKey();
+			saved.setName("saved");
+			bridge.save(saved);
+
+			Query<SuidKey> query = bridge.newQuery();
+			query.setFilter(new PropertyFilter("parentId", Comparators.EQUAL,
+					parent.getId()));
+			List<SuidKey> children = query.execute();
+
+			Set<Long> keys = new HashSet<Long>();
+			for (SuidKey item : items) {
+				assertTrue(item.getId() != 0);
+				keys.add(item.getId());
+			}
+			keys.add(saved.getId());
+			assertEquals(7, keys.size());
+			assertEquals(5, children.size());
+		} finally {
+			bridge.setKeyGenerator(null);
+			Connection conn = new ConnectionManager().createConnection();
+			conn.createStatement().executeUpdate("DELETE FROM SuidKey");
+			conn.close();
+		}
+	}
+
+	@Test
+	public void testInsertAll_HiLoKeys() throws Exception {
+		HiLoKeyGenerator sequence = new HiLoKeyGenerator("KeySequence", 100);
+		sequence.setMinBlockSize(4);
+		HiLoKeyGenerator table = new HiLoKeyGenerator("KeyBlock", "name",
+				"nextKey", "SuidKey");
+		table.setMinBlockSize(4);
+
+		Bridge<SuidKey> bridge = new Bridge<SuidKey>(SuidKey.class);
+		Set<Long> keys = new HashSet<Long>();
+		try {
+			for (HiLoKeyGenerator generator : new HiLoKeyGenerator[] {
+					sequence, table }) {
+				bridge.setKeyGenerator(generator);
+				List<SuidKey> items = new ArrayList<SuidKey>();
+				for (int i = 0; i < 30; i++) {
+					SuidKey item = new SuidKey();
+					item.setName("hilo " + i);
+					items.add(item);
+				}
+				bridge.insertAll(items, 8);
+				for (SuidKey item : items) {
+					keys.add(item.getId());
+				}
+				assertTrue(generator.getReservationCount() > 1);
+			}
+			assertEquals(60, keys.size());
+			assertEquals(60, bridge.newQuery().execute().size());
+		} finally {
+			bridge.setKeyGenerator(null);
+			Connection conn = new ConnectionManager().createConnection();
+			conn.createStatement().executeUpdate("DELETE FROM SuidKey");
+			conn.close();
+		}
+	}
+
+	@Test
+	public void testOptimisticLock() throws Exception {
+		Bridge<VersionedItem> bridge = new Bridge<VersionedItem>(
+				VersionedItem.class);
+		assertEquals("UPDATE VersionedItem SET id = ?, name = ?, "
+				+ "version = version + 1 WHERE id = ? AND version = ?", bridge
+				.getDescriptor().getUpdateQuery());
+		try {
+			VersionedItem item = new VersionedItem();
+			item.setId(1);
+			item.setName("first");
+			bridge.save(item);
+			assertEquals(1, item.getVersion());
+
+			Query<VersionedItem> query = bridge.newQuery();
+			VersionedItem stale = query.execute().get(0);
+			item.setName("first updated");
+			bridge.update(item);
+			assertEquals(2, item.getVersion());
+
+			stale.setName("lost update");
+			try {
+				bridge.update(stale);
+				fail("The stale item has been updated.");
+			} catch (OptimisticLockException e) {
+				assertEquals(1, stale.getVersion());
+				assertSame(stale, e.getItems().get(0));
+			}
+
+			VersionedItem second = new VersionedItem();
+			second.setId(2);
+			second.setName("second");
+			bridge.insert(second);
+			List<VersionedItem> items = new ArrayList<VersionedItem>();
+			items.add(second);
+			items.add(stale);
+			try {
+				bridge.updateAll(items);
+				fail("The stale item has been updated.");
+			} catch (OptimisticLockException e) {
+				assertEquals(1, e.getItems().size());
+				assertEquals(1, second.getVersion());
+			}
+
+			// A conflict leaves the transaction of the caller open.
+			Connector.openConnection();
+			try {
+				bridge.updateAll(items);
+				fail("The stale item has been updated.");
+			} catch (OptimisticLockException e) {
+				assertEquals(1, Connector.getInstance()
+						.getConnectionStackCount());
+			} finally {
+				Connector.rollBack();
+			}
+
+			items.remove(stale);
+			items.add(item);
+			bridge.saveAll(items);
+			assertEquals(2, second.getVersion());
+			assertEquals(3, item.getVersion());
+
+			query.setOrderBy("id");
+			List<VersionedItem> saved = query.execute();
+			assertEquals(2, saved.size());
+			assertEquals("first updated", saved.get(0).getName());
+			assertEquals(3, saved.get(0).getVersion());
+			assertEquals(2, saved.get(1).getVersion());
+		} finally {
+			Connection conn = new ConnectionManager().createConnection();
+			conn.createStatement().executeUpdate("DELETE FROM VersionedItem");
+			conn.close();
+		}
+	}
+
+	@Test
+	public void testOptimisticLock_InsertAll() throws Exception {
+		Bridge<VersionedItem> bridge = new Bridge<VersionedItem>(
+				VersionedItem.class);
+		try {
+			List<VersionedItem> items = new ArrayList<VersionedItem>();
+			for (int i = 1; i <= 3; i++) {
+				VersionedItem item = new VersionedItem();
+				item.setId(i);
+				item.setName("item " + i);
+				items.add(item);
+			}
+			bridge.insertAll(items, 2);
+			for (VersionedItem item : items) {
+				assertEquals(1, item.getVersion());
+			}
+
+			VersionedItem item = items.get(2);
+			item.setName("item 3 updated");
+			bridge.update(item);
+			assertEquals(2, item.getVersion());
+
+			Query<VersionedItem> query = bridge.newQuery();
+			query.setOrderBy("id");
+			List<VersionedItem> saved = query.execute();
+			assertEquals(3, saved.size());
+			assertEquals(1, saved.get(0).getVersion());
+			assertEquals("item 3 updated", saved.get(2).getName());
+			assertEquals(2, saved.get(2).getVersion());
+		} finally {
+			Connection conn = new ConnectionManager().createConnection();
+			conn.createStatement().executeUpdate("DELETE FROM VersionedItem");
+			conn.close();
+		}
+	}
+
+	@Test
+	public void testUpdateAndDelete_Filter() throws Exception {
+		List<IntKey> list = new ArrayList<IntKey>();
+		for (int i = 300; i < 306; i++) {
+			IntKey item = new IntKey();
+			item.setId(i);
+			item.setName("name " + i);
+			list.add(item);
+		}
+		Bridge<IntKey> bridge = new Bridge<IntKey>(IntKey.class);
+		bridge.insertAll(list);
+
+		Map<String, Object> assignments = new HashMap<String, Object>();
+		assignments.put("name", "bulk");
+		int updated = bridge.update(new LogicalFilter(Operators.AND,
+				new PropertyFilter("id", Comparators.GREATER_OR_EQUAL, 300),
+				new PropertyFilter("id", Comparators.LOWER, 303)),
+				assignments);
+
+		Query<IntKey> query = bridge.newQuery();
+		query.setFilter(new PropertyFilter("name", Comparators.EQUAL, "bulk"));
+		int bulkCount = query.execute().size();
+
+		int deleted = bridge.delete(new PropertyFilter("id",
+				Comparators.GREATER_OR_EQUAL, 300));
+
+		assertEquals(3, updated);
+		assertEquals(3, bulkCount);
+		assertEquals(6, deleted);
+		assertEquals(5, bridge.newQuery().execute().size());
+	}
+
+	@Test
+	public void testPurgeJob() throws Exception {
+		List<IntKey> list = new ArrayList<IntKey>();
+		for (int i = 400; i < 450; i++) {
+			IntKey item = new IntKey();
+			item.setId(i);
+			item.setName(i % 5 == 0 ? "kept" : "expired");
+			list.add(item);
+		}
+		Bridge<IntKey> bridge = new Bridge<IntKey>(IntKey.class);
+		bridge.insertAll(list);
+
+		PurgeJob<IntKey> job = new PurgeJob<IntKey>(bridge,
+				new PropertyFilter("name", Comparators.EQUAL, "expired"));
+		job.setChunkSize(7);
+		job.setMaxRowsPerSecond(100000);
+		long deleted = job.execute();
+
+		int remaining = bridge.newQuery().execute().size();
+		bridge.delete(new PropertyFilter("id", Comparators.GREATER_OR_EQUAL,
+				400));
+
+		assertEquals(40, deleted);
+		assertEquals(6, job.getChunkCount());
+		assertEquals(449, job.getLastKey());
+		assertEquals(15, remaining);
+	}
+
+	@Test
+	public void testStream() throws Exception {
+		Bridge<IntKey> bridge = new Bridge<IntKey>(IntKey.class);
+		Query<IntKey> query = bridge.newQuery();
+		query.setOrderBy("id");
+		query.setFetchSize(2);
+
+		Stream<IntKey> stream = query.stream();
+		int total = 0;
+		try {
+			for (Object item : stream.toArray()) {
+				total += ((IntKey) item).getId();
+			}
+		} finally {
+			stream.close();
+		}
+
+		Cursor<IntKey> cursor = query.iterator();
+		IntKey first = cursor.next();
+		int stack = Connector.getInstance().getConnectionStackCount();
+		cursor.close();
+
+		assertEquals(15, total);
+		assertEquals(1, first.getId());
+		assertEquals(1, stack);
+		assertFalse(cursor.hasNext());
+		assertEquals(0, Connector.getInstance().getConnectionStackCount());
+
+		// A failed bind releases the connection as well.
+		query.setFilter(new PropertyFilter("id", Comparators.EQUAL, "one"));
+		try {
+			query.execute();
+			fail("A value not matching the column type must not be bound.");
+		} catch (Exception e) {
+			// expected
+		}
+		assertEquals(0, Connector.getInstance().getConnectionStackCount());
+	}
+
+	@Test
+	public void testPage() throws Exception {
+		Bridge<IntKey> bridge = new Bridge<IntKey>(IntKey.class);
+		Query<IntKey> query = bridge.newQuery();
+
+		List<Integer> ids = new ArrayList<Integer>();
+		int pages = 0;
+		String continuation = null;
+		do {
+			Page<IntKey> page = query.page(2, continuation);
+			for (IntKey item : page.getItems()) {
+				ids.add(item.getId());
+			}
+			continuation = page.getContinuation();
+			pages++;
+		} while (continuation != null);
+
+		query.setOrderBy("name DESC");
+		Page<IntKey> first = query.page(3, null);
+		Page<IntKey> second = query.page(3, first.getContinuation());
+
+		query.setOrderBy("name");
+		try {
+			query.page(3, first.getContinuation());
+			fail("A token of another order must be rejected.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		query.getJoins().add(
+				new Join(StringKey.class, IntKey.class, "id", "stringKeyId"));
+		try {
+			query.page(3, null);
+			fail("A query having joins must not be paged.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		assertEquals("[1, 2, 3, 4, 5]", ids.toString());
+		assertEquals(3, pages);
+		assertEquals(5, first.getItems().get(0).getId());
+		assertEquals(3, first.getItems().get(2).getId());
+		assertEquals(2, second.getItems().size());
+		assertEquals(1, second.getItems().get(1).getId());
+		assertFalse(second.hasNext());
+	}
+
+	@Test
+	public void testCount() throws Exception {
+		Bridge<IntKey> bridge = new Bridge<IntKey>(IntKey.class);
+		Query<IntKey> query = bridge.newQuery();
+		query.setOrderBy("name DESC");
+		assertEquals(5, query.count());
+		assertEquals(5, query.estimateCount());
+
+		query.setLimit(3);
+		assertEquals(3, query.count());
+
+		query.setFilter(new PropertyFilter("id", Comparators.GREATER, 3));
+		assertEquals(2, query.count());
+		assertEquals(2, query.estimateCount());
+
+		Query<IntKey> custom = new Query<IntKey>("SELECT id, name FROM IntKey",
+				IntKey.class);
+		custom.setOrderBy("id");
+		assertEquals(5, custom.count());
+	}
+
+	/**
+	 * A projection of IntKey without its primary key.
+	 */
+	public static class ItemName {
+		private String name;
+
+		public String getName() {
+			return this.name;
+		}
+
+		public void setName(String val) {
+			this.name = val;
+		}
+	}
+
+	@Test
+	public void testProjections() throws Exception {
+		Bridge<IntKey> bridge = new Bridge<IntKey>(IntKey.class);
+		Query<IntKey> query = bridge.newQuery();
+		query.setOrderBy("id");
+
+		List<ItemName> names = query.select(ItemName.class, "name");
+		List<Long> ids = query.selectValues(Long.class, "id");
+
+		query.setFilter(new PropertyFilter("id", Comparators.GREATER, 3));
+		List<Object[]> tuples = query.selectTuples("id", "name");
+
+		assertEquals(5, names.size());
+		assertEquals("name 1", names.get(0).getName());
+		assertEquals("[1, 2, 3, 4, 5]", ids.toString());
+		assertEquals(2, tuples.size());
+		assertEquals(Integer.valueOf(4), tuples.get(0)[0]);
+		assertEquals("name 5", tuples.get(1)[1]);
+	}
+
+	@Test
+	public void testWriteBehind_InsertAfterUpdate() throws Exception {
+		Bridge<IntKey> bridge = new Bridge<IntKey>(IntKey.class);
+		WriteBehindBridge<IntKey> writer = new WriteBehindBridge<IntKey>(
+				bridge, 100, 10, 60000);
+		IntKey item = new IntKey();
+		item.setId(400);
+		item.setName("written behind");
+		try {
+			writer.update(item);
+			writer.insert(item);
+			assertEquals(1, writer.getQueueDepth());
+		} finally {
+			writer.close();
+		}
+
+		Query<IntKey> query = bridge.newQuery();
+		query.setFilter(new PropertyFilter("id", 400));
+		List<IntKey> items = query.execute();
+		bridge.delete(item);
+
+		assertNull(writer.getLastError());
+		assertEquals(1, items.size());
+		assertEquals("written behind", items.get(0).getName());
+	}
+
+	@Test
+	public void testWriteBehind_FailedRow() throws Exception {
+		Bridge<VersionedItem> bridge = new Bridge<VersionedItem>(
+				VersionedItem.class);
+		try {
+			VersionedItem first = new VersionedItem();
+			first.setId(10);
+			first.setName("first");
+			bridge.insert(first);
+			VersionedItem third = new VersionedItem();
+			third.setId(12);
+			third.setName("third");
+			bridge.insert(third);
+			Query<VersionedItem> query = bridge.newQuery();
+			query.setFilter(new PropertyFilter("id", 12));
+			VersionedItem stale = query.execute().get(0);
+			third.setName("third updated");
+			bridge.update(third);
+
+			// The stale update fails the flush, the other rows are written.
+			WriteBehindBridge<VersionedItem> writer =
+					new WriteBehindBridge<VersionedItem>(bridge, 100, 10,
+							60000);
+			VersionedItem second = new VersionedItem();
+			second.setId(11);
+			second.setName("second");
+			first.setName("first updated");
+			stale.setName("lost update");
+			try {
+				writer.insert(second);
+				writer.update(first);
+				writer.update(stale);
+			} finally {
+				writer.close();
+			}
+
+			query = bridge.newQuery();
+			query.setOrderBy("id");
+			List<VersionedItem> saved = query.execute();
+
+			assertEquals(1, writer.getFailedOperationCount());
+			assertEquals(2, writer.getFlushedOperationCount());
+			assertTrue(
+					writer.getLastError() instanceof OptimisticLockException);
+			assertEquals(3, saved.size());
+			assertEquals("first updated", saved.get(0).getName());
+			assertEquals(2, saved.get(0).getVersion());
+			assertEquals(2, first.getVersion());
+			assertEquals("second", saved.get(1).getName());
+			assertEquals(1, second.getVersion());
+			assertEquals("third updated", saved.get(2).getName());
+		} finally {
+			Connection conn = new ConnectionManager().createConnection();
+			conn.createStatement().executeUpdate("DELETE FROM VersionedItem");
+			conn.close();
+		}
+	}
+
+	@Test
+	public void testBulkImport() throws Exception {
+		File csv = new File("target/intkey.csv");
+		writeFile(csv, "id,name\n300,plain\r\n301,\"with, comma\"\n"
+				+ "302,\"with \"\"quotes\"\"\"\n303,\n");
+
+		BulkImporter<IntKey> importer = new BulkImporter<IntKey>(IntKey.class);
+		importer.setHeader(true);
+		importer.setBatchSize(3);
+		BulkImporter.Result result = importer.importFile(csv);
+		assertEquals(4, result.getRowCount());
+		assertFalse(result.isNativeImport());
+
+		writeFile(csv, "400,native 1\n401,native 2\n");
+		importer.setHeader(false);
+		result = importer.importFile(csv);
+		assertEquals(2, result.getRowCount());
+		assertTrue(result.isNativeImport());
+		csv.delete();
+
+		Bridge<IntKey> bridge = new Bridge<IntKey>(IntKey.class);
+		Query<IntKey> query = bridge.newQuery();
+		query.setFilter(new PropertyFilter("id", Comparators.GREATER_OR_EQUAL,
+				300));
+		query.setOrderBy("id");
+		List<IntKey> imported = query.execute();
+
+		Connection conn = new ConnectionManager().createConnection();
+		conn.createStatement().executeUpdate(
+				"DELETE FROM IntKey WHERE id >= 300");
+		conn.close();
+
+		assertEquals(6, imported.size());
+		assertEquals("plain", imported.get(0).getName());
+		assertEquals("with, comma", imported.get(1).getName());
+		assertEquals("with \"quotes\"", imported.get(2).getName());
+		assertNull(imported.get(3).getName());
+		assertEquals("native 2", imported.get(5).getName());
+	}
+
+	@Test
+	public void testBulkImport_OutOfRange() throws Exception {
+		File csv = new File("target/intkey.csv");
+		writeFile(csv, "300,fits\n3000000000,too large\n");
+
+		BulkImporter<IntKey> importer = new BulkImporter<IntKey>(IntKey.class);
+		importer.setNativeImportEnabled(false);
+		try {
+			importer.importFile(csv);
+			fail("An id out of the int range must be rejected.");
+		} catch (NumberFormatException e) {
+			assertTrue(e.getMessage().startsWith("Line 2:"));
+		} finally {
+			csv.delete();
+		}
+
+		Query<IntKey> query = new Bridge<IntKey>(IntKey.class).newQuery();
+		query.setFilter(new PropertyFilter("id", 300));
+		assertTrue("The import should be rolled back.", query.execute()
+				.isEmpty());
+	}
+
+	private static void writeFile(File file, String content) throws Exception {
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(content.getBytes("UTF-8"));
+		fos.close();
+	}
 }
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2008 Jean-Philippe Gravel, eng. Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import static junit.framework.Assert.*;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLNonTransientConnectionException;
+import java.util.List;
+import java.util.Set;
+
+import org.formix.btb.types.Department;
+import org.formix.btb.types.Employee;
+import org.formix.btb.types.Identifiable;
+import org.formix.btb.utils.DatabaseManager;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestSchemaIntrospector {
+
+	private static DatabaseManager dbm;
+	private static String dbName = "data/testdb";
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		File testDB = new File(dbName);
+		boolean testDBExists = testDB.exists();
+
+		dbm = new DatabaseManager();
+		if (!testDBExists) {
+			dbm.createDatabase(new File("TestDB.sql"));
+		}
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		SchemaIntrospector.clear();
+		try {
+			ConnectionManager mgr = new ConnectionManager();
+			mgr.createConnection("derbyShutdown");
+		} catch (SQLNonTransientConnectionException e) {
+			System.out.println("Connection closed.");
+		}
+		Util.delete(new File("data"));
+	}
+
+	@Test
+	public void testLoad() throws Exception {
+		SchemaIntrospector.clear();
+		Connection conn = new ConnectionManager().createConnection();
+		int count = SchemaIntrospector.load(conn);
+		conn.close();
+
+		assertTrue("At least the test tables should be loaded.", count >= 5);
+
+		Set<String> roCols = SchemaIntrospector.getReadOnlyColumns("Employee");
+		assertNotNull("The Employee table should be loaded.", roCols);
+		assertEquals(1, roCols.size());
+		assertEquals("id", roCols.iterator().next().toLowerCase());
+
+		roCols = SchemaIntrospector.getReadOnlyColumns("IntKey");
+		assertNotNull("The IntKey table should be loaded.", roCols);
+		assertTrue("IntKey has no generated column.", roCols.isEmpty());
+		assertFalse("Only the current schema should be loaded.",
+				SchemaIntrospector.isLoaded("SysTables"));
+	}
+
+	@Test
+	public void testWarmUp() throws Exception {
+		List<Class<?>> types = SchemaIntrospector
+				.scanPackage("org.formix.btb.types");
+		assertTrue(types.contains(Employee.class));
+		assertTrue(types.contains(Department.class));
+
+		Connection conn = new ConnectionManager().createConnection();
+		List<SqlDescriptor> descriptors = SchemaIntrospector.warmUp(conn,
+				"org.formix.btb.types");
+		conn.close();
+
+		assertEquals(types.size(), descriptors.size());
+		SqlDescriptor descriptor = SqlDescriptor.getInstance(Department.class);
+		assertTrue(descriptors.contains(descriptor));
+		assertEquals("INSERT INTO Department (name) VALUES (?)",
+				descriptor.getInsertQuery());
+		assertTrue("Identifiable has no table, its queries stay pending.",
+				SqlDescriptor.getInstance(Identifiable.class)
+						.getReadOnlyColumns() == null);
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2008 Jean-Philippe Gravel, eng. Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb;
+
+import static junit.framework.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestSuid {
+
+	private static class ManualClock extends SUID {
+		private long now;
+
+		public ManualClock(int nodeId, int nodeBits, long now) {
+			super(nodeId, nodeBits);
+			this.now = now;
+		}
+
+		@Override
+		long currentTimeMillis() {
+			return now;
+		}
+	}
+
+	@Test
+	public void testClockRegressionAndExhaustion() {
+		ManualClock suid = new ManualClock(5, 12, 1000);
+		long previous = suid.next();
+		assertEquals(5, (previous & 0xFFFF) >> 4);
+
+		// Going back in time continues from the last timestamp and carries
+		// into the next millisecond once the 16 ids are used.
+		suid.now = 900;
+		for (int i = 0; i < 40; i++) {
+			long id = suid.next();
+			assertTrue(id > previous);
+			assertEquals(5, (id & 0xFFFF) >> 4);
+			previous = id;
+		}
+		assertEquals(1002, previous >> 16);
+
+		suid.now = 2000;
+		long id = suid.next();
+		assertEquals(2000, id >> 16);
+		assertEquals(0, id & 0xF);
+	}
+
+	@Test
+	public void testRandomStartWithoutNodeBits() {
+		long first = new ManualClock(0, 0, 1000).next();
+		boolean differs = false;
+		for (int i = 0; i < 8; i++) {
+			long id = new ManualClock(0, 0, 1000).next();
+			assertEquals(1000, id >> 16);
+			assertTrue((id & 0xFFFF) < 0x8000);
+			differs |= id != first;
+		}
+		assertTrue("Each process should start at a random sequence.", differs);
+	}
+
+	@Test
+	public void testConcurrentIdsAreUnique() throws Exception {
+		final SUID suid = new SUID(0, 0);
+		final int perThread = 50000;
+		final long[][] ids = new long[8][perThread];
+		Thread[] threads = new Thread[ids.length];
+		for (int t = 0; t < threads.length; t++) {
+			final long[] out = ids[t];
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perThread; i++) {
+						out[i] = suid.next();
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		long[] all = new long[ids.length * perThread];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t].join();
+			for (int i = 1; i < perThread; i++) {
+				assertTrue(ids[t][i] > ids[t][i - 1]);
+			}
+			System.arraycopy(ids[t], 0, all, t * perThread, perThread);
+		}
+		Arrays.sort(all);
+		for (int i = 1; i < all.length; i++) {
+			assertTrue(all[i] != all[i - 1]);
+		}
+	}
+}
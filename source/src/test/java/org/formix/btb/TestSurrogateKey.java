@@ -18,13 +18,17 @@ import java.io.File;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.SQLNonTransientConnectionException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.GregorianCalendar;
+import java.util.List;
 
 import org.formix.btb.Bridge;
 import org.formix.btb.ConnectionManager;
+import org.formix.btb.Page;
 import org.formix.btb.Query;
 import org.formix.btb.Util;
 import org.formix.btb.types.Department;
@@ -135,6 +139,328 @@ public class TestSurrogateKey {
 		System.out.println(list);
 	}
 
+	@Test
+	public void filterTest() throws Exception {
+		insertEmployee("name1", "123 234 345", 12.5);
+		insertEmployee("name2", "aaa ccc ddd", 13);
+		insertEmployee(null, "xxx ddd ggg", 14);
+
+		Bridge<Employee> bridge = new Bridge<Employee>(Employee.class);
+		Query<Employee> query = bridge.newQuery();
+		query.setFilter(new LogicalFilter(Operators.AND, new PropertyFilter(
+				"wages", Comparators.GREATER, 12.5), new PropertyFilter(
+				"name", Comparators.IS_NOT_NULL)));
+		List<Employee> list = query.execute();
+		assertEquals(1, list.size());
+		assertEquals("name2", list.get(0).getName());
+		assertEquals(13.0, list.get(0).getWages());
+
+		query.setFilter(new PropertyFilter("wages", Comparators.LOWER, 14));
+		assertEquals(2, query.execute().size());
+	}
+
+	@Test
+	public void partialLoadTest() throws Exception {
+		insertEmployee("name1", "123 234 345", 12);
+		insertEmployee("name2", "aaa ccc ddd", 13);
+		insertEmployee("name3", "xxx ddd ggg", 14);
+
+		Bridge<Employee> bridge = new Bridge<Employee>(Employee.class);
+		bridge.addPropertyGroup("summary", "name");
+		Query<Employee> query = bridge.newQuery();
+		query.setPropertyGroups("summary");
+		query.setOrderBy("name");
+		List<Employee> list = query.execute();
+
+		assertEquals(3, list.size());
+		assertEquals("name1", list.get(0).getName());
+		assertEquals("na", list.get(0).getSin());
+		assertFalse(bridge.isLoaded(list.get(2)));
+
+		bridge.ensureLoaded(list.get(0));
+		for (Employee e : list) {
+			assertTrue(bridge.isLoaded(e));
+		}
+		assertEquals("aaa ccc ddd", list.get(1).getSin());
+		assertEquals(14.0, list.get(2).getWages());
+
+		// Partially loaded items are completed before being written.
+		list = query.execute();
+		list.get(0).setName("name1 updated");
+		bridge.update(list.get(0));
+		assertEquals("name1 updated", readName(list.get(0).getId()));
+		assertEquals("123 234 345", list.get(0).getSin());
+		assertTrue(bridge.isLoaded(list.get(1)));
+	}
+
+	@Test
+	public void partialPageTest() throws Exception {
+		insertEmployee("name1", "123 234 345", 14);
+		insertEmployee("name2", "aaa ccc ddd", 12);
+		insertEmployee("name3", "xxx ddd ggg", 13);
+
+		Bridge<Employee> bridge = new Bridge<Employee>(Employee.class);
+		bridge.addPropertyGroup("summary", "name");
+		Query<Employee> query = bridge.newQuery();
+		query.setPropertyGroups("summary");
+		query.setOrderBy("wages");
+
+		List<String> names = new ArrayList<String>();
+		String continuation = null;
+		int pages = 0;
+		do {
+			Page<Employee> page = query.page(1, continuation);
+			for (Employee e : page.getItems()) {
+				names.add(e.getName());
+				assertFalse(bridge.isLoaded(e));
+			}
+			continuation = page.getContinuation();
+			pages++;
+		} while ((continuation != null) && (pages < 10));
+
+		assertEquals("[name2, name3, name1]", names.toString());
+		assertEquals(3, pages);
+	}
+
+	@Test
+	public void partialAssignTest() throws Exception {
+		insertEmployee("name1", "123 234 345", 12);
+		insertEmployee("name2", "aaa ccc ddd", 13);
+
+		Bridge<Employee> bridge = new Bridge<Employee>(Employee.class);
+		bridge.addPropertyGroup("summary", "name");
+		Query<Employee> query = bridge.newQuery();
+		query.setPropertyGroups("summary");
+		query.setTrackChanges(true);
+		query.setOrderBy("name");
+		List<Employee> list = query.execute();
+
+		// Values assigned before completion are kept and written.
+		list.get(0).setSin("new");
+		list.get(0).setWages(99);
+		list.get(1).setWages(77);
+		bridge.update(list.get(0));
+
+		assertEquals("new", list.get(0).getSin());
+		assertEquals(99.0, list.get(0).getWages());
+		assertEquals("new", readSin(list.get(0).getId()));
+		assertEquals(list.get(0).getId(), findIdByWages(bridge, 99));
+		assertEquals("aaa ccc ddd", list.get(1).getSin());
+		assertEquals(77.0, list.get(1).getWages());
+
+		bridge.update(list.get(1));
+		assertEquals(list.get(1).getId(), findIdByWages(bridge, 77));
+	}
+
+	@Test
+	public void partialLoadFailureTest() throws Exception {
+		insertEmployee("name1", "123 234 345", 12);
+		insertEmployee("name2", "aaa ccc ddd", 13);
+
+		Connection connection = this.connMgr.createConnection();
+		Bridge<Employee> bridge = new Bridge<Employee>(connection,
+				Employee.class);
+		bridge.addPropertyGroup("summary", "name");
+		Query<Employee> query = bridge.newQuery();
+		query.setPropertyGroups("summary");
+		query.setOrderBy("name");
+		List<Employee> list = query.execute();
+
+		connection.close();
+		try {
+			bridge.ensureLoaded(list.get(0));
+			fail("Loading with a closed connection must fail.");
+		} catch (SQLException e) {
+			// expected
+		}
+		assertFalse(bridge.isLoaded(list.get(0)));
+		assertFalse(bridge.isLoaded(list.get(1)));
+
+		bridge = new Bridge<Employee>(Employee.class);
+		bridge.ensureLoaded(list.get(0));
+		assertTrue(bridge.isLoaded(list.get(1)));
+		assertEquals("123 234 345", list.get(0).getSin());
+		assertEquals(13.0, list.get(1).getWages());
+	}
+
+	@Test
+	public void nullPrimitiveTest() throws Exception {
+		insertEmployee("name1", "123 234 345", 12);
+		Query<Employee> query = new Query<Employee>(
+				"SELECT id, name, CAST(NULL AS DOUBLE) AS wages FROM employee",
+				Employee.class);
+		try {
+			query.execute();
+			fail("A SQL NULL must not be read as 0 into a primitive.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void insertAllTest() throws Exception {
+		List<Employee> list = insertEmployees(5);
+
+		assertEquals(5, countEmployee());
+		for (Employee e : list) {
+			assertTrue("Primary key: id should be grater than 0.",
+					e.getId() > 0);
+			assertEquals(e.getName(), readName(e.getId()));
+		}
+	}
+
+	@Test
+	public void updateAllTest() throws Exception {
+		List<Employee> list = insertEmployees(5);
+		for (Employee e : list) {
+			e.setName(e.getName() + " updated");
+		}
+
+		Bridge<Employee> bridge = new Bridge<Employee>(Employee.class);
+		int[] counts = bridge.updateAll(list, 2);
+
+		assertEquals(5, counts.length);
+		for (int i = 0; i < counts.length; i++) {
+			assertEquals(1, counts[i]);
+			Employee e = list.get(i);
+			assertEquals(e.getName(), readName(e.getId()));
+		}
+	}
+
+	@Test
+	public void deleteAllTest() throws Exception {
+		List<Employee> list = insertEmployees(5);
+		Bridge<Employee> bridge = new Bridge<Employee>(Employee.class);
+
+		int[] counts = bridge.deleteAll(list.subList(0, 2));
+		assertEquals(2, counts.length);
+		assertEquals(1, counts[0]);
+		assertEquals(1, counts[1]);
+		assertEquals(3, countEmployee());
+
+		List<Integer> keys = new ArrayList<Integer>();
+		for (Employee e : list) {
+			keys.add(e.getId());
+		}
+		assertEquals(3, bridge.deleteAllByKey(keys, 2));
+		assertEquals(0, countEmployee());
+	}
+
+	@Test
+	public void trackChangesTest() throws Exception {
+		Employee inserted = insertEmployee("name1", "123 234 345", 12);
+
+		Bridge<Employee> bridge = new Bridge<Employee>(Employee.class);
+		Query<Employee> query = bridge.newQuery();
+		query.setTrackChanges(true);
+		Employee e = query.execute().get(0);
+		assertEquals(inserted.getId(), e.getId());
+
+		// Changed behind the bridge: only modified columns are written back.
+		executeUpdate("UPDATE employee SET name = 'other', sin = 'changed' "
+				+ "WHERE id = " + e.getId());
+
+		bridge.update(e);
+		assertEquals("Nothing changed, the update should be skipped.",
+				"other", readName(e.getId()));
+
+		e.setName("name2");
+		bridge.update(e);
+		assertEquals("name2", readName(e.getId()));
+		assertEquals("changed", readSin(e.getId()));
+		// Batch writes refresh the snapshot: going back to the previous value
+		// is a change.
+		e.setName("name3");
+		bridge.updateAll(Collections.singletonList(e));
+		assertEquals("name3", readName(e.getId()));
+		e.setName("name2");
+		bridge.update(e);
+		assertEquals("name2", readName(e.getId()));
+	}
+
+	@Test
+	public void writeBehindTest() throws Exception {
+		Bridge<Employee> bridge = new Bridge<Employee>(Employee.class);
+		WriteBehindBridge<Employee> writer = new WriteBehindBridge<Employee>(
+				bridge, 100, 10, 60000);
+		try {
+			List<Employee> list = new ArrayList<Employee>();
+			for (int i = 0; i < 5; i++) {
+				Employee e = new Employee();
+				e.setName("name" + i);
+				list.add(e);
+				writer.insert(e);
+			}
+			assertEquals(5, writer.getQueueDepth());
+			writer.flush();
+			assertEquals(0, writer.getQueueDepth());
+			assertEquals(5, countEmployee());
+
+			Employee e = list.get(0);
+			for (int i = 0; i < 3; i++) {
+				e.setWages(100 + i);
+				writer.update(e);
+			}
+			writer.delete(list.get(1));
+			assertEquals(2, writer.getCoalescedOperationCount());
+			assertEquals(2, writer.getQueueDepth());
+		} finally {
+			writer.close();
+		}
+
+		assertNull(writer.getLastError());
+		assertEquals(7, writer.getFlushedOperationCount());
+		assertEquals(4, countEmployee());
+		assertEquals("name0", readName(findIdByWages(bridge, 102)));
+	}
+
+	private int findIdByWages(Bridge<Employee> bridge, double wages)
+			throws Exception {
+		Query<Employee> query = bridge.newQuery();
+		query.setFilter(new PropertyFilter("wages", Comparators.EQUAL, wages));
+		List<Employee> list = query.execute();
+		assertEquals(1, list.size());
+		return list.get(0).getId();
+	}
+
+	private void executeUpdate(String sql) throws Exception {
+		Connection conn = this.connMgr.createConnection();
+		PreparedStatement stmt = conn.prepareStatement(sql);
+		stmt.executeUpdate();
+		stmt.close();
+		conn.close();
+	}
+
+	private String readSin(int id) throws Exception {
+		String sin = null;
+		Connection conn = this.connMgr.createConnection();
+		PreparedStatement stmt = conn
+				.prepareStatement("SELECT sin FROM employee WHERE id = ?");
+		stmt.setInt(1, id);
+		ResultSet rs = stmt.executeQuery();
+		if (rs.next()) {
+			sin = rs.getString("sin");
+		}
+		rs.close();
+		stmt.close();
+		conn.close();
+		return sin;
+	}
+
+	private List<Employee> insertEmployees(int count) throws Exception {
+		List<Employee> list = new ArrayList<Employee>();
+		for (int i = 0; i < count; i++) {
+			Employee e = new Employee();
+			e.setName("name" + i);
+			e.setWages(10 + i);
+			list.add(e);
+		}
+
+		Bridge<Employee> bridge = new Bridge<Employee>(Employee.class);
+		bridge.insertAll(list, 2);
+		return list;
+	}
+
 	private int countEmployee() throws Exception {
 		int count = 0;
 		Connection conn = this.connMgr.createConnection();
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2008 Jean-Philippe Gravel, eng. Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb.types;
+
+public class SuidKey {
+	private long   id;
+	private long   parentId;
+	private String name;
+	
+	public long getId() {
+		return this.id;
+	}
+	
+	public void setId(long val){
+		this.id = val;
+	}
+	
+	public long getParentId() {
+		return this.parentId;
+	}
+	
+	public void setParentId(long val){
+		this.parentId = val;
+	}
+	
+	public String getName() {
+		return this.name;
+	}
+	
+	public void setName(String val) {
+		this.name = val;
+	}
+	
+	@Override
+	public String toString() {
+		return "SuidKey: id=" + this.id + ", parentId=" + this.parentId
+				+ ", name=" + this.name;
+	}
+}
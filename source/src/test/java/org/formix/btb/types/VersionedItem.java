@@ -0,0 +1,50 @@
+/**
+ * Copyright 2008 Jean-Philippe Gravel, eng. Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.formix.btb.types;
+
+public class VersionedItem {
+	private int    id;
+	private String name;
+	private int    version;
+	
+	public int getId() {
+		return this.id;
+	}
+	
+	public void setId(int val){
+		this.id = val;
+	}
+	
+	public String getName() {
+		return this.name;
+	}
+	
+	public void setName(String val) {
+		this.name = val;
+	}
+	
+	public int getVersion() {
+		return this.version;
+	}
+	
+	public void setVersion(int val) {
+		this.version = val;
+	}
+	
+	@Override
+	public String toString() {
+		return "VersionedItem: id=" + this.id + ", name=" + this.name
+				+ ", version=" + this.version;
+	}
+}